@@ -42,6 +42,7 @@ import android.view.animation.TranslateAnimation;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.angel.sdk.BleAndroidTransport;
 import com.angel.sdk.BleCharacteristic;
 import com.angel.sdk.BleDevice;
 import com.angel.sdk.ChAccelerationEnergyMagnitude;
@@ -59,6 +60,9 @@ import com.angel.sdk.SrvWaveformSignal;
 
 import junit.framework.Assert;
 
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
 public class HomeActivity extends Activity {
 
     @Override
@@ -69,18 +73,6 @@ public class HomeActivity extends Activity {
 
         mHandler = new Handler(this.getMainLooper());
 
-        mPeriodicReader = new Runnable() {
-            @Override
-            public void run() {
-                mBleDevice.readRemoteRssi();
-                if (mChAccelerationEnergyMagnitude != null) {
-                    mChAccelerationEnergyMagnitude.readValue(mAccelerationEnergyMagnitudeListener);
-                }
-
-                mHandler.postDelayed(mPeriodicReader, RSSI_UPDATE_INTERVAL);
-            }
-        };
-
         if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
             mGreenOpticalWaveformView = (GraphView) findViewById(R.id.graph_green);
             mGreenOpticalWaveformView.setStrokeColor(0xffffffff);
@@ -112,7 +104,6 @@ public class HomeActivity extends Activity {
         if (orientation == Configuration.ORIENTATION_PORTRAIT) {
             displaySignalStrength(0);
         }
-        unscheduleUpdaters();
         mBleDevice.disconnect();
     }
 
@@ -121,7 +112,7 @@ public class HomeActivity extends Activity {
         if (mBleDevice != null) {
             mBleDevice.disconnect();
         }
-        mBleDevice = new BleDevice(this, mDeviceGraphLifecycleCallback, mHandler);
+        mBleDevice = new BleDevice(new BleAndroidTransport(this), mDeviceGraphLifecycleCallback, mUiExecutor);
 
         try {
             mBleDevice.registerServiceClass(SrvWaveformSignal.class);
@@ -146,7 +137,7 @@ public class HomeActivity extends Activity {
         if (mBleDevice != null) {
             mBleDevice.disconnect();
         }
-        mBleDevice = new BleDevice(this, mDeviceLifecycleCallback, mHandler);
+        mBleDevice = new BleDevice(new BleAndroidTransport(this), mDeviceLifecycleCallback, mUiExecutor);
 
         try {
             mBleDevice.registerServiceClass(SrvHeartRate.class);
@@ -164,20 +155,24 @@ public class HomeActivity extends Activity {
 
         mBleDevice.connect(deviceAddress);
 
-        scheduleUpdaters();
         displayOnDisconnect();
     }
 
     private final BleDevice.LifecycleCallback mDeviceGraphLifecycleCallback = new BleDevice.LifecycleCallback() {
         @Override
         public void onBluetoothServicesDiscovered(BleDevice bleDevice) {
-            bleDevice.getService(SrvWaveformSignal.class).getAccelerationWaveform().enableNotifications(mAccelerationWaveformListener);
-            bleDevice.getService(SrvWaveformSignal.class).getOpticalWaveform().enableNotifications(mOpticalWaveformListener);
+            ChAccelerationWaveform accelerationWaveform = bleDevice.getService(SrvWaveformSignal.class).getAccelerationWaveform();
+            accelerationWaveform.setPrimitiveMode(true);
+            accelerationWaveform.setBatchedDelivery(WAVEFORM_BATCH_SIZE, WAVEFORM_BATCH_DELAY);
+            accelerationWaveform.addValueListener(mAccelerationWaveformListener);
+            ChOpticalWaveform opticalWaveform = bleDevice.getService(SrvWaveformSignal.class).getOpticalWaveform();
+            opticalWaveform.setBatchedDelivery(WAVEFORM_BATCH_SIZE, WAVEFORM_BATCH_DELAY);
+            opticalWaveform.addValueListener(mOpticalWaveformListener);
+            bleDevice.enableNotifications(Arrays.<BleCharacteristic<?>>asList(accelerationWaveform, opticalWaveform));
         }
 
         @Override
         public void onBluetoothDeviceDisconnected() {
-            unscheduleUpdaters();
             connectGraphs(mBleDeviceAddress);
         }
 
@@ -196,19 +191,31 @@ public class HomeActivity extends Activity {
     private final BleDevice.LifecycleCallback mDeviceLifecycleCallback = new BleDevice.LifecycleCallback() {
         @Override
         public void onBluetoothServicesDiscovered(BleDevice device) {
-            device.getService(SrvHeartRate.class).getHeartRateMeasurement().enableNotifications(mHeartRateListener);
-            device.getService(SrvHealthThermometer.class).getTemperatureMeasurement().enableNotifications(mTemperatureListener);
-            device.getService(SrvBattery.class).getBatteryLevel().enableNotifications(mBatteryLevelListener);
-            device.getService(SrvActivityMonitoring.class).getStepCount().enableNotifications(mStepCountListener);
+            // Subscribe to all the streams in one pass rather than one
+            // descriptor write round trip after another
+            ChHeartRateMeasurement heartRate = device.getService(SrvHeartRate.class).getHeartRateMeasurement();
+            heartRate.addValueListener(mHeartRateListener);
+            ChTemperatureMeasurement temperature = device.getService(SrvHealthThermometer.class).getTemperatureMeasurement();
+            temperature.addValueListener(mTemperatureListener);
+            ChBatteryLevel batteryLevel = device.getService(SrvBattery.class).getBatteryLevel();
+            batteryLevel.addValueListener(mBatteryLevelListener);
+            ChStepCount stepCount = device.getService(SrvActivityMonitoring.class).getStepCount();
+            stepCount.addValueListener(mStepCountListener);
+            device.enableNotifications(Arrays.<BleCharacteristic<?>>asList(heartRate, temperature, batteryLevel, stepCount));
             mChAccelerationEnergyMagnitude = device.getService(SrvActivityMonitoring.class).getChAccelerationEnergyMagnitude();
             Assert.assertNotNull(mChAccelerationEnergyMagnitude);
+
+            // The SDK polls the values without notifications while the
+            // device is connected
+            mChAccelerationEnergyMagnitude.addValueListener(mAccelerationEnergyMagnitudeListener);
+            device.schedulePoll(mChAccelerationEnergyMagnitude, POLL_INTERVAL, BleDevice.POLL_PRIORITY_NORMAL);
+            device.scheduleRssiPoll(POLL_INTERVAL, BleDevice.POLL_PRIORITY_LOW);
         }
 
 
         @Override
         public void onBluetoothDeviceDisconnected() {
             displayOnDisconnect();
-            unscheduleUpdaters();
 
             // Re-connect immediately
             connect(mBleDeviceAddress);
@@ -223,9 +230,9 @@ public class HomeActivity extends Activity {
     private final BleCharacteristic.ValueReadyCallback<ChAccelerationWaveform.AccelerationWaveformValue> mAccelerationWaveformListener = new BleCharacteristic.ValueReadyCallback<ChAccelerationWaveform.AccelerationWaveformValue>() {
         @Override
         public void onValueReady(ChAccelerationWaveform.AccelerationWaveformValue accelerationWaveformValue) {
-            if (accelerationWaveformValue != null && accelerationWaveformValue.wave != null && mAccelerationWaveformView != null)
-                for (Integer item : accelerationWaveformValue.wave) {
-                    mAccelerationWaveformView.addValue(item);
+            if (accelerationWaveformValue != null && mAccelerationWaveformView != null)
+                for (int i = 0; i < accelerationWaveformValue.sampleCount; i++) {
+                    mAccelerationWaveformView.addValue(accelerationWaveformValue.samples[i]);
                 }
 
         }
@@ -392,16 +399,10 @@ public class HomeActivity extends Activity {
         displayBatteryLevel(0);
     }
 
-    private void scheduleUpdaters() {
-        mHandler.post(mPeriodicReader);
-    }
-
-    private void unscheduleUpdaters() {
-        mHandler.removeCallbacks(mPeriodicReader);
-    }
-
-    private static final int RSSI_UPDATE_INTERVAL = 1000; // Milliseconds
+    private static final int POLL_INTERVAL = 1000; // Milliseconds
     private static final int ANIMATION_DURATION = 500; // Milliseconds
+    private static final int WAVEFORM_BATCH_SIZE = 8; // Packets
+    private static final int WAVEFORM_BATCH_DELAY = 100; // Milliseconds
 
     private int orientation;
 
@@ -411,6 +412,14 @@ public class HomeActivity extends Activity {
     private String mBleDeviceAddress;
 
     private Handler mHandler;
-    private Runnable mPeriodicReader;
+
+    /** Runs the device callbacks on the UI thread */
+    private final Executor mUiExecutor = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            mHandler.post(task);
+        }
+    };
+
     private ChAccelerationEnergyMagnitude mChAccelerationEnergyMagnitude = null;
 }
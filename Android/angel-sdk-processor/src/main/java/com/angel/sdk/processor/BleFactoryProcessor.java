@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+
+/**
+ * Generates reflection-free factories for classes annotated with
+ * {@code @BleGattService} and {@code @BleGattCharacteristic}.
+ * <p>
+ * For every package that contains annotated classes the processor writes a
+ * {@code GeneratedBleFactories} class whose {@code register()} method adds
+ * one factory per class to {@code BleFactoryRegistry}. The factories call the
+ * constructors directly and read the UUID from the static
+ * {@code SERVICE_UUID} / {@code CHARACTERISTIC_UUID} field, so nothing has to
+ * be kept from ProGuard.
+ */
+public class BleFactoryProcessor extends AbstractProcessor {
+
+    static final String SERVICE_ANNOTATION = "com.angel.sdk.BleGattService";
+    static final String CHARACTERISTIC_ANNOTATION = "com.angel.sdk.BleGattCharacteristic";
+    static final String GENERATED_CLASS_NAME = "GeneratedBleFactories";
+
+    private static final String BLE_SERVICE = "com.angel.sdk.BleService";
+    private static final String BLE_CHARACTERISTIC = "com.angel.sdk.BleCharacteristic";
+    private static final String BLE_DEVICE = "com.angel.sdk.BleDevice";
+    private static final String GATT_SERVICE = "com.angel.sdk.BleServiceHandle";
+    private static final String GATT_CHARACTERISTIC = "com.angel.sdk.BleCharacteristicHandle";
+
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> types = new HashSet<String>();
+        types.add(SERVICE_ANNOTATION);
+        types.add(CHARACTERISTIC_ANNOTATION);
+        return types;
+    }
+
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Map<String, List<TypeElement>> services = new LinkedHashMap<String, List<TypeElement>>();
+        Map<String, List<TypeElement>> characteristics = new LinkedHashMap<String, List<TypeElement>>();
+
+        for (TypeElement annotation : annotations) {
+            String name = annotation.getQualifiedName().toString();
+            boolean isService = SERVICE_ANNOTATION.equals(name);
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                TypeElement type = validate(element, isService);
+                if (type == null) continue;
+                String packageName = packageOf(type);
+                Map<String, List<TypeElement>> target = isService ? services : characteristics;
+                if (!target.containsKey(packageName)) {
+                    target.put(packageName, new ArrayList<TypeElement>());
+                }
+                target.get(packageName).add(type);
+                if (!services.containsKey(packageName)) {
+                    services.put(packageName, new ArrayList<TypeElement>());
+                }
+                if (!characteristics.containsKey(packageName)) {
+                    characteristics.put(packageName, new ArrayList<TypeElement>());
+                }
+            }
+        }
+
+        for (String packageName : services.keySet()) {
+            if (!mGeneratedPackages.add(packageName)) {
+                error(null, "Annotated BLE classes of package " + packageName
+                            + " must be compiled in the same round");
+                continue;
+            }
+            write(packageName, services.get(packageName), characteristics.get(packageName));
+        }
+        return true;
+    }
+
+
+    /** Returns the annotated class or null after reporting why it's unusable */
+    private TypeElement validate(Element element, boolean isService) {
+        if (element.getKind() != ElementKind.CLASS) {
+            error(element, "Only classes can be annotated with @" + simpleName(isService));
+            return null;
+        }
+        TypeElement type = (TypeElement) element;
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT) || modifiers.contains(Modifier.PRIVATE)) {
+            error(type, type.getSimpleName() + " must be a concrete class accessible from its package");
+            return null;
+        }
+        if (type.getNestingKind().isNested() && !modifiers.contains(Modifier.STATIC)) {
+            error(type, type.getSimpleName() + " must not be an inner class");
+            return null;
+        }
+
+        Types types = processingEnv.getTypeUtils();
+        TypeElement base = processingEnv.getElementUtils().getTypeElement(isService ? BLE_SERVICE : BLE_CHARACTERISTIC);
+        if (base == null || !types.isSubtype(types.erasure(type.asType()), types.erasure(base.asType()))) {
+            error(type, type.getSimpleName() + " must extend " + (isService ? BLE_SERVICE : BLE_CHARACTERISTIC));
+            return null;
+        }
+
+        if (!hasConstructor(type, isService ? GATT_SERVICE : GATT_CHARACTERISTIC)) {
+            error(type, type.getSimpleName() + " must have a public constructor taking ("
+                        + (isService ? GATT_SERVICE : GATT_CHARACTERISTIC) + ", " + BLE_DEVICE + ")");
+            return null;
+        }
+
+        String uuidField = isService ? "SERVICE_UUID" : "CHARACTERISTIC_UUID";
+        if (!hasUuidField(type, uuidField)) {
+            error(type, type.getSimpleName() + " must declare a non-private static java.util.UUID "
+                        + uuidField + " field");
+            return null;
+        }
+        return type;
+    }
+
+
+    private boolean hasConstructor(TypeElement type, String gattType) {
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.CONSTRUCTOR) continue;
+            if (!member.getModifiers().contains(Modifier.PUBLIC)) continue;
+            List<? extends VariableElement> parameters = ((ExecutableElement) member).getParameters();
+            if (parameters.size() == 2
+                && isType(parameters.get(0).asType(), gattType)
+                && isType(parameters.get(1).asType(), BLE_DEVICE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private boolean hasUuidField(TypeElement type, String name) {
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.FIELD) continue;
+            if (!member.getSimpleName().contentEquals(name)) continue;
+            Set<Modifier> modifiers = member.getModifiers();
+            return modifiers.contains(Modifier.STATIC)
+                   && !modifiers.contains(Modifier.PRIVATE)
+                   && isType(member.asType(), "java.util.UUID");
+        }
+        return false;
+    }
+
+
+    private boolean isType(TypeMirror mirror, String qualifiedName) {
+        return processingEnv.getTypeUtils().erasure(mirror).toString().equals(qualifiedName);
+    }
+
+
+    private void write(String packageName, List<TypeElement> services, List<TypeElement> characteristics) {
+        String qualifiedName = packageName.isEmpty() ? GENERATED_CLASS_NAME
+                                                     : packageName + "." + GENERATED_CLASS_NAME;
+        List<Element> origins = new ArrayList<Element>(services);
+        origins.addAll(characteristics);
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("/** Generated by ").append(BleFactoryProcessor.class.getName()).append(". Do not edit. */\n");
+        out.append("public final class ").append(GENERATED_CLASS_NAME).append(" {\n\n");
+        out.append("    private ").append(GENERATED_CLASS_NAME).append("() {\n    }\n\n");
+        out.append("    public static void register() {\n");
+        for (TypeElement service : services) {
+            String name = service.getQualifiedName().toString();
+            out.append("        com.angel.sdk.BleFactoryRegistry.registerService(").append(name).append(".class,\n");
+            out.append("            new com.angel.sdk.BleService.Factory<").append(name).append(">() {\n");
+            out.append("                @Override\n");
+            out.append("                public java.util.UUID getUuid() {\n");
+            out.append("                    return ").append(name).append(".SERVICE_UUID;\n");
+            out.append("                }\n\n");
+            out.append("                @Override\n");
+            out.append("                public ").append(name).append(" create(")
+               .append(GATT_SERVICE).append(" gattService, ").append(BLE_DEVICE).append(" bleDevice) {\n");
+            out.append("                    return new ").append(name).append("(gattService, bleDevice);\n");
+            out.append("                }\n");
+            out.append("            });\n");
+        }
+        for (TypeElement characteristic : characteristics) {
+            String name = characteristic.getQualifiedName().toString();
+            out.append("        com.angel.sdk.BleFactoryRegistry.registerCharacteristic(").append(name).append(".class,\n");
+            out.append("            new com.angel.sdk.BleCharacteristic.Factory<").append(name).append(">() {\n");
+            out.append("                @Override\n");
+            out.append("                public java.util.UUID getUuid() {\n");
+            out.append("                    return ").append(name).append(".CHARACTERISTIC_UUID;\n");
+            out.append("                }\n\n");
+            out.append("                @Override\n");
+            out.append("                public ").append(name).append(" create(")
+               .append(GATT_CHARACTERISTIC).append(" gattCharacteristic, ").append(BLE_DEVICE).append(" bleDevice) {\n");
+            out.append("                    return new ").append(name).append("(gattCharacteristic, bleDevice);\n");
+            out.append("                }\n");
+            out.append("            });\n");
+        }
+        out.append("    }\n");
+        out.append("}\n");
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName,
+                                                                            origins.toArray(new Element[origins.size()]));
+            Writer writer = file.openWriter();
+            try {
+                writer.write(out.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            error(null, "Failed to write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+
+    private String packageOf(TypeElement type) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+    }
+
+
+    private static String simpleName(boolean isService) {
+        return isService ? "BleGattService" : "BleGattCharacteristic";
+    }
+
+
+    private void error(Element element, String message) {
+        Messager messager = processingEnv.getMessager();
+        if (element != null) {
+            messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+        } else {
+            messager.printMessage(Diagnostic.Kind.ERROR, message);
+        }
+    }
+
+    private final Set<String> mGeneratedPackages = new HashSet<String>();
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+
+/**
+ * {@link BleTransport} over the Android Bluetooth stack. Binds
+ * {@link BleController} while connected and translates between the
+ * {@code BluetoothGatt*} objects of the stack and the SDK's attribute
+ * handles.
+ * <p>
+ * Usage example:
+ * <pre>
+ * BleDevice device = new BleDevice(new BleAndroidTransport(context), lifecycleCallback);
+ * </pre>
+ */
+public final class BleAndroidTransport implements BleTransport {
+
+    public BleAndroidTransport(Context context) {
+        this(new ControllerBinding(context));
+    }
+
+
+    private BleAndroidTransport(ControllerBinding binding) {
+        mBinding = binding;
+    }
+
+
+    /**
+     * Creates transports that share one {@link BleController} binding, for
+     * the devices of a {@link BleDeviceManager}:
+     * <pre>
+     * BleDeviceManager manager = new BleDeviceManager(BleAndroidTransport.factory(context));
+     * </pre>
+     */
+    public static BleTransport.Factory factory(Context context) {
+        final ControllerBinding binding = new ControllerBinding(context);
+        return new BleTransport.Factory() {
+            @Override
+            public BleTransport createTransport() {
+                return new BleAndroidTransport(binding);
+            }
+        };
+    }
+
+
+    /** Null unless the controller is bound */
+    public BleController getBleController() {
+        return mBinding.getController();
+    }
+
+
+    @Override
+    public void connect(final String deviceAddress, Callback callback) {
+        final int connection;
+        boolean bind;
+        synchronized (this) {
+            closeGatt();
+            mCallback = callback;
+            connection = ++mConnection;
+            bind = !mBound;
+            mBound = true;
+        }
+        if (bind) mBinding.acquire();
+
+        // Connects right away unless the controller is still being bound
+        mBinding.whenReady(new Runnable() {
+            @Override
+            public void run() {
+                connectGatt(connection, deviceAddress);
+            }
+        });
+    }
+
+
+    @Override
+    public boolean discoverServices() {
+        BluetoothGatt gatt = mBluetoothGatt;
+        return gatt != null && gatt.discoverServices();
+    }
+
+
+    @Override
+    public List<BleServiceHandle> getServices() {
+        return mLayout.mServices;
+    }
+
+
+    @Override
+    public boolean readCharacteristic(BleCharacteristicHandle characteristic) {
+        BluetoothGatt gatt = mBluetoothGatt;
+        BluetoothGattCharacteristic gattCharacteristic = mLayout.mCharacteristics.get(characteristic);
+        return gatt != null && gattCharacteristic != null && gatt.readCharacteristic(gattCharacteristic);
+    }
+
+
+    @Override
+    public boolean writeCharacteristic(BleCharacteristicHandle characteristic, byte[] value) {
+        BluetoothGatt gatt = mBluetoothGatt;
+        BluetoothGattCharacteristic gattCharacteristic = mLayout.mCharacteristics.get(characteristic);
+        if (gatt == null || gattCharacteristic == null) return false;
+        gattCharacteristic.setValue(value);
+        return gatt.writeCharacteristic(gattCharacteristic);
+    }
+
+
+    @Override
+    public boolean writeDescriptor(BleDescriptorHandle descriptor, byte[] value) {
+        BluetoothGatt gatt = mBluetoothGatt;
+        BluetoothGattDescriptor gattDescriptor = mLayout.mDescriptors.get(descriptor);
+        if (gatt == null || gattDescriptor == null) return false;
+        gattDescriptor.setValue(value);
+        return gatt.writeDescriptor(gattDescriptor);
+    }
+
+
+    @Override
+    public boolean setCharacteristicNotification(BleCharacteristicHandle characteristic, boolean enabled) {
+        BluetoothGatt gatt = mBluetoothGatt;
+        BluetoothGattCharacteristic gattCharacteristic = mLayout.mCharacteristics.get(characteristic);
+        return gatt != null && gattCharacteristic != null
+               && gatt.setCharacteristicNotification(gattCharacteristic, enabled);
+    }
+
+
+    @Override
+    public boolean readRemoteRssi() {
+        BluetoothGatt gatt = mBluetoothGatt;
+        return gatt != null && gatt.readRemoteRssi();
+    }
+
+
+    @Override
+    public void close() {
+        boolean unbind;
+        synchronized (this) {
+            closeGatt();
+            ++mConnection;
+            unbind = mBound;
+            mBound = false;
+        }
+        if (unbind) mBinding.release();
+    }
+
+
+    private synchronized void connectGatt(int connection, String deviceAddress) {
+        // Closed or replaced while the controller was being bound
+        if (connection != mConnection) return;
+        BleController controller = mBinding.getController();
+        if (controller == null) return;
+        mBluetoothGatt = controller.getRemoteDevice(deviceAddress).connectGatt(controller, false, mGattCallback);
+    }
+
+
+    /** Must be called with the lock held */
+    private void closeGatt() {
+        BluetoothGatt gatt = mBluetoothGatt;
+        mBluetoothGatt = null;
+        mLayout = Layout.EMPTY;
+        // Releases the client interface in the Bluetooth stack
+        if (gatt != null) gatt.close();
+    }
+
+
+    /** Returns false for events of a connection that was closed or replaced */
+    private synchronized boolean isCurrent(BluetoothGatt gatt) {
+        return gatt == mBluetoothGatt;
+    }
+
+
+    /**
+     * Finds the handle of a characteristic reported by the stack. Falls back
+     * to a UUID lookup in case the stack reports an instance other than the
+     * one returned from service discovery.
+     */
+    private BleCharacteristicHandle findHandle(BluetoothGattCharacteristic gattCharacteristic) {
+        Layout layout = mLayout;
+        BleCharacteristicHandle characteristic = layout.mCharacteristicHandles.get(gattCharacteristic);
+        if (characteristic != null) return characteristic;
+
+        BluetoothGattService gattService = gattCharacteristic.getService();
+        if (gattService == null) return null;
+        for (BleServiceHandle service : layout.mServices) {
+            if (service.getUuid().equals(gattService.getUuid())) {
+                return service.getCharacteristic(gattCharacteristic.getUuid());
+            }
+        }
+        return null;
+    }
+
+
+    /** The handles of the discovered attributes and the stack objects behind them; never modified */
+    private static final class Layout {
+        Layout(List<BluetoothGattService> gattServices) {
+            ArrayList<BleServiceHandle> services = new ArrayList<BleServiceHandle>();
+            for (BluetoothGattService gattService : gattServices) {
+                BleServiceHandle service = new BleServiceHandle(gattService.getUuid());
+                for (BluetoothGattCharacteristic gattCharacteristic : gattService.getCharacteristics()) {
+                    BleCharacteristicHandle characteristic =
+                        service.addCharacteristic(gattCharacteristic.getUuid(), gattCharacteristic.getProperties());
+                    mCharacteristics.put(characteristic, gattCharacteristic);
+                    mCharacteristicHandles.put(gattCharacteristic, characteristic);
+                    for (BluetoothGattDescriptor gattDescriptor : gattCharacteristic.getDescriptors()) {
+                        BleDescriptorHandle descriptor = characteristic.addDescriptor(gattDescriptor.getUuid());
+                        mDescriptors.put(descriptor, gattDescriptor);
+                        mDescriptorHandles.put(gattDescriptor, descriptor);
+                    }
+                }
+                services.add(service);
+            }
+            mServices = Collections.unmodifiableList(services);
+        }
+
+        static final Layout EMPTY = new Layout(Collections.<BluetoothGattService>emptyList());
+
+        final List<BleServiceHandle> mServices;
+        final IdentityHashMap<BleCharacteristicHandle, BluetoothGattCharacteristic> mCharacteristics =
+            new IdentityHashMap<BleCharacteristicHandle, BluetoothGattCharacteristic>();
+        final IdentityHashMap<BluetoothGattCharacteristic, BleCharacteristicHandle> mCharacteristicHandles =
+            new IdentityHashMap<BluetoothGattCharacteristic, BleCharacteristicHandle>();
+        final IdentityHashMap<BleDescriptorHandle, BluetoothGattDescriptor> mDescriptors =
+            new IdentityHashMap<BleDescriptorHandle, BluetoothGattDescriptor>();
+        final IdentityHashMap<BluetoothGattDescriptor, BleDescriptorHandle> mDescriptorHandles =
+            new IdentityHashMap<BluetoothGattDescriptor, BleDescriptorHandle>();
+    }
+
+
+    /** A {@link BleController} binding shared by the transports that use it */
+    private static final class ControllerBinding {
+        ControllerBinding(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+
+        BleController getController() {
+            return mController;
+        }
+
+
+        /** Binds the controller for the first user */
+        synchronized void acquire() {
+            if (mUsers++ > 0) return;
+            Intent gattServiceIntent = new Intent(mContext, BleController.class);
+            if (!mContext.bindService(gattServiceIntent, mServiceConnection, Context.BIND_AUTO_CREATE)) {
+                mUsers = 0;
+                throw new RuntimeException("Failed to bind to BleController");
+            }
+        }
+
+
+        /** Unbinds the controller once the last user is done with it */
+        synchronized void release() {
+            if (--mUsers > 0) return;
+            mContext.unbindService(mServiceConnection);
+            mController = null;
+            mWaiting.clear();
+        }
+
+
+        /** Runs the task once the controller is bound, right away if it is */
+        void whenReady(Runnable task) {
+            synchronized (this) {
+                if (mController == null) {
+                    mWaiting.add(task);
+                    return;
+                }
+            }
+            task.run();
+        }
+
+
+        private final ServiceConnection mServiceConnection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName componentName, IBinder service) {
+                BleController controller = ((BleController.LocalBinder) service).getService();
+                if (!controller.initialize()) {
+                    Log.e(TAG, "Bluetooth is not available; connection attempts stay queued");
+                    return;
+                }
+                ArrayList<Runnable> waiting;
+                synchronized (ControllerBinding.this) {
+                    mController = controller;
+                    waiting = new ArrayList<Runnable>(mWaiting);
+                    mWaiting.clear();
+                }
+                for (Runnable task : waiting) {
+                    task.run();
+                }
+            }
+
+
+            @Override
+            public void onServiceDisconnected(ComponentName componentName) {
+                mController = null;
+            }
+        };
+
+        private final Context mContext;
+        private volatile BleController mController;
+
+        /** Guarded by this */
+        private int mUsers;
+        private final ArrayList<Runnable> mWaiting = new ArrayList<Runnable>();
+    }
+
+
+    /** Forwards the events of the current connection with the stack objects replaced by handles */
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (!isCurrent(gatt)) return;
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                mCallback.onConnected();
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                mCallback.onDisconnected(status);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (!isCurrent(gatt)) return;
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mLayout = new Layout(gatt.getServices());
+            }
+            mCallback.onServicesDiscovered(status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic gattCharacteristic, int status) {
+            if (!isCurrent(gatt)) return;
+            BleCharacteristicHandle characteristic = findHandle(gattCharacteristic);
+            if (characteristic == null) return;
+            if (status == BluetoothGatt.GATT_SUCCESS) characteristic.setValue(gattCharacteristic.getValue());
+            mCallback.onCharacteristicRead(characteristic, status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic gattCharacteristic, int status) {
+            if (!isCurrent(gatt)) return;
+            BleCharacteristicHandle characteristic = findHandle(gattCharacteristic);
+            if (characteristic != null) mCallback.onCharacteristicWrite(characteristic, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic gattCharacteristic) {
+            if (!isCurrent(gatt)) return;
+            BleCharacteristicHandle characteristic = findHandle(gattCharacteristic);
+            if (characteristic == null) return;
+            characteristic.setValue(gattCharacteristic.getValue());
+            mCallback.onCharacteristicChanged(characteristic);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor gattDescriptor, int status) {
+            if (!isCurrent(gatt)) return;
+            BleDescriptorHandle descriptor = mLayout.mDescriptorHandles.get(gattDescriptor);
+            if (descriptor != null) mCallback.onDescriptorWrite(descriptor, status);
+        }
+
+        @Override
+        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+            if (!isCurrent(gatt)) return;
+            mCallback.onReadRemoteRssi(rssi, status);
+        }
+    };
+
+    private final ControllerBinding mBinding;
+    private volatile BluetoothGatt mBluetoothGatt;
+    private volatile Layout mLayout = Layout.EMPTY;
+    private volatile Callback mCallback;
+
+    /** Incremented by every connect and close; guarded by this */
+    private int mConnection;
+
+    /** Whether this transport holds a reference to the binding; guarded by this */
+    private boolean mBound;
+
+    private static final String TAG = BleAndroidTransport.class.getName();
+}
@@ -30,9 +30,15 @@
  */
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 /**
@@ -41,7 +47,7 @@ import java.util.UUID;
 public abstract class BleCharacteristic<ValueType> {
 
     public BleCharacteristic(UUID uuid,
-                             BluetoothGattCharacteristic gattCharacteristic,
+                             BleCharacteristicHandle gattCharacteristic,
                              BleDevice bleDevice) {
         if (!uuid.equals(gattCharacteristic.getUuid())) {
             throw new AssertionError();
@@ -49,6 +55,7 @@ public abstract class BleCharacteristic<ValueType> {
         mUuid = uuid;
         mBaseGattCharacteristic = gattCharacteristic;
         mBleDevice = bleDevice;
+        mDispatchQueue = new BleDispatchQueue(this, bleDevice);
     }
 
 
@@ -61,6 +68,7 @@ public abstract class BleCharacteristic<ValueType> {
         mUuid = uuid;
         mBaseGattCharacteristic = null;
         mBleDevice = null;
+        mDispatchQueue = null;
     }
 
 
@@ -69,7 +77,7 @@ public abstract class BleCharacteristic<ValueType> {
     }
 
 
-    public BluetoothGattCharacteristic getBaseGattCharacteristic() {
+    public BleCharacteristicHandle getBaseGattCharacteristic() {
         return mBaseGattCharacteristic;
     }
 
@@ -79,55 +87,910 @@ public abstract class BleCharacteristic<ValueType> {
     }
 
 
+    /**
+     * Creates instances of a concrete characteristic class without reflection.
+     * Factories are generated for classes annotated with
+     * {@link BleGattCharacteristic}.
+     */
+    public interface Factory<T extends BleCharacteristic<?>> {
+        public UUID getUuid();
+
+        public T create(BleCharacteristicHandle gattCharacteristic, BleDevice bleDevice);
+    }
+
+
     /** Used to report characteristic value asynchronously */
     public interface ValueReadyCallback<T> {
         public void onValueReady(T value);
     }
 
 
+    /**
+     * A callback that supplies the object each value is decoded into. Pass it
+     * wherever a {@link ValueReadyCallback} is expected to make the
+     * characteristic decode the raw bytes straight into a caller-owned value
+     * instead of allocating a new one for every notification.
+     * <p>
+     * Mutable value types are filled in place and the same instance is handed
+     * back to {@link #onValueReady(Object)}. Immutable value types (for
+     * example {@code Integer} or {@code String}) ignore the supplied instance.
+     */
+    public interface ValueSink<T> extends ValueReadyCallback<T> {
+
+        /**
+         * Returns the instance the next value should be decoded into, or null
+         * to let the characteristic allocate a new one.
+         */
+        public T obtainValue();
+    }
+
+
+    /**
+     * A listener that is also told where a group of values handed over to the
+     * callback thread together ends. With batched delivery this lets a
+     * consumer, for example a graph, redraw once per batch rather than once
+     * per value.
+     */
+    public interface ValueBatchCallback<T> extends ValueReadyCallback<T> {
+
+        /** Called after the last value of a group, {@code count} values long */
+        public void onBatchComplete(int count);
+    }
+
+
+    /**
+     * Switches to batched delivery. Values are decoded and passed to the
+     * listeners on the device callback thread in groups: as soon as
+     * {@code batchSize} packets are queued, or {@code maxDelayMillis} after the
+     * first packet of a group arrived, whichever comes first. Meant for high
+     * rate streams such as waveforms, where per-packet thread handoffs dominate
+     * the cost of consuming the data.
+     */
+    public void setBatchedDelivery(int batchSize, long maxDelayMillis) {
+        mDispatchQueue.setBatching(batchSize, maxDelayMillis);
+    }
+
+
+    /** Switches back to the default mode where every packet is handed over right away */
+    public void setImmediateDelivery() {
+        mDispatchQueue.setBatching(1, 0);
+    }
+
+
+    /** What to do with a packet that arrives while the dispatch queue is full */
+    public enum OverflowPolicy {
+        /**
+         * Hold the Bluetooth thread until the listeners catch up. No packet is
+         * lost, but every other characteristic of the device stalls as well.
+         */
+        BLOCK,
+
+        /** Discard the oldest queued packet; the default */
+        DROP_OLDEST,
+
+        /** Discard the incoming packet */
+        DROP_NEWEST,
+
+        /**
+         * Keep only the latest packet, regardless of the capacity. Suits
+         * state-like values such as battery level where only the current
+         * value matters.
+         */
+        CONFLATE
+    }
+
+
+    /**
+     * Bounds the queue of packets received but not yet decoded. Each
+     * characteristic has its own queue, so a slow listener of one stream
+     * loses packets of that stream only instead of growing memory without
+     * limit. By default the capacity is {@link #DEFAULT_QUEUE_CAPACITY} and
+     * the policy is {@link OverflowPolicy#DROP_OLDEST}.
+     */
+    public void setOverflowPolicy(int capacity, OverflowPolicy policy) {
+        mDispatchQueue.setOverflowPolicy(capacity, policy);
+    }
+
+
+    /** Number of packets received but not yet handed to the listeners */
+    public int getQueueDepth() {
+        return mDispatchQueue.getDepth();
+    }
+
+
+    /** Number of packets discarded by the overflow policy since the characteristic was created */
+    public long getDroppedCount() {
+        return mDispatchQueue.getDroppedCount();
+    }
+
+
+    /**
+     * Adds a listener for the values of this characteristic, both
+     * notifications and read results. Any number of listeners may be added;
+     * each value is decoded once and the same object is handed to every
+     * listener. Adding a listener that is already present only changes its
+     * executor.
+     * 
+     * @param executor runs the listener, with one task per group of values;
+     *        null to call it directly on the device callback thread
+     */
+    public void addValueListener(ValueReadyCallback<ValueType> callback, Executor executor) {
+        if (callback == null) throw new IllegalArgumentException("callback is null");
+        synchronized (this) {
+            Subscriber<ValueType>[] subscribers = mSubscribers;
+            int index = indexOf(subscribers, callback);
+            Subscriber<ValueType>[] updated;
+            if (index < 0) {
+                updated = Arrays.copyOf(subscribers, subscribers.length + 1);
+                index = subscribers.length;
+            } else {
+                updated = subscribers.clone();
+            }
+            updated[index] = new Subscriber<ValueType>(callback, executor);
+            mSubscribers = updated;
+        }
+    }
+
+
+    public void addValueListener(ValueReadyCallback<ValueType> callback) {
+        addValueListener(callback, null);
+    }
+
+
+    /** Returns true if the listener was found and removed */
+    public boolean removeValueListener(ValueReadyCallback<ValueType> callback) {
+        synchronized (this) {
+            Subscriber<ValueType>[] subscribers = mSubscribers;
+            int index = indexOf(subscribers, callback);
+            if (index < 0) return false;
+            Subscriber<ValueType>[] updated = newSubscriberArray(subscribers.length - 1);
+            System.arraycopy(subscribers, 0, updated, 0, index);
+            System.arraycopy(subscribers, index + 1, updated, index, subscribers.length - index - 1);
+            mSubscribers = updated;
+            return true;
+        }
+    }
+
+
     /**
      * Enable notifications for the characteristic. The actual notifications are
-     * asynchronous and are delivered via the supplied callback.
+     * asynchronous and are delivered via the supplied callback, which is added
+     * with {@link #addValueListener(ValueReadyCallback)}. Listeners added
+     * earlier keep receiving values.
+     * 
+     * If the device is still connecting, the subscription is made as soon
+     * as its services are discovered.
+     * 
+     * @return completes when the remote device confirms the subscription;
+     *         fails with {@link BleGattException#STATUS_NOT_CONNECTED} if the
+     *         device is disconnected, leaving the listener added
+     */
+    public BleFuture<Void> enableNotifications(ValueReadyCallback<ValueType> callback) {
+        return enableNotifications(callback, null);
+    }
+
+
+    public BleFuture<Void> enableNotifications(ValueReadyCallback<ValueType> callback, Executor executor) {
+        addValueListener(callback, executor);
+        return requestNotifications();
+    }
+
+
+    /**
+     * Returns the values of this characteristic as a demand-driven stream.
+     * Subscribing adds a listener and enables notifications; cancelling
+     * removes the listener. The stream doesn't complete on its own and fails
+     * only if notifications can't be enabled.
+     * <p>
+     * Each subscription buffers up to {@code capacity} values while its
+     * subscriber has no outstanding demand, then applies {@code policy}
+     * ({@link OverflowPolicy#BLOCK} is not supported here). Values are
+     * buffered by reference, so don't combine a publisher with a primitive
+     * mode that recycles a single value instance.
+     */
+    public BlePublisher<ValueType> asPublisher(final int capacity, final OverflowPolicy policy) {
+        return new BlePublisher<ValueType>() {
+            @Override
+            public void subscribe(BlePublisher.Subscriber<? super ValueType> subscriber) {
+                PublisherListener listener = new PublisherListener();
+                final BleEmitter<ValueType> emitter = new BleEmitter<ValueType>(subscriber, capacity, policy, listener);
+                listener.mEmitter = emitter;
+                emitter.start();
+                if (emitter.isDone()) return;
+
+                BleFuture<Void> enabled = enableNotifications(listener);
+                // Cancelled while the listener was being added
+                if (emitter.isDone()) removeValueListener(listener);
+                enabled.addListener(new BleFuture.Listener<Void>() {
+                    @Override
+                    public void onComplete(BleFuture<Void> future) {
+                        if (!future.isSuccess()) emitter.fail(future.getFailure());
+                    }
+                });
+            }
+        };
+    }
+
+
+    /**
+     * Same as {@link #asPublisher(int, OverflowPolicy)} with a buffer of
+     * {@link #DEFAULT_QUEUE_CAPACITY} values and
+     * {@link OverflowPolicy#DROP_OLDEST}.
      */
-    public void enableNotifications(ValueReadyCallback<ValueType> callback) {
-        mOnDataReadyListener = callback;
-        mBleDevice.enableCharacteristicNotifications(this.mBaseGattCharacteristic);
+    public BlePublisher<ValueType> asPublisher() {
+        return asPublisher(DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST);
     }
 
+
     /**
      * Request characteristic value. The value is returned asynchronously via
-     * the supplied callback.
+     * the supplied callback, which is called once on the device callback
+     * thread and is not kept as a listener. Listeners added with
+     * {@link #addValueListener(ValueReadyCallback, Executor)} receive the
+     * value as well.
+     * <p>
+     * With the read cache enabled, a value younger than the cache TTL is
+     * returned without going over the radio, and only to the supplied
+     * callback. See {@link #setReadCacheTtl(long)}.
+     */
+    public void readValue(final ValueReadyCallback<ValueType> callback) {
+        CachedValue cached = mCachedValue;
+        if (cached != null && System.nanoTime() - cached.mTimeNanos < mReadCacheTtlNanos) {
+            deliverReadValue(callback, cached.mData);
+            return;
+        }
+
+        final boolean isListener = indexOf(mSubscribers, callback) >= 0;
+        readBaseValue().addListener(new BleFuture.Listener<byte[]>() {
+            @Override
+            public void onComplete(BleFuture<byte[]> future) {
+                final byte[] data = future.getResult();
+                if (data == null) {
+                    BleLog.w(TAG, "Read of " + mUuid + " failed", future.getFailure());
+                    return;
+                }
+                // Listeners get the value through onCharacteristicChanged()
+                if (isListener) return;
+                deliverReadValue(callback, data);
+            }
+        });
+    }
+
+
+    /**
+     * Reads the value. Unlike {@link #readValue(ValueReadyCallback)}, the
+     * outcome is always reported: the future fails with a
+     * {@link BleGattException} carrying the GATT status, or
+     * {@link BleGattException#STATUS_NOT_CONNECTED}, or
+     * {@code GATT_READ_NOT_PERMITTED} if the characteristic isn't readable,
+     * and with a {@link TimeoutException} if there is no result within
+     * {@code timeoutMillis}, time spent waiting for other GATT operations
+     * included.
+     * <p>
+     * The future completes on a Bluetooth or timer thread, so its listeners
+     * should return quickly. The read cache applies as it does to
+     * {@link #readValue(ValueReadyCallback)}; listeners receive the value as
+     * well.
      */
-    public void readValue(ValueReadyCallback<ValueType> callback) {
-        mOnDataReadyListener = callback;
-        mBleDevice.readCharacteristic(this.mBaseGattCharacteristic);
+    public BleFuture<ValueType> read(long timeoutMillis) {
+        final BleFuture<ValueType> result = new BleFuture<ValueType>();
+        CachedValue cached = mCachedValue;
+        if (cached != null && System.nanoTime() - cached.mTimeNanos < mReadCacheTtlNanos) {
+            result.complete(decodeValue(cached.mData, cached.mData.length, null));
+            return result;
+        }
+
+        final ScheduledFuture<?> deadline = failOnTimeout(result, timeoutMillis, "Read of " + mUuid);
+        readBaseValue().addListener(new BleFuture.Listener<byte[]>() {
+            @Override
+            public void onComplete(BleFuture<byte[]> future) {
+                deadline.cancel(false);
+                byte[] data = future.getResult();
+                if (data == null) {
+                    result.fail(failureOf(future));
+                    return;
+                }
+                try {
+                    result.complete(decodeValue(data, data.length, null));
+                } catch (RuntimeException e) {
+                    // Malformed value
+                    result.fail(e);
+                }
+            }
+        });
+        return result;
+    }
+
+
+    /** Same as {@link #read(long)} with {@link #DEFAULT_OPERATION_TIMEOUT} */
+    public BleFuture<ValueType> read() {
+        return read(DEFAULT_OPERATION_TIMEOUT);
+    }
+
+
+    /**
+     * Writes the raw value. The outcome is reported as by {@link #read(long)},
+     * with {@code GATT_WRITE_NOT_PERMITTED} if the characteristic isn't
+     * writable. The value is captured when this method is called.
+     */
+    public BleFuture<Void> write(byte[] value, long timeoutMillis) {
+        final BleFuture<Void> result = new BleFuture<Void>();
+        final ScheduledFuture<?> deadline = failOnTimeout(result, timeoutMillis, "Write of " + mUuid);
+        mBleDevice.writeCharacteristic(mBaseGattCharacteristic, value,
+                                       BleGattQueue.DEFAULT_TIMEOUT, BleGattQueue.DEFAULT_RETRIES)
+                  .addListener(new BleFuture.Listener<Void>() {
+            @Override
+            public void onComplete(BleFuture<Void> future) {
+                deadline.cancel(false);
+                if (future.isSuccess()) {
+                    result.complete(null);
+                } else {
+                    result.fail(failureOf(future));
+                }
+            }
+        });
+        return result;
+    }
+
+
+    /** Same as {@link #write(byte[], long)} with {@link #DEFAULT_OPERATION_TIMEOUT} */
+    public BleFuture<Void> write(byte[] value) {
+        return write(value, DEFAULT_OPERATION_TIMEOUT);
+    }
+
+
+    /**
+     * Blocks until the characteristic receives its next value, from a
+     * notification, a read or a poll, and returns it. For code that drives a
+     * device from its own thread; waiting parks the thread without holding a
+     * monitor. Notifications are not enabled by this method.
+     * <p>
+     * The first call registers a listener that keeps the last
+     * {@link #DEFAULT_QUEUE_CAPACITY} values, dropping the oldest, so values
+     * arriving between calls are not lost; values received before the first
+     * call are. Values decoded while the characteristic recycles its value
+     * object, as in primitive mode, are not kept, since every one of them
+     * would be the same instance.
+     * 
+     * @throws IllegalStateException if the characteristic recycles its value
+     *         object
+     */
+    public ValueType take() throws InterruptedException {
+        checkNotRecycling();
+        return obtainTakeQueue().take();
+    }
+
+
+    /**
+     * Same as {@link #take()}, giving up after the timeout.
+     * 
+     * @return null if the timeout elapsed first
+     */
+    public ValueType poll(long timeout, TimeUnit unit) throws InterruptedException {
+        checkNotRecycling();
+        return obtainTakeQueue().poll(timeout, unit);
+    }
+
+
+    /**
+     * Enables the read cache for characteristics whose value rarely changes,
+     * such as battery level or body sensor location. Values read or notified
+     * within the last {@code ttlMillis} are returned by
+     * {@link #readValue(ValueReadyCallback)} without a GATT read, and
+     * concurrent reads share one request in flight. A TTL of 0, the default,
+     * disables the cache.
+     */
+    public void setReadCacheTtl(long ttlMillis) {
+        if (ttlMillis < 0) throw new IllegalArgumentException("Negative TTL");
+        mReadCacheTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        if (ttlMillis == 0) mCachedValue = null;
+    }
+
+
+    /** Forgets the cached value, so the next read goes over the radio */
+    public void invalidateReadCache() {
+        mCachedValue = null;
+    }
+
+
+    private void checkNotRecycling() {
+        if (recyclesValues()) {
+            throw new IllegalStateException("Values of " + mUuid + " are recycled, switch off primitive mode");
+        }
+    }
+
+
+    private ArrayBlockingQueue<ValueType> obtainTakeQueue() {
+        TakeListener listener = mTakeListener;
+        if (listener == null) {
+            synchronized (this) {
+                listener = mTakeListener;
+                if (listener == null) {
+                    listener = new TakeListener();
+                    // Called directly on the dispatch thread; queuing never blocks
+                    addValueListener(listener, null);
+                    mTakeListener = listener;
+                }
+            }
+        }
+        return listener.mValues;
+    }
+
+
+    /** Buffers values for {@link #take()} */
+    private final class TakeListener implements ValueReadyCallback<ValueType> {
+        @Override
+        public void onValueReady(ValueType value) {
+            // The recycled instance is overwritten by the next value
+            if (value == null || recyclesValues()) return;
+            while (!mValues.offer(value)) {
+                mValues.poll();
+            }
+        }
+
+        final ArrayBlockingQueue<ValueType> mValues = new ArrayBlockingQueue<ValueType>(DEFAULT_QUEUE_CAPACITY);
+    }
+
+
+    /** Starts a GATT read, or joins the one in flight if the read cache is enabled */
+    private BleFuture<byte[]> readBaseValue() {
+        if (mReadCacheTtlNanos == 0) {
+            return mBleDevice.readCharacteristic(mBaseGattCharacteristic);
+        }
+        synchronized (this) {
+            if (mReadInFlight == null || mReadInFlight.isDone()) {
+                mReadInFlight = mBleDevice.readCharacteristic(mBaseGattCharacteristic);
+            }
+            return mReadInFlight;
+        }
+    }
+
+
+    private static ScheduledFuture<?> failOnTimeout(final BleFuture<?> future, final long timeoutMillis,
+                                                    final String operation) {
+        return BleExecutors.getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.fail(new TimeoutException(operation + " timed out after " + timeoutMillis + " ms"));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    private static Throwable failureOf(BleFuture<?> future) {
+        Throwable failure = future.getFailure();
+        return failure != null ? failure : new CancellationException();
+    }
+
+
+    private void deliverReadValue(final ValueReadyCallback<ValueType> callback, final byte[] data) {
+        mBleDevice.postCallback(new Runnable() {
+            @Override
+            public void run() {
+                ValueType reuse = null;
+                if (callback instanceof ValueSink) {
+                    reuse = ((ValueSink<ValueType>) callback).obtainValue();
+                }
+                if (reuse == null) reuse = obtainRecycledValue();
+                callback.onValueReady(decodeValue(data, data.length, reuse));
+            }
+        });
+    }
+
+
+    /** A value snapshot for the read cache; never modified */
+    private static final class CachedValue {
+        CachedValue(byte[] data, long timeNanos) {
+            mData = data;
+            mTimeNanos = timeNanos;
+        }
+
+        final byte[] mData;
+        final long mTimeNanos;
     }
 
 
     protected final void onCharacteristicChanged() {
-        ValueType value = processCharacteristicValue();
-        mOnDataReadyListener.onValueReady(value);
+        byte[] data = mBaseGattCharacteristic.getValue();
+        onCharacteristicChanged(data, data.length);
+        onBatchComplete(1);
     };
 
 
+    /**
+     * Decodes a snapshot of the characteristic value taken when the
+     * notification was received and reports it to the listeners.
+     * <p>
+     * A {@link ValueSink} supplies the instance to decode into only while it
+     * is the sole listener; with several listeners every value is decoded
+     * into a new instance, since listeners running on other executors may
+     * still hold the previous one, unless the characteristic class recycles
+     * its values.
+     */
+    final void onCharacteristicChanged(byte[] data, int length) {
+        Subscriber<ValueType>[] subscribers = mSubscribers;
+        if (subscribers.length == 0) return;
+
+        ValueType reuse = null;
+        if (subscribers.length == 1 && subscribers[0].mCallback instanceof ValueSink) {
+            reuse = ((ValueSink<ValueType>) subscribers[0].mCallback).obtainValue();
+        }
+        if (reuse == null) reuse = obtainRecycledValue();
+        ValueType value = decodeValue(data, length, reuse);
+        onValueDispatched(value);
+        for (Subscriber<ValueType> subscriber : subscribers) {
+            subscriber.deliver(value);
+        }
+    }
+
+
+    /**
+     * Ends a group of values: hands it over to the listeners that run on an
+     * executor and reports it to the listeners that want to know.
+     */
+    final void onBatchComplete(int count) {
+        for (Subscriber<ValueType> subscriber : mSubscribers) {
+            subscriber.endBatch(count);
+        }
+    }
+
+
+    /**
+     * Points the wrapper at the characteristic handle found by a new service
+     * discovery, keeping listeners and settings.
+     */
+    void rebind(BleCharacteristicHandle gattCharacteristic) {
+        if (!mUuid.equals(gattCharacteristic.getUuid())) {
+            throw new AssertionError();
+        }
+        mBaseGattCharacteristic = gattCharacteristic;
+    }
+
+
+    /**
+     * Enables notifications again after a reconnect if they were enabled
+     * before, since the subscription doesn't outlive the connection.
+     * 
+     * @return null if there was nothing to restore
+     */
+    BleFuture<Void> restoreNotifications() {
+        if (!mNotificationsRequested) return null;
+        return mBleDevice.enableCharacteristicNotifications(mBaseGattCharacteristic);
+    }
+
+
+    /**
+     * Refreshes the read cache with a value received from the device, either
+     * a notification or a read result. Called on the Bluetooth thread.
+     */
+    void onValueReceived(byte[] data, int length) {
+        if (mReadCacheTtlNanos > 0) {
+            mCachedValue = new CachedValue(Arrays.copyOf(data, length), System.nanoTime());
+        }
+    }
+
+
+    /** Enables notifications without adding a listener */
+    BleFuture<Void> requestNotifications() {
+        return mBleDevice.requestNotifications(this);
+    }
+
+
+    /** Notifications are enabled again after every service discovery from now on */
+    void setNotificationsRequested() {
+        mNotificationsRequested = true;
+    }
+
+
+    BleDispatchQueue getDispatchQueue() {
+        return mDispatchQueue;
+    }
+
+
     /**
      * Converts the raw characteristic value into the human friendly ValueType.
      * <p>
      * For example, a heart rate measurement may contain both the heart rate
-     * value and several RR-intervals. BluetoothGattCharacteristic returns the
+     * value and several RR-intervals. The characteristic handle holds the
      * value as a byte array. The purpose of this method is to parse the byte
      * array and create a strongly typed data structure.
      * <p>
      * The implementation is expected to call
      * {@link #getBaseGattCharacteristic()} to access the underlying
-     * characteristic and use one of its {@code get*Value} methods to get the
-     * raw characteristic value.
+     * characteristic and use its {@code getValue()} method to get the raw
+     * characteristic value.
      */
     protected abstract ValueType processCharacteristicValue();
 
+
+    /**
+     * Decodes the first {@code length} bytes of a raw characteristic value.
+     * <p>
+     * If {@code reuse} is not null and ValueType is mutable, the
+     * implementation is expected to fill {@code reuse} and return it rather
+     * than allocate a new value. This is what makes {@link ValueSink}
+     * allocation free.
+     * <p>
+     * {@code data} is a snapshot taken when the value was received and may be
+     * longer than {@code length}; it must not be retained after the method
+     * returns.
+     * <p>
+     * The method may run on any thread: values for {@link #read(long)} are
+     * decoded on a Bluetooth or timer thread and cached values on the
+     * caller's thread. With a null {@code reuse} it must return a new
+     * instance, and it must not change the state of the characteristic; see
+     * {@link #obtainRecycledValue()} and {@link #onValueDispatched(Object)}.
+     * <p>
+     * The default implementation ignores both arguments and calls
+     * {@link #processCharacteristicValue()}, so characteristic classes defined
+     * outside of the SDK keep working unchanged. Note that such classes read
+     * the live characteristic value, which the Bluetooth stack may already have
+     * overwritten with a newer notification.
+     */
+    protected ValueType decodeValue(byte[] data, int length, ValueType reuse) {
+        return processCharacteristicValue();
+    }
+
+
+    /**
+     * Returns the instance to decode the next value for the listeners into
+     * when no {@link ValueSink} supplies one, or null to allocate a new value,
+     * which is the default. Called on the device callback thread only.
+     */
+    protected ValueType obtainRecycledValue() {
+        return null;
+    }
+
+
+    /**
+     * Returns true while {@link #obtainRecycledValue()} returns an instance,
+     * so that listeners keep receiving the same object. False by default.
+     */
+    protected boolean recyclesValues() {
+        return false;
+    }
+
+
+    /**
+     * Called on the device callback thread with every value decoded for the
+     * listeners, before they receive it, for state that the characteristic
+     * class derives from the values it delivers. Values decoded for
+     * {@link #read(long)} futures don't pass through here. Does nothing by
+     * default.
+     */
+    protected void onValueDispatched(ValueType value) {
+    }
+
+
+    protected static int uint8(byte[] data, int offset) {
+        return data[offset] & 0xFF;
+    }
+
+
+    /** Reads a little-endian unsigned 16-bit integer */
+    protected static int uint16(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+
+    /** Reads a little-endian 32-bit integer */
+    protected static int uint32(byte[] data, int offset) {
+        return (data[offset] & 0xFF)
+               | ((data[offset + 1] & 0xFF) << 8)
+               | ((data[offset + 2] & 0xFF) << 16)
+               | ((data[offset + 3] & 0xFF) << 24);
+    }
+
+
+    /**
+     * Reads an IEEE-11073 32-bit FLOAT, the same way
+     * {@code BleCharacteristicHandle.getFloatValue(FORMAT_FLOAT, offset)}
+     * does.
+     */
+    protected static float float32(byte[] data, int offset) {
+        int mantissa = (data[offset] & 0xFF)
+                       | ((data[offset + 1] & 0xFF) << 8)
+                       | ((data[offset + 2] & 0xFF) << 16);
+        if ((mantissa & 0x800000) != 0) {
+            mantissa -= 0x1000000;
+        }
+        int exponent = data[offset + 3];
+        return (float) (mantissa * Math.pow(10, exponent));
+    }
+
+    private static <T> int indexOf(Subscriber<T>[] subscribers, ValueReadyCallback<T> callback) {
+        for (int i = 0; i < subscribers.length; ++i) {
+            if (subscribers[i].mCallback == callback) return i;
+        }
+        return -1;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static <T> Subscriber<T>[] newSubscriberArray(int length) {
+        return (Subscriber<T>[]) new Subscriber<?>[length];
+    }
+
+
+    /** Feeds a publisher subscription and detaches itself when it is cancelled */
+    private final class PublisherListener implements ValueReadyCallback<ValueType>, Runnable {
+        @Override
+        public void onValueReady(ValueType value) {
+            mEmitter.offer(value);
+        }
+
+
+        @Override
+        public void run() {
+            removeValueListener(this);
+        }
+
+        BleEmitter<ValueType> mEmitter;
+    }
+
+
+    /**
+     * A listener and the executor it runs on, if any. Values for a listener
+     * with an executor are collected until the end of their group and handed
+     * over together: the subscriber itself is the task posted to the
+     * executor, at most once at a time, so a group costs one post and no
+     * allocation.
+     */
+    private static final class Subscriber<T> implements Runnable {
+        Subscriber(ValueReadyCallback<T> callback, Executor executor) {
+            mCallback = callback;
+            mExecutor = executor;
+        }
+
+
+        void deliver(T value) {
+            if (mExecutor == null) {
+                mCallback.onValueReady(value);
+                return;
+            }
+            synchronized (this) {
+                mQueued.add(value);
+            }
+        }
+
+
+        /** Ends the group of values passed to {@link #deliver(Object)} since the previous call */
+        @SuppressWarnings("unchecked")
+        void endBatch(int count) {
+            if (mExecutor == null) {
+                if (mCallback instanceof ValueBatchCallback) {
+                    ((ValueBatchCallback<T>) mCallback).onBatchComplete(count);
+                }
+                return;
+            }
+            synchronized (this) {
+                if (mQueuedEnds.length == mQueuedEndCount * 2) {
+                    mQueuedEnds = Arrays.copyOf(mQueuedEnds, mQueuedEnds.length * 2);
+                }
+                // Where the group ends in mQueued, and the count to report
+                mQueuedEnds[mQueuedEndCount * 2] = mQueued.size();
+                mQueuedEnds[mQueuedEndCount * 2 + 1] = count;
+                ++mQueuedEndCount;
+                if (mPosted) return;
+                mPosted = true;
+            }
+            mExecutor.execute(this);
+        }
+
+
+        /** Runs on the executor of the listener */
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            boolean completed = false;
+            try {
+                while (takeQueued()) {
+                    int start = 0;
+                    for (int i = 0; i < mRunningEndCount; ++i) {
+                        int end = mRunningEnds[i * 2];
+                        for (int j = start; j < end; ++j) {
+                            mCallback.onValueReady(mRunning.get(j));
+                        }
+                        if (mCallback instanceof ValueBatchCallback) {
+                            ((ValueBatchCallback<T>) mCallback).onBatchComplete(mRunningEnds[i * 2 + 1]);
+                        }
+                        start = end;
+                    }
+                    mRunning.clear();
+                }
+                completed = true;
+            } finally {
+                if (!completed) {
+                    // The listener threw; the rest of its groups is dropped
+                    mRunning.clear();
+                    boolean repost;
+                    synchronized (this) {
+                        repost = mQueuedEndCount > 0;
+                        mPosted = repost;
+                    }
+                    if (repost) mExecutor.execute(this);
+                }
+            }
+        }
+
+
+        /**
+         * Moves the complete groups over to mRunning, or returns false and
+         * lets the next group post the task again if there are none.
+         */
+        synchronized boolean takeQueued() {
+            if (mQueuedEndCount == 0) {
+                mPosted = false;
+                return false;
+            }
+            // Values after the last end belong to a group still being decoded
+            int end = mQueuedEnds[(mQueuedEndCount - 1) * 2];
+            if (end == mQueued.size()) {
+                ArrayList<T> values = mRunning;
+                mRunning = mQueued;
+                mQueued = values;
+            } else {
+                for (int i = 0; i < end; ++i) {
+                    mRunning.add(mQueued.get(i));
+                }
+                mQueued.subList(0, end).clear();
+            }
+
+            int[] ends = mRunningEnds;
+            mRunningEnds = mQueuedEnds;
+            mRunningEndCount = mQueuedEndCount;
+            mQueuedEnds = ends.length >= mRunningEnds.length ? ends : new int[mRunningEnds.length];
+            mQueuedEndCount = 0;
+            return true;
+        }
+
+        final ValueReadyCallback<T> mCallback;
+        final Executor mExecutor;
+
+        /** Values of groups not handed to the executor yet */
+        ArrayList<T> mQueued = new ArrayList<T>();
+        /** Pairs of end index in mQueued and count of each ended group */
+        int[] mQueuedEnds = new int[8];
+        int mQueuedEndCount;
+        /** Set while the task is posted or running */
+        boolean mPosted;
+
+        /** Only touched by the running task, apart from the swap */
+        ArrayList<T> mRunning = new ArrayList<T>();
+        int[] mRunningEnds = new int[8];
+        int mRunningEndCount;
+    }
+
     private final UUID mUuid;
-    private final BluetoothGattCharacteristic mBaseGattCharacteristic;
+    private volatile BleCharacteristicHandle mBaseGattCharacteristic;
+    private volatile boolean mNotificationsRequested;
     private final BleDevice mBleDevice;
-    private ValueReadyCallback<ValueType> mOnDataReadyListener;
+    private final BleDispatchQueue mDispatchQueue;
+
+    /**
+     * Value listeners. The array is never modified in place, only replaced,
+     * so notification dispatch reads it without locking.
+     */
+    private volatile Subscriber<ValueType>[] mSubscribers = BleCharacteristic.<ValueType>newSubscriberArray(0);
+
+    /** 0 if the read cache is disabled */
+    private volatile long mReadCacheTtlNanos;
+    private volatile CachedValue mCachedValue;
+
+    /** Created by the first take() */
+    private volatile TakeListener mTakeListener;
+
+    /** The read shared by concurrent readValue() calls; guarded by this */
+    private BleFuture<byte[]> mReadInFlight;
+
+    /**
+     * Default milliseconds {@link #read()} and {@link #write(byte[])} wait for
+     * the outcome: enough for one retry of an operation that timed out.
+     */
+    public static final long DEFAULT_OPERATION_TIMEOUT = BleGattQueue.DEFAULT_TIMEOUT * (1 + BleGattQueue.DEFAULT_RETRIES);
+
+    /** Default number of packets a characteristic queues for its listeners */
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
 
+    private static final String TAG = BleCharacteristic.class.getName();
 }
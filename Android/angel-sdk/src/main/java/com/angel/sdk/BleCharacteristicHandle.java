@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * A characteristic of a remote device: its UUID, properties and descriptors,
+ * and the last value read from or notified by the device.
+ * <p>
+ * The transport stores the value before it reports a read or a notification,
+ * so it can be picked up from the callback; {@link BleDevice} takes a snapshot
+ * right away since the next notification replaces it.
+ *
+ * @see BleServiceHandle
+ */
+public final class BleCharacteristicHandle {
+
+    /** Property bits, as defined by the GATT specification */
+    public static final int PROPERTY_BROADCAST = 0x01;
+    public static final int PROPERTY_READ = 0x02;
+    public static final int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+    public static final int PROPERTY_WRITE = 0x08;
+    public static final int PROPERTY_NOTIFY = 0x10;
+    public static final int PROPERTY_INDICATE = 0x20;
+
+
+    BleCharacteristicHandle(BleServiceHandle service, UUID uuid, int properties) {
+        mService = service;
+        mUuid = uuid;
+        mProperties = properties;
+    }
+
+
+    public UUID getUuid() {
+        return mUuid;
+    }
+
+
+    /** A combination of the {@code PROPERTY_*} bits */
+    public int getProperties() {
+        return mProperties;
+    }
+
+
+    public BleServiceHandle getService() {
+        return mService;
+    }
+
+
+    /** Returns null if no value was read or received yet */
+    public byte[] getValue() {
+        return mValue;
+    }
+
+
+    public void setValue(byte[] value) {
+        mValue = value;
+    }
+
+
+    /** Adds a descriptor to the layout and returns its handle */
+    public BleDescriptorHandle addDescriptor(UUID uuid) {
+        BleDescriptorHandle descriptor = new BleDescriptorHandle(this, uuid);
+        mDescriptors.add(descriptor);
+        return descriptor;
+    }
+
+
+    /** Returns null if the characteristic has no such descriptor */
+    public BleDescriptorHandle getDescriptor(UUID uuid) {
+        for (BleDescriptorHandle descriptor : mDescriptors) {
+            if (descriptor.getUuid().equals(uuid)) return descriptor;
+        }
+        return null;
+    }
+
+
+    public List<BleDescriptorHandle> getDescriptors() {
+        return Collections.unmodifiableList(mDescriptors);
+    }
+
+
+    @Override
+    public String toString() {
+        return "Characteristic " + mUuid;
+    }
+
+    private final BleServiceHandle mService;
+    private final UUID mUuid;
+    private final int mProperties;
+    private final ArrayList<BleDescriptorHandle> mDescriptors = new ArrayList<BleDescriptorHandle>();
+    private volatile byte[] mValue;
+}
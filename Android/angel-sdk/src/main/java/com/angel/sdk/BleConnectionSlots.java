@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+
+/**
+ * Limits how many connection attempts run at the same time. Clients wait in
+ * FIFO order for a slot; the starter is called for a client once it gets one
+ * and the client holds the slot until it is released or cancelled.
+ * <p>
+ * The class doesn't touch Android APIs, so the admission logic can be
+ * exercised with any number of simulated clients.
+ */
+final class BleConnectionSlots<T> {
+
+    interface Starter<T> {
+        /** Starts the attempt of a client that was just given a slot. Called without locks held. */
+        public void start(T client);
+    }
+
+
+    BleConnectionSlots(int limit, Starter<T> starter) {
+        setLimitLocked(limit);
+        mStarter = starter;
+    }
+
+
+    void setLimit(int limit) {
+        synchronized (this) {
+            setLimitLocked(limit);
+        }
+        startWaiting();
+    }
+
+
+    synchronized int getLimit() {
+        return mLimit;
+    }
+
+
+    /** While paused no new attempts are started; clients keep queuing */
+    void setPaused(boolean paused) {
+        synchronized (this) {
+            mPaused = paused;
+        }
+        startWaiting();
+    }
+
+
+    /** Queues the client; a client already waiting or holding a slot is left as is */
+    void request(T client) {
+        synchronized (this) {
+            if (mActive.contains(client) || mWaiting.containsKey(client)) return;
+            mWaiting.put(client, Boolean.TRUE);
+        }
+        startWaiting();
+    }
+
+
+    /** Frees the slot held by the client, or takes it out of the queue */
+    void release(T client) {
+        synchronized (this) {
+            if (!mActive.remove(client)) {
+                mWaiting.remove(client);
+                return;
+            }
+        }
+        startWaiting();
+    }
+
+
+    synchronized boolean isWaiting(T client) {
+        return mWaiting.containsKey(client);
+    }
+
+
+    synchronized int getActiveCount() {
+        return mActive.size();
+    }
+
+
+    synchronized int getWaitingCount() {
+        return mWaiting.size();
+    }
+
+
+    private void startWaiting() {
+        ArrayList<T> admitted = null;
+        synchronized (this) {
+            while (!mPaused && mActive.size() < mLimit && !mWaiting.isEmpty()) {
+                T client = mWaiting.keySet().iterator().next();
+                mWaiting.remove(client);
+                mActive.add(client);
+                if (admitted == null) admitted = new ArrayList<T>();
+                admitted.add(client);
+            }
+        }
+        if (admitted == null) return;
+        for (T client : admitted) {
+            mStarter.start(client);
+        }
+    }
+
+
+    private void setLimitLocked(int limit) {
+        if (limit < 1) throw new IllegalArgumentException("limit < 1");
+        mLimit = limit;
+    }
+
+    private final Starter<T> mStarter;
+    private int mLimit;
+    private boolean mPaused;
+
+    /** Insertion ordered, for FIFO admission */
+    private final LinkedHashMap<T, Boolean> mWaiting = new LinkedHashMap<T, Boolean>();
+    private final Set<T> mActive = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+}
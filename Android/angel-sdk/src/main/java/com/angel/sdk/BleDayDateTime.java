@@ -33,11 +33,18 @@ package com.angel.sdk;
 
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 
 /**
  * Serializes dates into the BLE standard type
  * org.bluetooth.characteristic.day_date_time
+ * <p>
+ * Besides the {@code GregorianCalendar} API there is a primitive codec that
+ * works with {@code long} values only. A date can be represented either as
+ * epoch milliseconds or as a packed field value: the year in bits 48-63, then
+ * one byte each for the month (1-12), day, hour, minutes, seconds and day of
+ * week. Packed values compare in chronological order.
  */
 public class BleDayDateTime {
 
@@ -62,6 +69,28 @@ public class BleDayDateTime {
     }
 
 
+    /**
+     * Deserializes a date that starts at {@code offset} into {@code target}
+     * and returns it. If {@code target} is null a new calendar is created.
+     */
+    public static GregorianCalendar Deserialize(byte[] data, int offset, GregorianCalendar target) {
+        int year = data[offset + 1] & 0xFF;
+        year = year << 8;
+        year = year | (data[offset] & 0xFF);
+        int month = data[offset + 2];
+        int day = data[offset + 3];
+        int hour = data[offset + 4];
+        int minutes = data[offset + 5];
+        int seconds = data[offset + 6];
+        if (target == null) {
+            return new GregorianCalendar(year, month - 1, day, hour, minutes, seconds);
+        }
+        target.clear();
+        target.set(year, month - 1, day, hour, minutes, seconds);
+        return target;
+    }
+
+
     public static byte[] SerializeDayDateTime(GregorianCalendar dateTime) {
         int year = dateTime.get(Calendar.YEAR);
         int month = dateTime.get(Calendar.MONTH);
@@ -105,4 +134,264 @@ public class BleDayDateTime {
         return data;
     }
 
+
+    /** Returns the date that starts at {@code offset} as a packed field value */
+    public static long DeserializePacked(byte[] data, int offset, int size) {
+        long packed = ((long) ((data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8))) << 48;
+        packed |= ((long) (data[offset + 2] & 0xFF)) << 40;
+        packed |= ((long) (data[offset + 3] & 0xFF)) << 32;
+        packed |= ((long) (data[offset + 4] & 0xFF)) << 24;
+        packed |= (data[offset + 5] & 0xFF) << 16;
+        packed |= (data[offset + 6] & 0xFF) << 8;
+        if (size == DAY_DATE_SERIALIZED_SIZE) {
+            packed |= data[offset + 7] & 0xFF;
+        }
+        return packed;
+    }
+
+
+    /**
+     * Returns the fields of a calendar as a packed field value. Like
+     * {@link #SerializeDayDateTime(GregorianCalendar)}, the day of week is
+     * taken from the calendar, if {@code size} is
+     * {@link #DAY_DATE_SERIALIZED_SIZE}.
+     */
+    public static long CalendarToPacked(GregorianCalendar calendar, int size) {
+        int dayOfWeek = size == DAY_DATE_SERIALIZED_SIZE ? calendar.get(Calendar.DAY_OF_WEEK) : 0;
+        return Pack(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                    calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.HOUR_OF_DAY),
+                    calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND), dayOfWeek);
+    }
+
+
+    /**
+     * Returns the date that starts at {@code offset} as epoch milliseconds,
+     * interpreting it in the local time zone like
+     * {@link #Deserialize(byte[])} does.
+     */
+    public static long DeserializeEpochMillis(byte[] data, int offset) {
+        return PackedToEpochMillis(DeserializePacked(data, offset, DATE_SERIALIZED_SIZE));
+    }
+
+
+    public static long PackedToEpochMillis(long packed) {
+        long localMillis = daysFromCivil(PackedYear(packed), PackedMonth(packed), PackedDay(packed)) * DAY_MILLIS
+                           + PackedHour(packed) * HOUR_MILLIS
+                           + PackedMinutes(packed) * MINUTE_MILLIS
+                           + PackedSeconds(packed) * SECOND_MILLIS;
+        return sTimeZoneCache.localToUtc(localMillis);
+    }
+
+
+    public static long EpochMillisToPacked(long epochMillis) {
+        long localMillis = epochMillis + sTimeZoneCache.getOffset(epochMillis);
+        long days = floorDiv(localMillis, DAY_MILLIS);
+        int millisOfDay = (int) (localMillis - days * DAY_MILLIS);
+
+        // Civil date from days since 1970-01-01, proleptic Gregorian calendar
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        // Calendar.DAY_OF_WEEK convention, 1970-01-01 was a Thursday
+        int dayOfWeek = (int) (days - floorDiv(days + 4, 7) * 7 + 4) + 1;
+
+        int seconds = millisOfDay / (int) SECOND_MILLIS;
+        return Pack(year, month, day, seconds / 3600, (seconds / 60) % 60, seconds % 60, dayOfWeek);
+    }
+
+
+    public static long Pack(int year, int month, int day, int hour, int minutes, int seconds, int dayOfWeek) {
+        return ((long) (year & 0xFFFF) << 48)
+               | ((long) (month & 0xFF) << 40)
+               | ((long) (day & 0xFF) << 32)
+               | ((long) (hour & 0xFF) << 24)
+               | ((minutes & 0xFF) << 16)
+               | ((seconds & 0xFF) << 8)
+               | (dayOfWeek & 0xFF);
+    }
+
+
+    public static int PackedYear(long packed) {
+        return (int) (packed >>> 48);
+    }
+
+
+    /** One based month, as transmitted */
+    public static int PackedMonth(long packed) {
+        return (int) (packed >>> 40) & 0xFF;
+    }
+
+
+    public static int PackedDay(long packed) {
+        return (int) (packed >>> 32) & 0xFF;
+    }
+
+
+    public static int PackedHour(long packed) {
+        return (int) (packed >>> 24) & 0xFF;
+    }
+
+
+    public static int PackedMinutes(long packed) {
+        return (int) (packed >>> 16) & 0xFF;
+    }
+
+
+    public static int PackedSeconds(long packed) {
+        return (int) (packed >>> 8) & 0xFF;
+    }
+
+
+    /** Zero when the packed value came from a date without a day of week */
+    public static int PackedDayOfWeek(long packed) {
+        return (int) packed & 0xFF;
+    }
+
+
+    /**
+     * Sets a packed date into {@code target} and returns it. If {@code target}
+     * is null a new calendar is created.
+     */
+    public static GregorianCalendar PackedToCalendar(long packed, GregorianCalendar target) {
+        if (target == null) {
+            return new GregorianCalendar(PackedYear(packed), PackedMonth(packed) - 1, PackedDay(packed),
+                                         PackedHour(packed), PackedMinutes(packed), PackedSeconds(packed));
+        }
+        target.clear();
+        target.set(PackedYear(packed), PackedMonth(packed) - 1, PackedDay(packed),
+                   PackedHour(packed), PackedMinutes(packed), PackedSeconds(packed));
+        return target;
+    }
+
+
+    /**
+     * Serializes a packed date into {@code out} at {@code offset}. Writes
+     * {@link #DAY_DATE_SERIALIZED_SIZE} or {@link #DATE_SERIALIZED_SIZE}
+     * bytes depending on {@code size}.
+     */
+    public static void SerializePacked(long packed, int size, byte[] out, int offset) {
+        int year = PackedYear(packed);
+        out[offset] = (byte) (year & 0x00FF);
+        out[offset + 1] = (byte) ((year & 0xFF00) >> 8);
+        out[offset + 2] = (byte) PackedMonth(packed);
+        out[offset + 3] = (byte) PackedDay(packed);
+        out[offset + 4] = (byte) PackedHour(packed);
+        out[offset + 5] = (byte) PackedMinutes(packed);
+        out[offset + 6] = (byte) PackedSeconds(packed);
+        if (size == DAY_DATE_SERIALIZED_SIZE) {
+            out[offset + 7] = (byte) PackedDayOfWeek(packed);
+        }
+    }
+
+
+    public static byte[] SerializeDayDateTime(long epochMillis) {
+        byte[] data = new byte[DAY_DATE_SERIALIZED_SIZE];
+        SerializePacked(EpochMillisToPacked(epochMillis), DAY_DATE_SERIALIZED_SIZE, data, 0);
+        return data;
+    }
+
+
+    public static byte[] SerializeDateTime(long epochMillis) {
+        byte[] data = new byte[DATE_SERIALIZED_SIZE];
+        SerializePacked(EpochMillisToPacked(epochMillis), DATE_SERIALIZED_SIZE, data, 0);
+        return data;
+    }
+
+
+    /**
+     * Makes the primitive codec use {@code timeZone} instead of the default
+     * time zone captured on first use. Call it after the device time zone
+     * changes.
+     */
+    public static void SetTimeZone(TimeZone timeZone) {
+        sTimeZoneCache = new TimeZoneCache(timeZone);
+    }
+
+
+    /** Days since 1970-01-01 in the proleptic Gregorian calendar */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            q--;
+        }
+        return q;
+    }
+
+
+    /**
+     * A direct-mapped table of time zone offsets keyed by the UTC quarter of
+     * an hour. Most time zone transitions happen on quarter-hour boundaries,
+     * but not all of them; Newfoundland, for one, switched at 00:01 local
+     * time for years. A quarter is cached only if the offset is the same at
+     * both of its ends, and the rare quarter with a transition inside goes
+     * to the {@code TimeZone} rules on every call.
+     */
+    private static final class TimeZoneCache {
+
+        TimeZoneCache(TimeZone timeZone) {
+            mTimeZone = timeZone;
+            for (int i = 0; i < SIZE; i++) {
+                mQuarters[i] = Long.MIN_VALUE;
+            }
+        }
+
+
+        int getOffset(long utcMillis) {
+            long quarter = floorDiv(utcMillis, QUARTER_HOUR_MILLIS);
+            int slot = (int) (quarter & (SIZE - 1));
+            int offset;
+            synchronized (this) {
+                if (mQuarters[slot] != quarter) {
+                    long start = quarter * QUARTER_HOUR_MILLIS;
+                    int startOffset = mTimeZone.getOffset(start);
+                    int endOffset = mTimeZone.getOffset(start + QUARTER_HOUR_MILLIS - 1);
+                    mQuarters[slot] = quarter;
+                    mOffsets[slot] = startOffset == endOffset ? startOffset : TRANSITION;
+                }
+                offset = mOffsets[slot];
+            }
+            return offset != TRANSITION ? offset : mTimeZone.getOffset(utcMillis);
+        }
+
+
+        long localToUtc(long localMillis) {
+            int offset = getOffset(localMillis - mTimeZone.getRawOffset());
+            long utcMillis = localMillis - offset;
+            int adjusted = getOffset(utcMillis);
+            return adjusted == offset ? utcMillis : localMillis - adjusted;
+        }
+
+        private static final int SIZE = 64;
+
+        /** Marks a quarter with a transition inside; no real offset is this far off */
+        private static final int TRANSITION = Integer.MIN_VALUE;
+        private final TimeZone mTimeZone;
+        private final long[] mQuarters = new long[SIZE];
+        private final int[] mOffsets = new int[SIZE];
+    }
+
+    private static final long SECOND_MILLIS = 1000;
+    private static final long MINUTE_MILLIS = 60 * SECOND_MILLIS;
+    private static final long QUARTER_HOUR_MILLIS = 15 * MINUTE_MILLIS;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private static volatile TimeZoneCache sTimeZoneCache = new TimeZoneCache(TimeZone.getDefault());
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.UUID;
+
+
+/**
+ * A descriptor of a remote characteristic.
+ *
+ * @see BleServiceHandle
+ */
+public final class BleDescriptorHandle {
+
+    /** The descriptor that subscribes the client to notifications and indications */
+    public static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+
+    BleDescriptorHandle(BleCharacteristicHandle characteristic, UUID uuid) {
+        mCharacteristic = characteristic;
+        mUuid = uuid;
+    }
+
+
+    public UUID getUuid() {
+        return mUuid;
+    }
+
+
+    public BleCharacteristicHandle getCharacteristic() {
+        return mCharacteristic;
+    }
+
+
+    /** The value last written; null if none was */
+    public byte[] getValue() {
+        return mValue;
+    }
+
+
+    public void setValue(byte[] value) {
+        mValue = value;
+    }
+
+
+    @Override
+    public String toString() {
+        return "Descriptor " + mUuid;
+    }
+
+    private final BleCharacteristicHandle mCharacteristic;
+    private final UUID mUuid;
+    private volatile byte[] mValue;
+}
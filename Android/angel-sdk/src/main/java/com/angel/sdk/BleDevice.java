@@ -30,29 +30,24 @@
  */
 package com.angel.sdk;
 
-import android.app.Activity;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
-import android.content.ComponentName;
-import android.content.Context;
-import android.content.Intent;
-import android.content.ServiceConnection;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.IBinder;
-import android.util.Log;
-
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -63,22 +58,63 @@ import java.util.UUID;
  * create an instance of BleDevice or an inherited class, register all the
  * required services by calling {@link #registerServiceClass(Class)}, call
  * {@link #connect(String)}.
+ * <p>
+ * The device talks to the hardware through a {@link BleTransport}, on Android
+ * a {@link BleAndroidTransport}:
+ * <pre>
+ * BleDevice device = new BleDevice(new BleAndroidTransport(context), lifecycleCallback);
+ * </pre>
  */
 public class BleDevice {
-    private static HandlerThread makeThread() {
-        HandlerThread handlerThread = new HandlerThread("BleDevice_callback_thread");
-        handlerThread.start();
-        return handlerThread;
+    /**
+     * Callbacks run on {@link BleExecutors#getSharedCallbackPool()}, the pool
+     * shared by all the devices.
+     */
+    public BleDevice(BleTransport transport, LifecycleCallback lifecycleCallback) {
+        this(transport, lifecycleCallback, BleExecutors.getSharedCallbackPool());
     }
 
-    public BleDevice(Context context, LifecycleCallback lifecycleCallback) {
-        this(context, lifecycleCallback, new Handler(makeThread().getLooper()));
+    /**
+     * Callbacks run on the supplied executor, for example one that posts to
+     * the UI thread. They run one at a time and in order even if the executor
+     * is multi-threaded.
+     */
+    public BleDevice(BleTransport transport, LifecycleCallback lifecycleCallback, Executor callbackExecutor) {
+        this(null, transport, lifecycleCallback, callbackExecutor);
     }
 
-    public BleDevice(Context context, LifecycleCallback lifecycleCallback, Handler callbackHandler) {
-        mActivity = (Activity) context;
+    /** A device created by {@link BleDeviceManager#createDevice(LifecycleCallback)} */
+    BleDevice(BleDeviceManager manager,
+              BleTransport transport,
+              LifecycleCallback lifecycleCallback,
+              Executor callbackExecutor) {
+        mManager = manager;
+        mTransport = transport;
         mLifecycleCallback = lifecycleCallback;
-        mCallbackHandler = callbackHandler;
+        mCallbackBackingExecutor = callbackExecutor;
+        mCallbackExecutor = new BleSerialExecutor(callbackExecutor);
+    }
+
+    /** Priorities for {@link #schedulePoll(BleCharacteristic, long, int)}; any int works */
+    public static final int POLL_PRIORITY_LOW = 0;
+    public static final int POLL_PRIORITY_NORMAL = 5;
+    public static final int POLL_PRIORITY_HIGH = 10;
+
+    /** Connection state, as reported by {@link #getState()} */
+    public enum State {
+        DISCONNECTED,
+
+        /** Waiting for a {@link BleDeviceManager} connection slot */
+        WAITING_FOR_SLOT,
+
+        CONNECTING,
+        DISCOVERING_SERVICES,
+
+        /** The connection was lost; a reconnect attempt is scheduled */
+        RECONNECT_PENDING,
+
+        /** Connected and services discovered */
+        READY
     }
 
     /**
@@ -97,56 +133,238 @@ public class BleDevice {
     }
 
 
+    /** A life cycle event as delivered by {@link #getLifecyclePublisher()} */
+    public static final class LifecycleEvent {
+        public enum Type {
+            SERVICES_DISCOVERED, DISCONNECTED, REMOTE_RSSI
+        }
+
+
+        LifecycleEvent(Type type, BleDevice device, int rssi) {
+            mType = type;
+            mDevice = device;
+            mRssi = rssi;
+        }
+
+
+        public Type getType() {
+            return mType;
+        }
+
+
+        public BleDevice getDevice() {
+            return mDevice;
+        }
+
+
+        /** Valid for {@link Type#REMOTE_RSSI} events only */
+        public int getRssi() {
+            return mRssi;
+        }
+
+        private final Type mType;
+        private final BleDevice mDevice;
+        private final int mRssi;
+    }
+
+
+    /**
+     * Returns the life cycle events as a demand-driven stream, delivered on
+     * the device callback thread in the same order as to the
+     * {@link LifecycleCallback}. The stream never completes; a disconnection
+     * is reported as an event since the device may connect again.
+     * <p>
+     * Events arriving while a subscriber has no outstanding demand are
+     * buffered, up to {@code capacity} per subscription, and then dropped
+     * according to {@code policy}.
+     */
+    public BlePublisher<LifecycleEvent> getLifecyclePublisher(final int capacity,
+                                                              final BleCharacteristic.OverflowPolicy policy) {
+        return new BlePublisher<LifecycleEvent>() {
+            @Override
+            public void subscribe(BlePublisher.Subscriber<? super LifecycleEvent> subscriber) {
+                LifecycleSubscription subscription = new LifecycleSubscription();
+                BleEmitter<LifecycleEvent> emitter = new BleEmitter<LifecycleEvent>(subscriber, capacity, policy, subscription);
+                subscription.mEmitter = emitter;
+                emitter.start();
+                mLifecycleEmitters.add(emitter);
+                // Cancelled from onSubscribe or right after it
+                if (emitter.isDone()) mLifecycleEmitters.remove(emitter);
+            }
+        };
+    }
+
+
+    /**
+     * Same as {@link #getLifecyclePublisher(int, BleCharacteristic.OverflowPolicy)}
+     * with a buffer of {@link BleCharacteristic#DEFAULT_QUEUE_CAPACITY} events
+     * and {@link BleCharacteristic.OverflowPolicy#DROP_OLDEST}.
+     */
+    public BlePublisher<LifecycleEvent> getLifecyclePublisher() {
+        return getLifecyclePublisher(BleCharacteristic.DEFAULT_QUEUE_CAPACITY,
+                                     BleCharacteristic.OverflowPolicy.DROP_OLDEST);
+    }
+
+
     public void connect(String deviceAddress) {
 
         mDeviceAddress = deviceAddress;
-        if (mBleController == null) {
-            mAction = Action.CONNECT;
-            Intent gattServiceIntent = new Intent(mActivity.getApplicationContext(),
-                                                  BleController.class);
-            boolean gotBinded = mActivity.getApplicationContext().bindService(gattServiceIntent,
-                                                                              mServiceConnection,
-                                                                              Context.BIND_AUTO_CREATE);
-            if (!gotBinded) throw new RuntimeException("Failed to bind to BleController");
+        mDisconnectRequested = false;
+        resetReconnectAttempts();
+        if (mCallbackExecutor.isShutdown()) {
+            // Values that arrived after the disconnect were posted to the old executor
+            resetDispatchQueues();
+            mCallbackExecutor = new BleSerialExecutor(mCallbackBackingExecutor);
+        }
+        if (mProfileCache != null && mBleServices.isEmpty()) {
+            addCachedServices(deviceAddress);
+        }
+        if (mManager != null) {
+            setState(State.WAITING_FOR_SLOT);
+            mManager.requestConnection(this);
         } else {
-            connect(mBleController.getRemoteDevice(deviceAddress));
+            connectTransport();
         }
     }
     
     
+    /**
+     * Closes the connection. Callbacks and characteristic values not
+     * delivered yet are discarded; the callback executor is set up again by
+     * the next {@link #connect(String)}.
+     */
     public void disconnect() {
+        mDisconnectRequested = true;
+        cancelReconnect();
         mDeviceAddress = "";
-        if (mBluetoothGatt != null) mBluetoothGatt.close();
+        BleGattException reason = notConnected();
+        mGattQueue.detach(reason);
+        failPendingNotifications(reason);
+        mPollScheduler.setActive(false);
+        mTransport.close();
+        mCallbackExecutor.shutdown();
+        resetDispatchQueues();
+        setState(State.DISCONNECTED);
+        releaseConnectionSlot();
     }
 
-    public BleController getBleController() {
-        return mBleController;
+
+    /**
+     * Sets how the device reconnects after losing the connection, or null to
+     * leave reconnecting to the client, which is the default. While
+     * reconnecting, service and characteristic objects stay the same,
+     * listeners stay registered and enabled notifications are enabled again.
+     * The client still receives
+     * {@link LifecycleCallback#onBluetoothDeviceDisconnected()} for the loss
+     * and {@link LifecycleCallback#onBluetoothServicesDiscovered(BleDevice)}
+     * once the device is back.
+     */
+    public void setReconnectPolicy(BleReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+        if (policy == null) cancelReconnect();
     }
-    
+
+
+    /**
+     * Enables the persistent profile cache, which is off by default, or
+     * disables it if the store is null. The cache remembers the services and
+     * characteristics of every device address in the store, for example a
+     * {@link BlePreferencesProfileStore}. On the next {@link #connect(String)} to the same address, the
+     * services found in the cache are available from {@link #getService(Class)}
+     * right away, before the connection is established. Notification
+     * subscriptions and GATT operations made on them meanwhile are carried
+     * out once service discovery completes.
+     * <p>
+     * Services are still discovered on every connection; the cached layout is
+     * replaced by the discovered one, and services the device no longer has
+     * are removed. Must be called before {@link #connect(String)}.
+     */
+    public void setProfileStore(BleProfileStore store) {
+        mProfileCache = store != null ? new BleProfileCache(store) : null;
+    }
+
+
+    public State getState() {
+        return mState;
+    }
+
+
+    /**
+     * Blocks until the device is connected and its services are discovered,
+     * riding out reconnect attempts. For code that drives a device from its
+     * own thread rather than from callbacks; waiting parks the thread without
+     * holding a monitor.
+     * 
+     * @throws BleGattException with {@link BleGattException#STATUS_NOT_CONNECTED}
+     *         if the device is or becomes disconnected with no attempt to
+     *         connect in progress
+     */
+    public void awaitServices() throws InterruptedException, BleGattException {
+        mStateLock.lock();
+        try {
+            while (mState != State.READY) {
+                if (mState == State.DISCONNECTED) throw notConnected();
+                mStateChanged.await();
+            }
+        } finally {
+            mStateLock.unlock();
+        }
+    }
+
+
+    /**
+     * Same as {@link #awaitServices()}, giving up after the timeout.
+     * 
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitServices(long timeout, TimeUnit unit) throws InterruptedException, BleGattException {
+        long remaining = unit.toNanos(timeout);
+        mStateLock.lock();
+        try {
+            while (mState != State.READY) {
+                if (mState == State.DISCONNECTED) throw notConnected();
+                if (remaining <= 0) return false;
+                remaining = mStateChanged.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            mStateLock.unlock();
+        }
+    }
+
+
+    /** Notifications and read results received since the device was created */
+    public long getReceivedPacketCount() {
+        return mReceivedPackets.get();
+    }
+
+
+    /** Bytes of notifications and read results received since the device was created */
+    public long getReceivedByteCount() {
+        return mReceivedBytes.get();
+    }
+
+    public BleTransport getTransport() {
+        return mTransport;
+    }
+
 
     /**
      * Get a concrete service object of the specified type as was previously
-     * registered using {@link BleDevice#registerServiceClass(UUID, Class)}.
-     * Throws ClassCastException if for a specific service UUID was registered
-     * one class but then getService was called with another.
+     * registered using {@link BleDevice#registerServiceClass(Class)}. The
+     * lookup is a single map access keyed by the registered class; it neither
+     * allocates nor uses reflection, so it is cheap enough to call per event.
      * 
      * Usage example:
      * <code> SrvHeartRate hr = device.getService(SrvHeartRate.class); </code>
      * 
-     * @return null if the service wasn't found
+     * @return null if the service wasn't found or if it was registered with a
+     *         different class
      */
     public <T extends BleService> T getService(Class<T> serviceClass) {
-        try {
-            BleService service = serviceClass.newInstance();
-
-            @SuppressWarnings("unchecked")
-            T concreteService = (T) mBleServices.get(service.getUuid());
-            return concreteService;
-        } catch (InstantiationException e) {
-            throw new AssertionError(); // Should have been verified in registerServiceClass
-        } catch (IllegalAccessException e) {
-            throw new AssertionError(); // Should have been verified in registerServiceClass
-        }
+        @SuppressWarnings("unchecked")
+        T concreteService = (T) mBleServicesByClass.get(serviceClass);
+        return concreteService;
     }
 
 
@@ -161,44 +379,77 @@ public class BleDevice {
             throws NoSuchMethodException,
                 IllegalAccessException,
                 InstantiationException {
-        // Create a non-operational dummy instance only to access the UUID
-        BleService service = serviceClass.newInstance();
+        // Classes annotated with @BleGattService have a generated factory;
+        // other classes get a reflection-based one
+        BleService.Factory<? extends BleService> factory = BleFactoryRegistry.obtainServiceFactory(serviceClass);
+        mBleServiceFactories.put(factory.getUuid(), factory);
+        mBleServiceClasses.put(factory.getUuid(), serviceClass);
+    }
 
-        // Check that the class has the required public constructor
-        Constructor<? extends BleService> ctor = serviceClass.getConstructor(BluetoothGattService.class,
-                                                                             BleDevice.class);
-        if (!Modifier.isPublic(ctor.getModifiers())) {
-            throw new IllegalAccessException(serviceClass.getName() + " constructor must be public");
-        }
-        mBleServiceClasses.put(service.getUuid(), serviceClass);
+
+    /**
+     * Request characteristic value. The value is delivered to the
+     * characteristic's listener and also completes the returned future.
+     * Requests are queued behind any GATT operation already in flight.
+     */
+    public BleFuture<byte[]> readCharacteristic(final BleCharacteristicHandle characteristic) {
+        return readCharacteristic(characteristic, BleGattQueue.DEFAULT_TIMEOUT, BleGattQueue.DEFAULT_RETRIES);
     }
 
 
     /**
-     * Request characteristic value. The value is returned asynchronously via
-     * ACTION_DATA_READ_AVAILABLE intent.
+     * Same as {@link #readCharacteristic(BleCharacteristicHandle)}, with
+     * an explicit per-attempt timeout and the number of additional attempts
+     * after a failure or a timeout.
      */
-    public void readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+    public BleFuture<byte[]> readCharacteristic(final BleCharacteristicHandle characteristic,
+                                                long timeoutMillis,
+                                                int retries) {
         if (characteristic == null) {
-            return;
+            return BleFuture.failed(new IllegalArgumentException("No characteristic"));
         }
         final int properties = characteristic.getProperties();
-        if ((mBluetoothGatt != null)
-            && (properties & BluetoothGattCharacteristic.PROPERTY_READ) > 0) {
-            mBluetoothGatt.readCharacteristic(characteristic);
+        if ((properties & BleCharacteristicHandle.PROPERTY_READ) == 0) {
+            return BleFuture.failed(new BleGattException("Characteristic " + characteristic.getUuid() + " is not readable",
+                                                         BleTransport.GATT_READ_NOT_PERMITTED));
         }
+        if (mState == State.DISCONNECTED) return BleFuture.failed(notConnected());
+        return mGattQueue.read(characteristic, timeoutMillis, retries);
+    }
+
+
+    /**
+     * Writes the current value of the characteristic. The value is captured
+     * when this method is called, so the characteristic may be modified again
+     * right away.
+     */
+    public BleFuture<Void> writeCharacteristic(BleCharacteristicHandle characteristic) {
+        return writeCharacteristic(characteristic, BleGattQueue.DEFAULT_TIMEOUT, BleGattQueue.DEFAULT_RETRIES);
     }
 
 
-    public void writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+    public BleFuture<Void> writeCharacteristic(BleCharacteristicHandle characteristic,
+                                               long timeoutMillis,
+                                               int retries) {
         if (characteristic == null) {
-            return;
+            return BleFuture.failed(new IllegalArgumentException("No characteristic"));
         }
+        return writeCharacteristic(characteristic, characteristic.getValue(), timeoutMillis, retries);
+    }
+
+
+    /** Writes the supplied value without touching the value of the characteristic object */
+    BleFuture<Void> writeCharacteristic(BleCharacteristicHandle characteristic,
+                                        byte[] value,
+                                        long timeoutMillis,
+                                        int retries) {
         final int properties = characteristic.getProperties();
-        if ((mBluetoothGatt != null)
-            && (properties & BluetoothGattCharacteristic.PROPERTY_WRITE) > 0) {
-            mBluetoothGatt.writeCharacteristic(characteristic);
+        if ((properties & BleCharacteristicHandle.PROPERTY_WRITE) == 0) {
+            return BleFuture.failed(new BleGattException("Characteristic " + characteristic.getUuid() + " is not writable",
+                                                         BleTransport.GATT_WRITE_NOT_PERMITTED));
         }
+        if (mState == State.DISCONNECTED) return BleFuture.failed(notConnected());
+        return mGattQueue.write(characteristic, value, timeoutMillis, retries);
     }
 
 
@@ -206,247 +457,730 @@ public class BleDevice {
      * Enable notifications and/or indications for the characteristic. Both
      * types are enabled in the rare case when a characteristic supports them.
      * 
-     * This method will block if called on the BLE thread. Make sure it is called from
-     * another thread.
+     * The method doesn't block; the returned future completes once the remote
+     * device confirms the configuration descriptor write.
      */
-    public void enableCharacteristicNotifications(final BluetoothGattCharacteristic characteristic) {
+    public BleFuture<Void> enableCharacteristicNotifications(final BleCharacteristicHandle characteristic) {
         if (characteristic == null) {
-            return;
+            return BleFuture.failed(new IllegalArgumentException("No characteristic"));
         }
         final int properties = characteristic.getProperties();
-        if (mBluetoothGatt != null) {
-            if (((properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) > 0) ||
-                ((properties & BluetoothGattCharacteristic.PROPERTY_INDICATE) > 0)) {
-                setCharacteristicNotification(characteristic, true);
+        if (((properties & BleCharacteristicHandle.PROPERTY_NOTIFY) == 0) &&
+            ((properties & BleCharacteristicHandle.PROPERTY_INDICATE) == 0)) {
+            return BleFuture.failed(new BleGattException("Characteristic " + characteristic.getUuid()
+                                                         + " supports neither notifications nor indications",
+                                                         BleTransport.GATT_REQUEST_NOT_SUPPORTED));
+        }
+        if (mState == State.DISCONNECTED) return BleFuture.failed(notConnected());
+        return setCharacteristicNotification(characteristic, true);
+    }
+
+
+    /**
+     * Enables notifications of several characteristics at once. All the
+     * configuration descriptor writes are queued right away and go out back
+     * to back, so subscribing to many streams costs one pass rather than a
+     * round trip wait per characteristic. Values are delivered to the
+     * listeners already added to each characteristic.
+     * 
+     * @return completes once every descriptor write completed, successfully
+     *         or not, with the outcome for each characteristic; never fails
+     */
+    public BleFuture<Map<BleCharacteristic<?>, BleFuture<Void>>> enableNotifications(
+            Collection<? extends BleCharacteristic<?>> characteristics) {
+        final LinkedHashMap<BleCharacteristic<?>, BleFuture<Void>> results =
+            new LinkedHashMap<BleCharacteristic<?>, BleFuture<Void>>();
+        for (BleCharacteristic<?> bleCharacteristic : characteristics) {
+            if (!results.containsKey(bleCharacteristic)) {
+                results.put(bleCharacteristic, bleCharacteristic.requestNotifications());
             }
         }
+
+        final BleFuture<Map<BleCharacteristic<?>, BleFuture<Void>>> all =
+            new BleFuture<Map<BleCharacteristic<?>, BleFuture<Void>>>();
+        final Map<BleCharacteristic<?>, BleFuture<Void>> unmodifiableResults = Collections.unmodifiableMap(results);
+        if (results.isEmpty()) {
+            all.complete(unmodifiableResults);
+            return all;
+        }
+        final AtomicInteger remaining = new AtomicInteger(results.size());
+        BleFuture.Listener<Void> countdown = new BleFuture.Listener<Void>() {
+            @Override
+            public void onComplete(BleFuture<Void> future) {
+                if (remaining.decrementAndGet() == 0) all.complete(unmodifiableResults);
+            }
+        };
+        for (BleFuture<Void> result : results.values()) {
+            result.addListener(countdown);
+        }
+        return all;
     }
 
-    public void readRemoteRssi() {
-        if (mBluetoothGatt != null) {
-            mBluetoothGatt.readRemoteRssi();
+
+    /**
+     * Requests the signal strength. The value is reported via
+     * {@link LifecycleCallback#onReadRemoteRssi(int)} and also completes the
+     * returned future.
+     */
+    public BleFuture<Integer> readRemoteRssi() {
+        if (mState == State.DISCONNECTED) return BleFuture.failed(notConnected());
+        return mGattQueue.readRemoteRssi(BleGattQueue.DEFAULT_TIMEOUT, BleGattQueue.DEFAULT_RETRIES);
+    }
+
+    /**
+     * Enables notifications of the characteristic, or defers this until the
+     * services are discovered if the device is connecting. Fails right away
+     * if the device is disconnected; the characteristic then isn't
+     * subscribed on the next connection either.
+     */
+    BleFuture<Void> requestNotifications(BleCharacteristic<?> bleCharacteristic) {
+        synchronized (mPendingNotifications) {
+            State state = mState;
+            if (state == State.DISCONNECTED) return BleFuture.failed(notConnected());
+            // Marked under the lock, so that a discovery completing meanwhile
+            // either restores the subscription or finds the pending request
+            bleCharacteristic.setNotificationsRequested();
+            if (state != State.READY) {
+                BleFuture<Void> pending = mPendingNotifications.get(bleCharacteristic);
+                if (pending == null) {
+                    pending = new BleFuture<Void>();
+                    mPendingNotifications.put(bleCharacteristic, pending);
+                }
+                return pending;
+            }
         }
+        return enableCharacteristicNotifications(bleCharacteristic.getBaseGattCharacteristic());
     }
 
-    private void connect(BluetoothDevice device) {
-        mBluetoothGatt = device.connectGatt(mBleController, false, mGattCallback);
+
+    /**
+     * Reads the characteristic every {@code intervalMillis} while the device is
+     * connected, replacing an earlier poll of the same characteristic. Values
+     * are delivered to the characteristic's listeners.
+     * <p>
+     * Polls of a device share its GATT queue. They start at random phases,
+     * polls due at about the same time go out together in order of
+     * {@code priority}, higher first, and polls back off while the link is
+     * congested.
+     * 
+     * @param priority for example {@link #POLL_PRIORITY_NORMAL}
+     */
+    public void schedulePoll(final BleCharacteristic<?> bleCharacteristic, long intervalMillis, int priority) {
+        if ((bleCharacteristic.getBaseGattCharacteristic().getProperties()
+             & BleCharacteristicHandle.PROPERTY_READ) == 0) {
+            throw new IllegalArgumentException("Characteristic " + bleCharacteristic.getUuid() + " is not readable");
+        }
+        mPollScheduler.schedule(bleCharacteristic, new BlePollScheduler.Poll() {
+            @Override
+            public BleFuture<?> start() {
+                return readCharacteristic(bleCharacteristic.getBaseGattCharacteristic());
+            }
+        }, intervalMillis, priority);
     }
-    
-    
-    private void setCharacteristicNotification(BluetoothGattCharacteristic characteristic,
-                                               boolean enabled) {
-        if (mBluetoothGatt == null) {
-            return;
+
+
+    /**
+     * Reads the signal strength periodically, as reported to
+     * {@link LifecycleCallback#onReadRemoteRssi(int)}.
+     * 
+     * @see #schedulePoll(BleCharacteristic, long, int)
+     */
+    public void scheduleRssiPoll(long intervalMillis, int priority) {
+        mPollScheduler.schedule(RSSI_POLL, new BlePollScheduler.Poll() {
+            @Override
+            public BleFuture<?> start() {
+                return readRemoteRssi();
+            }
+        }, intervalMillis, priority);
+    }
+
+
+    public void cancelPoll(BleCharacteristic<?> bleCharacteristic) {
+        mPollScheduler.cancel(bleCharacteristic);
+    }
+
+
+    public void cancelRssiPoll() {
+        mPollScheduler.cancel(RSSI_POLL);
+    }
+
+
+    /** Runs the task on the device callback thread */
+    void postCallback(Runnable task) {
+        mCallbackExecutor.execute(task);
+    }
+
+
+    /** Runs the task on the device callback thread after a delay; cancel via the returned future */
+    ScheduledFuture<?> postCallbackDelayed(final Runnable task, long delayMillis) {
+        return BleExecutors.getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                postCallback(task);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    void releasePayload(BlePayloadPool.Payload payload) {
+        mPayloadPool.release(payload);
+    }
+
+
+    /** Called by the manager once the device got a connection slot */
+    void startConnection() {
+        connectTransport();
+    }
+
+
+    /** Returns false if the policy doesn't allow another attempt */
+    private boolean scheduleReconnect() {
+        BleReconnectPolicy policy = mReconnectPolicy;
+        if (policy == null || mDisconnectRequested) return false;
+        synchronized (mReconnect) {
+            int attempt = mReconnectAttempts;
+            if (!policy.shouldRetry(attempt)) return false;
+            mReconnectAttempts = attempt + 1;
+            long delay = policy.getDelay(attempt, sRandom);
+            setState(State.RECONNECT_PENDING);
+            mReconnectTimer = BleExecutors.getTimer().schedule(mReconnect, delay, TimeUnit.MILLISECONDS);
+            BleLog.i(TAG, "Reconnecting to " + mDeviceAddress + " in " + delay + " ms, attempt " + (attempt + 1));
         }
+        return true;
+    }
 
-        if (!mBluetoothGatt.setCharacteristicNotification(characteristic, enabled)) {
-            throw new AssertionError("Failed setCharacteristicNotification for UUID " + characteristic.getUuid());
+
+    private void resetReconnectAttempts() {
+        synchronized (mReconnect) {
+            mReconnectAttempts = 0;
         }
+    }
 
-        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString(BleController.CLIENT_CHARACTERISTIC_CONFIG));
-        final byte NOTIFY_AND_INDICATE[] = {3,0};
-        descriptor.setValue(enabled ? NOTIFY_AND_INDICATE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-        mWaitingForConfirmation = true;
-        if (!mBluetoothGatt.writeDescriptor(descriptor)) {
-            throw new AssertionError("Failed to write BLE descriptor " + descriptor.getUuid() + " for UUID " + characteristic.getUuid());
+
+    private void cancelReconnect() {
+        synchronized (mReconnect) {
+            if (mReconnectTimer != null) {
+                mReconnectTimer.cancel(false);
+                mReconnectTimer = null;
+            }
         }
+    }
 
-        try {
-            synchronized (this) {
-                wait(DESCRIPTOR_WRITE_TIMEOUT);
-                if (mWaitingForConfirmation) {
-                    throw new AssertionError("Did not receive confirmation for mBluetoothGatt.writeDescriptor(" + characteristic.getUuid() + ")");
-                }
+
+    private final Runnable mReconnect = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mReconnect) {
+                mReconnectTimer = null;
+            }
+            if (mDisconnectRequested) return;
+            if (mManager != null) {
+                setState(State.WAITING_FOR_SLOT);
+                mManager.requestConnection(BleDevice.this);
+            } else {
+                connectTransport();
             }
-        } catch (InterruptedException e) {
-            throw new AssertionError("Interrupted while waiting for response to mBluetoothGatt.writeDescriptor");        
+        }
+    };
+
+
+    /**
+     * Enables again the notifications that were enabled before the connection
+     * was lost, and the ones requested while connecting.
+     * 
+     * @param pending futures returned for requests made while connecting
+     */
+    private void restoreNotifications(IdentityHashMap<BleCharacteristic<?>, BleFuture<Void>> pending) {
+        for (BleService bleService : mBleServices.values()) {
+            if (bleService == null) continue;
+            for (BleCharacteristic<?> bleCharacteristic : bleService.getCharacteristics()) {
+                BleFuture<Void> restored = bleCharacteristic.restoreNotifications();
+                if (restored == null) continue;
+                final UUID uuid = bleCharacteristic.getUuid();
+                final BleFuture<Void> requested = pending.remove(bleCharacteristic);
+                restored.addListener(new BleFuture.Listener<Void>() {
+                    @Override
+                    public void onComplete(BleFuture<Void> future) {
+                        if (requested != null) {
+                            if (future.isSuccess()) requested.complete(null);
+                            else requested.fail(future.getFailure());
+                        } else if (!future.isSuccess()) {
+                            BleLog.e(TAG, "Could not restore notifications of " + uuid, future.getFailure());
+                        }
+                    }
+                });
+            }
+        }
+
+        // Characteristics of services the device turned out not to have
+        for (BleFuture<Void> requested : pending.values()) {
+            requested.fail(new BleGattException("Characteristic not found on the device",
+                                                BleTransport.GATT_REQUEST_NOT_SUPPORTED));
+        }
+    }
+
+
+    private void failPendingNotifications(Throwable reason) {
+        IdentityHashMap<BleCharacteristic<?>, BleFuture<Void>> pending;
+        synchronized (mPendingNotifications) {
+            pending = new IdentityHashMap<BleCharacteristic<?>, BleFuture<Void>>(mPendingNotifications);
+            mPendingNotifications.clear();
+        }
+        for (BleFuture<Void> requested : pending.values()) {
+            requested.fail(reason);
         }
     }
+
+
+    /** Creates the service wrappers from the cached profile of the device, if any */
+    private void addCachedServices(String deviceAddress) {
+        List<BleServiceHandle> cachedServices = mProfileCache.load(deviceAddress, getServiceClassNames());
+        if (cachedServices.isEmpty()) return;
+        mCachedServiceUuids = new HashSet<UUID>();
+        for (BleServiceHandle cachedService : cachedServices) {
+            mCachedServiceUuids.add(cachedService.getUuid());
+        }
+        addNewServices(cachedServices);
+    }
+
+
+    /**
+     * Drops the cached services that service discovery didn't confirm. Their
+     * wrappers still point at handles made up from the cache.
+     */
+    private void removeUnconfirmedServices(List<BleServiceHandle> discoveredServices) {
+        HashSet<UUID> unconfirmed = mCachedServiceUuids;
+        if (unconfirmed == null) return;
+        mCachedServiceUuids = null;
+        for (BleServiceHandle discoveredService : discoveredServices) {
+            unconfirmed.remove(discoveredService.getUuid());
+        }
+        for (UUID serviceUuid : unconfirmed) {
+            BleLog.w(TAG, "Cached service " + serviceUuid + " not found on " + mDeviceAddress);
+            mBleServices.remove(serviceUuid);
+        }
+    }
+
+
+    /**
+     * Maps the characteristics and descriptors the wrappers were bound to
+     * before a rebind to the ones they are bound to now.
+     * 
+     * @param previousRoutes the routing table from before the rebind
+     */
+    private static IdentityHashMap<Object, Object> findReplacements(
+            IdentityHashMap<BleCharacteristicHandle, BleCharacteristic<?>> previousRoutes) {
+        IdentityHashMap<Object, Object> replacements = new IdentityHashMap<Object, Object>();
+        for (BleCharacteristicHandle previous : previousRoutes.keySet()) {
+            BleCharacteristicHandle current = previousRoutes.get(previous).getBaseGattCharacteristic();
+            if (current == previous) continue;
+            replacements.put(previous, current);
+            for (BleDescriptorHandle descriptor : previous.getDescriptors()) {
+                BleDescriptorHandle currentDescriptor = current.getDescriptor(descriptor.getUuid());
+                if (currentDescriptor != null) replacements.put(descriptor, currentDescriptor);
+            }
+        }
+        return replacements;
+    }
+
+
+    private HashMap<UUID, String> getServiceClassNames() {
+        HashMap<UUID, String> classNames = new HashMap<UUID, String>();
+        for (UUID serviceUuid : mBleServiceClasses.keySet()) {
+            classNames.put(serviceUuid, mBleServiceClasses.get(serviceUuid).getName());
+        }
+        return classNames;
+    }
+
+
+    private void setState(State state) {
+        mState = state;
+        mStateLock.lock();
+        try {
+            mStateChanged.signalAll();
+        } finally {
+            mStateLock.unlock();
+        }
+    }
+
+
+    private static BleGattException notConnected() {
+        return new BleGattException("Device not connected", BleGattException.STATUS_NOT_CONNECTED);
+    }
+
+
+    /**
+     * Discards the values queued for delivery. Their drain tasks were
+     * discarded with the callback executor, and a queue whose drain is still
+     * marked as posted would never be drained again.
+     */
+    private void resetDispatchQueues() {
+        for (BleCharacteristic<?> bleCharacteristic : mCharacteristicRoutes.values()) {
+            bleCharacteristic.getDispatchQueue().reset();
+        }
+    }
+
+
+    private void releaseConnectionSlot() {
+        if (mManager != null) mManager.releaseConnection(this);
+    }
+
+
+    private void connectTransport() {
+        setState(State.CONNECTING);
+        // A previous connection, if any, is replaced. The GATT queue is
+        // attached once services are discovered; until then operations wait
+        // in the queue.
+        mTransport.connect(mDeviceAddress, mTransportCallback);
+    }
     
     
-    private void addNewServices(List<BluetoothGattService> supportedGattServices) {
-        for (BluetoothGattService bluetoothGattService : supportedGattServices) {
+    private BleFuture<Void> setCharacteristicNotification(BleCharacteristicHandle characteristic,
+                                                          boolean enabled) {
+        // Local registration, doesn't involve the remote device
+        if (!mTransport.setCharacteristicNotification(characteristic, enabled)) {
+            return BleFuture.failed(new BleGattException("Failed setCharacteristicNotification for UUID "
+                                                         + characteristic.getUuid()));
+        }
+
+        BleDescriptorHandle descriptor = characteristic.getDescriptor(BleDescriptorHandle.CLIENT_CHARACTERISTIC_CONFIG);
+        if (descriptor == null) {
+            return BleFuture.failed(new BleGattException("No configuration descriptor for UUID "
+                                                         + characteristic.getUuid()));
+        }
+        final byte NOTIFY_AND_INDICATE[] = {3,0};
+        final byte DISABLE_NOTIFICATIONS[] = {0,0};
+        return mGattQueue.writeDescriptor(descriptor,
+                                          enabled ? NOTIFY_AND_INDICATE : DISABLE_NOTIFICATIONS,
+                                          DESCRIPTOR_WRITE_TIMEOUT,
+                                          BleGattQueue.DEFAULT_RETRIES);
+    }
+    
+    
+    private void addNewServices(List<BleServiceHandle> supportedGattServices) {
+        for (BleServiceHandle bluetoothGattService : supportedGattServices) {
             BleService bleService = null;
             UUID serviceUuid = bluetoothGattService.getUuid();
-            Class<? extends BleService> serviceClass = mBleServiceClasses.get(serviceUuid);
+            BleService.Factory<? extends BleService> serviceFactory = mBleServiceFactories.get(serviceUuid);
 
             // Is the service registered?
-            if (serviceClass == null) continue;
+            if (serviceFactory == null) continue;
 
-            // Was the service discovered earlier?
-            if (mBleServices.containsKey(serviceUuid)) continue;
+            // Was the service discovered earlier, before a reconnect? Keep the
+            // wrapper and point it at the new handles.
+            if (mBleServices.containsKey(serviceUuid)) {
+                BleService existing = mBleServices.get(serviceUuid);
+                if (existing != null) existing.rebind(bluetoothGattService);
+                continue;
+            }
 
             try {
-                Constructor<? extends BleService> ctor = serviceClass.getConstructor(BluetoothGattService.class,
-                                                                                     BleDevice.class);
-                bleService = ctor.newInstance(bluetoothGattService, this);
-            } catch (InstantiationException e) {
-                throw new AssertionError(); // Should have been verified in registerServiceClass
-            } catch (IllegalAccessException e) {
-                throw new AssertionError(); // Should have been verified in registerServiceClass
-            } catch (NoSuchMethodException e) {
-                throw new AssertionError(); // Should have been verified in registerServiceClass
-            } catch (InvocationTargetException e) {
-                Log.e(TAG, "Could not create an instance of " + serviceClass.getName()
-                           + ". Constructor threw an exception");
+                bleService = serviceFactory.create(bluetoothGattService, this);
+            } catch (RuntimeException e) {
+                BleLog.e(TAG, "Could not create an instance of service " + serviceUuid
+                           + ". Constructor threw an exception", e);
+            } catch (AssertionError e) {
+                BleLog.e(TAG, "Could not create an instance of service " + serviceUuid
+                           + ". Constructor threw an exception", e);
             }
 
             mBleServices.put(bluetoothGattService.getUuid(), bleService);
         }
+
+        buildServiceLookup();
+        buildCharacteristicRoutes();
     }
 
 
-    private enum Action {
-        IDLE, CONNECT, DISCONNECT
+    /**
+     * Rebuilds the class to service map used by {@link #getService(Class)}.
+     * The map is replaced rather than modified so readers on other threads
+     * never see it half-built.
+     */
+    private void buildServiceLookup() {
+        HashMap<Class<? extends BleService>, BleService> servicesByClass =
+            new HashMap<Class<? extends BleService>, BleService>();
+        for (UUID serviceUuid : mBleServices.keySet()) {
+            BleService bleService = mBleServices.get(serviceUuid);
+            if (bleService == null) continue;
+            servicesByClass.put(mBleServiceClasses.get(serviceUuid), bleService);
+        }
+        mBleServicesByClass = servicesByClass;
     }
 
-    private final ServiceConnection mServiceConnection = new ServiceConnection() {
-        @Override
-        public void onServiceConnected(ComponentName componentName, IBinder service) {
-            mBleController = ((BleController.LocalBinder) service).getService();
-            if (!mBleController.initialize()) {
-                return;
-            }
-            switch (mAction) {
-            case CONNECT:
-                connect(mBleController.getRemoteDevice(mDeviceAddress));
-                break;
-            //TODO possibly deprecated
-            case DISCONNECT:
-                mBluetoothGatt.close();
-                break;
-            default:
-                break;
+
+    /**
+     * Maps every characteristic handle to its {@code BleCharacteristic}
+     * wrapper. The transport reports notifications and reads with the same
+     * handles it returned from service discovery, so dispatch is a single
+     * identity lookup.
+     */
+    private void buildCharacteristicRoutes() {
+        synchronized (mBleServices) {
+            IdentityHashMap<BleCharacteristicHandle, BleCharacteristic<?>> routes =
+                new IdentityHashMap<BleCharacteristicHandle, BleCharacteristic<?>>();
+            for (BleService bleService : mBleServices.values()) {
+                if (bleService == null) continue;
+                for (BleCharacteristic<?> bleCharacteristic : bleService.getCharacteristics()) {
+                    routes.put(bleCharacteristic.getBaseGattCharacteristic(), bleCharacteristic);
+                }
             }
-            mAction = Action.IDLE;
+            mCharacteristicRoutes = routes;
         }
+    }
 
 
-        @Override
-        public void onServiceDisconnected(ComponentName componentName) {
-            mBluetoothGatt = null;
-            mBleController = null;
+    /** Called when a service creates a characteristic object on first access */
+    void addCharacteristicRoute(BleCharacteristic<?> bleCharacteristic) {
+        synchronized (mBleServices) {
+            IdentityHashMap<BleCharacteristicHandle, BleCharacteristic<?>> routes =
+                new IdentityHashMap<BleCharacteristicHandle, BleCharacteristic<?>>(mCharacteristicRoutes);
+            routes.put(bleCharacteristic.getBaseGattCharacteristic(), bleCharacteristic);
+            mCharacteristicRoutes = routes;
         }
-    };
+    }
 
 
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+    /**
+     * Finds the wrapper of a characteristic reported by the transport. Falls
+     * back to a UUID lookup in case the transport reports a handle other than
+     * the one the wrapper is bound to.
+     */
+    private BleCharacteristic<?> findCharacteristic(BleCharacteristicHandle characteristic) {
+        BleCharacteristic<?> bleCharacteristic = mCharacteristicRoutes.get(characteristic);
+        if (bleCharacteristic != null) {
+            return bleCharacteristic;
+        }
+
+        BleServiceHandle gattService = characteristic.getService();
+        if (gattService == null) return null;
+        BleService bleService = mBleServices.get(gattService.getUuid());
+        if (bleService == null) return null;
+        // Characteristics that were never accessed have no listeners
+        return bleService.findCharacteristic(characteristic.getUuid());
+    }
+
+
+    private final BleTransport.Callback mTransportCallback = new BleTransport.Callback() {
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                mBluetoothGatt.discoverServices();
+        public void onConnected() {
+            setState(State.DISCOVERING_SERVICES);
+            mTransport.discoverServices();
+        }
 
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                if (mLifecycleCallback != null) {
-                    mCallbackHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            mLifecycleCallback.onBluetoothDeviceDisconnected();
-                        }
-                    });
-                }
+        @Override
+        public void onDisconnected(int status) {
+            releaseConnectionSlot();
+            BleGattException reason = new BleGattException("Device disconnected with status " + status,
+                                                           BleGattException.STATUS_NOT_CONNECTED);
+            mPollScheduler.setActive(false);
+            if (!scheduleReconnect()) {
+                setState(State.DISCONNECTED);
+                failPendingNotifications(reason);
             }
+            mGattQueue.detach(reason);
+            dispatchLifecycleEvent(new LifecycleEvent(LifecycleEvent.Type.DISCONNECTED, BleDevice.this, 0));
         }
 
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                addNewServices(mBluetoothGatt.getServices());
-                if (mLifecycleCallback != null) {
-                    mCallbackHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            mLifecycleCallback.onBluetoothServicesDiscovered(BleDevice.this);
-                        }
-                    });
+        public void onServicesDiscovered(int status) {
+            // The connection attempt is over either way
+            releaseConnectionSlot();
+            if (status == BleTransport.GATT_SUCCESS) {
+                List<BleServiceHandle> discoveredServices = mTransport.getServices();
+                IdentityHashMap<BleCharacteristicHandle, BleCharacteristic<?>> previousRoutes = mCharacteristicRoutes;
+                removeUnconfirmedServices(discoveredServices);
+                addNewServices(discoveredServices);
+                if (mProfileCache != null) {
+                    mProfileCache.store(mDeviceAddress, discoveredServices, getServiceClassNames());
+                }
+
+                // Operations enqueued while connecting target the objects of
+                // the cache or of the previous connection
+                mGattQueue.retarget(findReplacements(previousRoutes));
+                mGattQueue.attach(mTransport);
+
+                IdentityHashMap<BleCharacteristic<?>, BleFuture<Void>> pending;
+                synchronized (mPendingNotifications) {
+                    setState(State.READY);
+                    pending = new IdentityHashMap<BleCharacteristic<?>, BleFuture<Void>>(mPendingNotifications);
+                    mPendingNotifications.clear();
                 }
+                resetReconnectAttempts();
+                restoreNotifications(pending);
+                mPollScheduler.setActive(true);
+                dispatchLifecycleEvent(new LifecycleEvent(LifecycleEvent.Type.SERVICES_DISCOVERED, BleDevice.this, 0));
             } else {
-                //TODO
+                BleLog.e(TAG, "Service discovery on " + mDeviceAddress + " failed with status " + status);
+                BleGattException reason = new BleGattException("Service discovery failed with status " + status,
+                                                               status);
+                failPendingNotifications(reason);
+                mGattQueue.detach(reason);
+                // Closing doesn't report a disconnection, so the state is
+                // moved on here, which also wakes up awaitServices()
+                mTransport.close();
+                if (!scheduleReconnect()) {
+                    setState(State.DISCONNECTED);
+                }
+                dispatchLifecycleEvent(new LifecycleEvent(LifecycleEvent.Type.DISCONNECTED, BleDevice.this, 0));
             }
         }
 
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic,
-                                         int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                String serviceUuid = characteristic.getService().getUuid().toString();
-                if (serviceUuid == null) throw new AssertionError();
-
-                String charcteristicUuid = characteristic.getUuid().toString();
-                if (charcteristicUuid == null) throw new AssertionError();
-                handleOnCharacteristicChanged(serviceUuid, charcteristicUuid);
+        public void onCharacteristicRead(BleCharacteristicHandle characteristic, int status) {
+            if (status == BleTransport.GATT_SUCCESS) {
+                handleOnCharacteristicChanged(characteristic);
             }
+            mGattQueue.onCharacteristicRead(characteristic, status);
         }
 
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
-            String serviceUuid = characteristic.getService().getUuid().toString();
-            if (serviceUuid == null) throw new AssertionError();
+        public void onCharacteristicWrite(BleCharacteristicHandle characteristic, int status) {
+            mGattQueue.onCharacteristicWrite(characteristic, status);
+        }
 
-            String charcteristicUuid = characteristic.getUuid().toString();
-            if (charcteristicUuid == null) throw new AssertionError();
-            handleOnCharacteristicChanged(serviceUuid, charcteristicUuid);
+        @Override
+        public void onCharacteristicChanged(BleCharacteristicHandle characteristic) {
+            handleOnCharacteristicChanged(characteristic);
         }
 
         @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            synchronized (BleDevice.this) {
-                mWaitingForConfirmation = false;
-                BleDevice.this.notify();
-            }
+        public void onDescriptorWrite(BleDescriptorHandle descriptor, int status) {
+            mGattQueue.onDescriptorWrite(descriptor, status);
         }
 
         @Override
-        public void onReadRemoteRssi(BluetoothGatt gatt, final int rssi, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS && mLifecycleCallback != null) {
-                mCallbackHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        mLifecycleCallback.onReadRemoteRssi(rssi);
-                    }
-                });
+        public void onReadRemoteRssi(final int rssi, int status) {
+            if (status == BleTransport.GATT_SUCCESS) {
+                dispatchLifecycleEvent(new LifecycleEvent(LifecycleEvent.Type.REMOTE_RSSI, BleDevice.this, rssi));
             }
+            mGattQueue.onReadRemoteRssi(rssi, status);
         }
     };
     
 
-    private void handleOnCharacteristicChanged(String serviceUuid, String charcteristicUuid) {
-        final BleService bleService = mBleServices.get(UUID.fromString(serviceUuid));
-        final BleCharacteristic<?> bleCharacteristic = bleService.getCharacteristic(UUID.fromString(charcteristicUuid));
-        mCallbackHandler.post(new Runnable() {
+    /** Reports the event to the life cycle callback and publisher subscribers on the callback thread */
+    private void dispatchLifecycleEvent(final LifecycleEvent event) {
+        if (mLifecycleCallback == null && mLifecycleEmitters.isEmpty()) return;
+        postCallback(new Runnable() {
             @Override
             public void run() {
-                bleCharacteristic.onCharacteristicChanged();
+                if (mLifecycleCallback != null) {
+                    switch (event.getType()) {
+                    case SERVICES_DISCOVERED:
+                        mLifecycleCallback.onBluetoothServicesDiscovered(BleDevice.this);
+                        break;
+                    case DISCONNECTED:
+                        mLifecycleCallback.onBluetoothDeviceDisconnected();
+                        break;
+                    case REMOTE_RSSI:
+                        mLifecycleCallback.onReadRemoteRssi(event.getRssi());
+                        break;
+                    }
+                }
+                for (BleEmitter<LifecycleEvent> emitter : mLifecycleEmitters) {
+                    emitter.offer(event);
+                }
             }
         });
     }
 
+
+    /** Detaches a life cycle publisher subscription when it is cancelled */
+    private final class LifecycleSubscription implements Runnable {
+        @Override
+        public void run() {
+            mLifecycleEmitters.remove(mEmitter);
+        }
+
+        BleEmitter<LifecycleEvent> mEmitter;
+    }
+
+
+    private void handleOnCharacteristicChanged(BleCharacteristicHandle characteristic) {
+        final BleCharacteristic<?> bleCharacteristic = findCharacteristic(characteristic);
+        if (bleCharacteristic == null) return;
+
+        // Snapshot the value right away, before the next notification
+        // overwrites it
+        BlePayloadPool.Payload payload = mPayloadPool.acquire(characteristic.getValue());
+        mReceivedPackets.incrementAndGet();
+        mReceivedBytes.addAndGet(payload.length);
+        bleCharacteristic.onValueReceived(payload.data, payload.length);
+        bleCharacteristic.getDispatchQueue().offer(payload);
+    }
+
     /** Maximum milliseconds to wait for writeDescriptor() confirmation from the remote device */
-    private final int DESCRIPTOR_WRITE_TIMEOUT = 5000;
+    private static final long DESCRIPTOR_WRITE_TIMEOUT = 5000;
 
-    private BluetoothGatt mBluetoothGatt;
-    private Action mAction = Action.IDLE;
+    private final BleTransport mTransport;
     private String mDeviceAddress;
-    private final Activity mActivity;
+    private final BleDeviceManager mManager;
+    private volatile State mState = State.DISCONNECTED;
+
+    /** Signalled on every state change, for {@link #awaitServices()} */
+    private final ReentrantLock mStateLock = new ReentrantLock();
+    private final Condition mStateChanged = mStateLock.newCondition();
+    private volatile BleReconnectPolicy mReconnectPolicy;
+    private volatile boolean mDisconnectRequested;
+    /** Guarded by mReconnect */
+    private int mReconnectAttempts;
+    private ScheduledFuture<?> mReconnectTimer;
+    private static final Random sRandom = new Random();
+    private final AtomicLong mReceivedPackets = new AtomicLong();
+    private final AtomicLong mReceivedBytes = new AtomicLong();
     private final LifecycleCallback mLifecycleCallback;
-    private BleController mBleController = null;
+    private final CopyOnWriteArrayList<BleEmitter<LifecycleEvent>> mLifecycleEmitters =
+        new CopyOnWriteArrayList<BleEmitter<LifecycleEvent>>();
     private final HashMap<UUID, BleService> mBleServices = new HashMap<UUID, BleService>();
+    private final HashMap<UUID, BleService.Factory<? extends BleService>> mBleServiceFactories = new HashMap<UUID, BleService.Factory<? extends BleService>>();
     private final HashMap<UUID, Class<? extends BleService>> mBleServiceClasses = new HashMap<UUID, Class<? extends BleService>>();
+    private volatile HashMap<Class<? extends BleService>, BleService> mBleServicesByClass =
+        new HashMap<Class<? extends BleService>, BleService>();
+
+    /** Null unless enabled by {@link #setProfileStore(BleProfileStore)} */
+    private BleProfileCache mProfileCache;
+
+    /** Services created from the cache and not yet confirmed by service discovery */
+    private HashSet<UUID> mCachedServiceUuids;
+
+    /** Notification requests made while connecting; guarded by itself */
+    private final IdentityHashMap<BleCharacteristic<?>, BleFuture<Void>> mPendingNotifications =
+        new IdentityHashMap<BleCharacteristic<?>, BleFuture<Void>>();
+
+    /**
+     * Routing table for notification dispatch. Rebuilt on service discovery
+     * and replaced as a whole, so it is read without locking.
+     */
+    private volatile IdentityHashMap<BleCharacteristicHandle, BleCharacteristic<?>> mCharacteristicRoutes =
+        new IdentityHashMap<BleCharacteristicHandle, BleCharacteristic<?>>();
     private int mRssi;
 
-    /** Thread for asynchronous execution of callbacks */
-    private HandlerThread mCallbackThread;
+    /** The executor supplied by the client, or the shared callback pool */
+    private final Executor mCallbackBackingExecutor;
 
     /**
-     * Handler for asynchronous execution of callbacks. If user code makes new
+     * Executor for asynchronous execution of callbacks. If user code makes new
      * calls to Bluetooth services from within a callback, execution will be
      * blocked. Deferring callbacks to a separate thread resolves this.
+     * Replaced on connect after a disconnect shut it down.
      */
-    private Handler mCallbackHandler;
+    private volatile BleSerialExecutor mCallbackExecutor;
+
+    /** Serializes GATT operations; Android allows only one in flight per connection */
+    private final BleGattQueue mGattQueue = new BleGattQueue();
+
+    /** Periodic reads registered by {@link #schedulePoll(BleCharacteristic, long, int)} */
+    private final BlePollScheduler mPollScheduler = new BlePollScheduler(mGattQueue);
+
+    /** Key of the RSSI poll in {@link #mPollScheduler} */
+    private static final Object RSSI_POLL = new Object();
+
+    /** Number of notification snapshots that may be in flight without allocating; 16 KB per device */
+    private static final int PAYLOAD_POOL_CAPACITY = 32;
 
-    private boolean mWaitingForConfirmation = false;
+    /** Buffers for characteristic value snapshots handed over to the callback thread */
+    private final BlePayloadPool mPayloadPool = new BlePayloadPool(PAYLOAD_POOL_CAPACITY);
     
     private static final String TAG = BleDevice.class.getName();
 }
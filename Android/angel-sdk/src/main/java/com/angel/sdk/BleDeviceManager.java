@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Manages many devices connected at the same time, for example a gateway
+ * streaming from dozens of sensors.
+ * <p>
+ * The manager creates the transport of each device with the supplied factory,
+ * runs the callbacks of all the devices on one shared executor (each device
+ * still sees its own events in order) and caps the number of connection
+ * attempts in progress. Android's Bluetooth stack handles parallel connection
+ * attempts poorly, so further devices wait for a slot; a slot is held from the
+ * connection request until service discovery completes or the attempt fails.
+ * On Android, {@link BleAndroidTransport#factory(android.content.Context)}
+ * makes the devices share one {@link BleController} binding.
+ * <p>
+ * Usage example:
+ * <pre>
+ * BleDeviceManager manager = new BleDeviceManager(BleAndroidTransport.factory(context), 2);
+ * BleDevice device = manager.createDevice(lifecycleCallback);
+ * device.registerServiceClass(SrvHeartRate.class);
+ * device.connect(address);
+ * </pre>
+ */
+public class BleDeviceManager {
+
+    /** Connection attempts allowed in parallel unless configured otherwise */
+    public static final int DEFAULT_MAX_CONCURRENT_CONNECTS = 2;
+
+
+    public BleDeviceManager(BleTransport.Factory transportFactory) {
+        this(transportFactory, DEFAULT_MAX_CONCURRENT_CONNECTS);
+    }
+
+
+    public BleDeviceManager(BleTransport.Factory transportFactory, int maxConcurrentConnects) {
+        this(transportFactory, maxConcurrentConnects, BleExecutors.getSharedCallbackPool());
+    }
+
+
+    /**
+     * @param callbackExecutor runs the callbacks of all the devices created
+     *        by this manager
+     */
+    public BleDeviceManager(BleTransport.Factory transportFactory, int maxConcurrentConnects, Executor callbackExecutor) {
+        mTransportFactory = transportFactory;
+        mCallbackExecutor = callbackExecutor;
+        mSlots = new BleConnectionSlots<BleDevice>(maxConcurrentConnects, new BleConnectionSlots.Starter<BleDevice>() {
+            @Override
+            public void start(BleDevice device) {
+                device.startConnection();
+            }
+        });
+    }
+
+
+    /** A snapshot of the state and throughput of a device */
+    public static final class DeviceStatus {
+        DeviceStatus(BleDevice device, BleDevice.State state, long packets, long bytes,
+                     double packetsPerSecond, double bytesPerSecond) {
+            mDevice = device;
+            mState = state;
+            mPackets = packets;
+            mBytes = bytes;
+            mPacketsPerSecond = packetsPerSecond;
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+
+        public BleDevice getDevice() {
+            return mDevice;
+        }
+
+
+        public BleDevice.State getState() {
+            return mState;
+        }
+
+
+        /** Notifications and read results received since the device was created */
+        public long getPacketCount() {
+            return mPackets;
+        }
+
+
+        public long getByteCount() {
+            return mBytes;
+        }
+
+
+        /** Average since the previous {@link BleDeviceManager#getDeviceStatus()} call */
+        public double getPacketsPerSecond() {
+            return mPacketsPerSecond;
+        }
+
+
+        /** Average since the previous {@link BleDeviceManager#getDeviceStatus()} call */
+        public double getBytesPerSecond() {
+            return mBytesPerSecond;
+        }
+
+        private final BleDevice mDevice;
+        private final BleDevice.State mState;
+        private final long mPackets;
+        private final long mBytes;
+        private final double mPacketsPerSecond;
+        private final double mBytesPerSecond;
+    }
+
+
+    /**
+     * Creates a device managed by this manager. Register its services and
+     * call {@link BleDevice#connect(String)} as with a standalone device; the
+     * connection starts once a slot is free.
+     */
+    public BleDevice createDevice(BleDevice.LifecycleCallback lifecycleCallback) {
+        BleDevice device = new BleDevice(this, mTransportFactory.createTransport(), lifecycleCallback, mCallbackExecutor);
+        mDevices.add(device);
+        return device;
+    }
+
+
+    /** Disconnects the device and stops tracking it */
+    public void removeDevice(BleDevice device) {
+        if (mDevices.remove(device)) {
+            device.disconnect();
+            synchronized (mLastSamples) {
+                mLastSamples.remove(device);
+            }
+        }
+    }
+
+
+    public List<BleDevice> getDevices() {
+        return new ArrayList<BleDevice>(mDevices);
+    }
+
+
+    public void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        mSlots.setLimit(maxConcurrentConnects);
+    }
+
+
+    public int getMaxConcurrentConnects() {
+        return mSlots.getLimit();
+    }
+
+
+    /** Number of connection attempts currently in progress */
+    public int getActiveConnectCount() {
+        return mSlots.getActiveCount();
+    }
+
+
+    /** Number of devices waiting for a connection slot */
+    public int getWaitingConnectCount() {
+        return mSlots.getWaitingCount();
+    }
+
+
+    /**
+     * Returns the state and throughput of every device. Rates are averaged
+     * over the time since the previous call, so poll this method at the
+     * interval the rates should cover.
+     */
+    public List<DeviceStatus> getDeviceStatus() {
+        long now = System.nanoTime();
+        ArrayList<DeviceStatus> result = new ArrayList<DeviceStatus>(mDevices.size());
+        synchronized (mLastSamples) {
+            for (BleDevice device : mDevices) {
+                long packets = device.getReceivedPacketCount();
+                long bytes = device.getReceivedByteCount();
+                double packetRate = 0;
+                double byteRate = 0;
+                long[] last = mLastSamples.get(device);
+                if (last == null) {
+                    last = new long[3];
+                    mLastSamples.put(device, last);
+                } else if (now > last[0]) {
+                    double seconds = (now - last[0]) / 1e9;
+                    packetRate = (packets - last[1]) / seconds;
+                    byteRate = (bytes - last[2]) / seconds;
+                }
+                last[0] = now;
+                last[1] = packets;
+                last[2] = bytes;
+                result.add(new DeviceStatus(device, device.getState(), packets, bytes, packetRate, byteRate));
+            }
+        }
+        return result;
+    }
+
+
+    /** Disconnects all the devices, which releases their transports */
+    public void close() {
+        mSlots.setPaused(true);
+        for (BleDevice device : mDevices) {
+            device.disconnect();
+        }
+        mDevices.clear();
+    }
+
+
+    /** Queues the device for a connection slot; called by {@link BleDevice#connect(String)} */
+    void requestConnection(BleDevice device) {
+        mSlots.request(device);
+    }
+
+
+    /** Frees the slot of a device whose attempt completed, failed or was cancelled */
+    void releaseConnection(BleDevice device) {
+        mSlots.release(device);
+    }
+
+    private final BleTransport.Factory mTransportFactory;
+    private final Executor mCallbackExecutor;
+    private final BleConnectionSlots<BleDevice> mSlots;
+    private final CopyOnWriteArrayList<BleDevice> mDevices = new CopyOnWriteArrayList<BleDevice>();
+
+    /** Per device: time in nanoseconds, packet count and byte count at the previous status call */
+    private final IdentityHashMap<BleDevice, long[]> mLastSamples = new IdentityHashMap<BleDevice, long[]>();
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+
+
+/**
+ * Hands characteristic value snapshots from the Bluetooth thread over to the
+ * device callback thread.
+ * <p>
+ * Snapshots are collected in a per-characteristic queue and drained by a
+ * single reusable task, so a burst of notifications costs one thread handoff
+ * instead of one per packet. In batched mode the drain is deferred until
+ * either a number of packets has accumulated or a delay has passed since the
+ * first packet of the batch arrived.
+ * <p>
+ * The queue is bounded. When a slow listener lets it fill up, the configured
+ * {@link BleCharacteristic.OverflowPolicy} decides what happens to the next
+ * packet, and dropped packets are counted.
+ */
+final class BleDispatchQueue {
+
+    BleDispatchQueue(BleCharacteristic<?> characteristic, BleDevice bleDevice) {
+        mCharacteristic = characteristic;
+        mBleDevice = bleDevice;
+    }
+
+
+    /**
+     * @param batchSize drain as soon as this many packets are queued; 1 drains
+     *        right away
+     * @param maxDelayMillis drain at the latest this long after the first
+     *        packet of a batch was queued; ignored if batchSize is 1
+     */
+    void setBatching(int batchSize, long maxDelayMillis) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize < 1");
+        if (maxDelayMillis < 0) throw new IllegalArgumentException("maxDelayMillis < 0");
+        synchronized (this) {
+            mBatchSize = batchSize;
+            mMaxDelayMillis = maxDelayMillis;
+        }
+        // Let whatever is queued go out under the new settings
+        post();
+    }
+
+
+    void setOverflowPolicy(int capacity, BleCharacteristic.OverflowPolicy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity < 1");
+        if (policy == null) throw new IllegalArgumentException("policy is null");
+        synchronized (this) {
+            mCapacity = capacity;
+            mPolicy = policy;
+            // Let blocked producers re-evaluate under the new settings
+            notifyAll();
+        }
+    }
+
+
+    /** Number of packets received but not yet handed to the listeners */
+    synchronized int getDepth() {
+        return queued();
+    }
+
+
+    synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+
+    /** Called on the Bluetooth thread with a snapshot taken from the payload pool */
+    void offer(BlePayloadPool.Payload payload) {
+        boolean drainNow = false;
+        boolean startTimer = false;
+        synchronized (this) {
+            if (!makeRoom()) {
+                ++mDroppedCount;
+                mBleDevice.releasePayload(payload);
+                return;
+            }
+            mPending.add(payload);
+            if (mBatchSize <= 1 || mPending.size() >= mBatchSize) {
+                drainNow = !mDrainPosted;
+                mDrainPosted = true;
+            } else if (!mTimerPosted) {
+                startTimer = true;
+                mTimerPosted = true;
+            }
+        }
+
+        if (drainNow) {
+            mBleDevice.postCallback(mDrain);
+        } else if (startTimer) {
+            ScheduledFuture<?> timer = mBleDevice.postCallbackDelayed(mFlush, mMaxDelayMillis);
+            synchronized (this) {
+                // The batch may have been drained in the meantime
+                if (mTimerPosted) {
+                    mTimer = timer;
+                } else {
+                    timer.cancel(false);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Releases the packets not picked up yet and forgets the posted drain and
+     * flush, for when the callback executor that was to run them is shut
+     * down. Producers blocked by {@link BleCharacteristic.OverflowPolicy#BLOCK}
+     * are let through. A drain already running finishes the packet it is
+     * delivering.
+     */
+    void reset() {
+        synchronized (this) {
+            BlePayloadPool.Payload payload;
+            while ((payload = mPending.poll()) != null) {
+                mBleDevice.releasePayload(payload);
+            }
+            mDrainPosted = false;
+            if (mTimer != null) mTimer.cancel(false);
+            mTimer = null;
+            mTimerPosted = false;
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * Applies the overflow policy before a packet is queued.
+     * 
+     * @return false if the incoming packet is to be dropped
+     */
+    private boolean makeRoom() {
+        switch (mPolicy) {
+        case BLOCK:
+            boolean interrupted = false;
+            while (queued() >= mCapacity && mPolicy == BleCharacteristic.OverflowPolicy.BLOCK) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return queued() < mCapacity || makeRoom();
+        case DROP_OLDEST:
+            // The packet being delivered can't be dropped
+            while (queued() >= mCapacity && !mPending.isEmpty()) {
+                ++mDroppedCount;
+                mBleDevice.releasePayload(mPending.poll());
+            }
+            return true;
+        case DROP_NEWEST:
+            return queued() < mCapacity;
+        case CONFLATE:
+            while (!mPending.isEmpty()) {
+                ++mDroppedCount;
+                mBleDevice.releasePayload(mPending.poll());
+            }
+            return true;
+        default:
+            throw new AssertionError();
+        }
+    }
+
+
+    /** Packets queued, including the one being delivered */
+    private int queued() {
+        return mPending.size() + (mDelivering != null ? 1 : 0);
+    }
+
+
+    private void post() {
+        synchronized (this) {
+            if (mDrainPosted || mPending.isEmpty()) return;
+            mDrainPosted = true;
+        }
+        mBleDevice.postCallback(mDrain);
+    }
+
+
+    /**
+     * Runs on the device callback thread only. Delivers the packets queued
+     * when it starts. Packets stay in the queue until they are delivered, so
+     * they count towards the capacity, and producers blocked by
+     * {@link BleCharacteristic.OverflowPolicy#BLOCK} are let through one
+     * packet at a time. If a listener throws, the remaining packets keep
+     * their place at the head of the queue.
+     */
+    private void drain() {
+        int batch;
+        synchronized (this) {
+            batch = mPending.size();
+            mDrainPosted = false;
+            if (mTimerPosted) {
+                if (mTimer != null) mTimer.cancel(false);
+                mTimer = null;
+                mTimerPosted = false;
+            }
+        }
+
+        int count = 0;
+        boolean completed = false;
+        try {
+            while (count < batch) {
+                BlePayloadPool.Payload payload;
+                synchronized (this) {
+                    payload = mPending.poll();
+                    if (payload == null) break;
+                    mDelivering = payload;
+                }
+                try {
+                    mCharacteristic.onCharacteristicChanged(payload.data, payload.length);
+                    ++count;
+                } finally {
+                    synchronized (this) {
+                        mDelivering = null;
+                        mBleDevice.releasePayload(payload);
+                        notifyAll();
+                    }
+                }
+            }
+            completed = true;
+        } finally {
+            if (count > 0) mCharacteristic.onBatchComplete(count);
+            // Picks up the packets left behind by a listener that threw
+            if (!completed) post();
+        }
+    }
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BleDispatchQueue.this) {
+                if (!mTimerPosted) return;
+                mTimerPosted = false;
+                mTimer = null;
+            }
+            drain();
+        }
+    };
+
+    private final BleCharacteristic<?> mCharacteristic;
+    private final BleDevice mBleDevice;
+
+    private int mCapacity = BleCharacteristic.DEFAULT_QUEUE_CAPACITY;
+    private BleCharacteristic.OverflowPolicy mPolicy = BleCharacteristic.OverflowPolicy.DROP_OLDEST;
+    private long mDroppedCount;
+
+    private int mBatchSize = 1;
+    private long mMaxDelayMillis;
+    private boolean mDrainPosted;
+    private boolean mTimerPosted;
+    private ScheduledFuture<?> mTimer;
+
+    /** Filled on the Bluetooth thread, emptied by the drain */
+    private final ArrayDeque<BlePayloadPool.Payload> mPending = new ArrayDeque<BlePayloadPool.Payload>();
+    /** Taken off mPending and being handed to the listeners */
+    private BlePayloadPool.Payload mDelivering;
+}
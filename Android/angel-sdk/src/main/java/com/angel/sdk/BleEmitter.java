@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayDeque;
+
+
+/**
+ * A {@link BlePublisher.Subscription} that buffers offered values and emits
+ * them as the subscriber requests them. Signals are serialized: whichever
+ * thread finds work to do - the one offering a value or the one requesting
+ * more - emits until demand or buffer runs out, while other threads only
+ * update the state.
+ */
+final class BleEmitter<T> implements BlePublisher.Subscription {
+
+    /**
+     * @param onCancel runs once when the subscription is cancelled or
+     *        terminated, to detach the emitter from its source
+     */
+    BleEmitter(BlePublisher.Subscriber<? super T> subscriber,
+               int capacity,
+               BleCharacteristic.OverflowPolicy policy,
+               Runnable onCancel) {
+        if (subscriber == null) throw new NullPointerException("subscriber is null");
+        if (capacity < 1) throw new IllegalArgumentException("capacity < 1");
+        if (policy == BleCharacteristic.OverflowPolicy.BLOCK) {
+            throw new IllegalArgumentException("A publisher can't block its source");
+        }
+        mSubscriber = subscriber;
+        mCapacity = capacity;
+        mPolicy = policy;
+        mOnCancel = onCancel;
+    }
+
+
+    /** Signals onSubscribe; must be called before the emitter is attached to a source */
+    void start() {
+        mSubscriber.onSubscribe(this);
+    }
+
+
+    /** Returns true once the subscription is cancelled or terminated */
+    synchronized boolean isDone() {
+        return mDone;
+    }
+
+
+    /** Null values are skipped; Reactive Streams doesn't allow them */
+    void offer(T value) {
+        if (value == null) return;
+        synchronized (this) {
+            if (mDone) return;
+            if (mBuffer.size() >= mCapacity || mPolicy == BleCharacteristic.OverflowPolicy.CONFLATE) {
+                switch (mPolicy) {
+                case DROP_NEWEST:
+                    if (mBuffer.size() >= mCapacity) return;
+                    break;
+                case DROP_OLDEST:
+                    while (mBuffer.size() >= mCapacity) mBuffer.poll();
+                    break;
+                case CONFLATE:
+                    mBuffer.clear();
+                    break;
+                default:
+                    throw new AssertionError();
+                }
+            }
+            mBuffer.add(value);
+        }
+        drain();
+    }
+
+
+    /** Terminates the stream with an error, ahead of any buffered values */
+    void fail(Throwable error) {
+        synchronized (this) {
+            if (mDone) return;
+            mDone = true;
+            mError = error;
+            mBuffer.clear();
+        }
+        detach();
+        drain();
+    }
+
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            fail(new IllegalArgumentException("request(" + n + "): demand must be positive"));
+            return;
+        }
+        synchronized (this) {
+            mDemand += n;
+            if (mDemand < 0) mDemand = Long.MAX_VALUE;
+        }
+        drain();
+    }
+
+
+    @Override
+    public void cancel() {
+        synchronized (this) {
+            if (mCancelled) return;
+            mCancelled = true;
+            mDone = true;
+            mBuffer.clear();
+        }
+        detach();
+    }
+
+
+    private void detach() {
+        synchronized (this) {
+            if (mDetached) return;
+            mDetached = true;
+        }
+        if (mOnCancel != null) mOnCancel.run();
+    }
+
+
+    private void drain() {
+        synchronized (this) {
+            if (mEmitting) return;
+            mEmitting = true;
+        }
+        while (true) {
+            T value;
+            Throwable error = null;
+            synchronized (this) {
+                if (mCancelled) {
+                    mEmitting = false;
+                    return;
+                }
+                if (mError != null) {
+                    error = mError;
+                    mError = null;
+                    mCancelled = true;
+                    value = null;
+                } else if (mDemand == 0 || mBuffer.isEmpty()) {
+                    mEmitting = false;
+                    return;
+                } else {
+                    value = mBuffer.poll();
+                    if (mDemand != Long.MAX_VALUE) --mDemand;
+                }
+            }
+            if (error != null) {
+                mSubscriber.onError(error);
+            } else {
+                mSubscriber.onNext(value);
+            }
+        }
+    }
+
+    private final BlePublisher.Subscriber<? super T> mSubscriber;
+    private final int mCapacity;
+    private final BleCharacteristic.OverflowPolicy mPolicy;
+    private final Runnable mOnCancel;
+    private final ArrayDeque<T> mBuffer = new ArrayDeque<T>();
+
+    private long mDemand;
+    private Throwable mError;
+    private boolean mDone;
+    private boolean mCancelled;
+    private boolean mDetached;
+    private boolean mEmitting;
+}
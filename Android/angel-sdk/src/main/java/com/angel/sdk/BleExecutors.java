@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Threads shared by all the {@link BleDevice} instances.
+ */
+public final class BleExecutors {
+
+    /** Upper bound on the number of callback threads, whatever the number of devices */
+    public static final int MAX_CALLBACK_THREADS = 4;
+
+    /** Milliseconds an idle callback thread is kept before it exits */
+    private static final long CALLBACK_THREAD_KEEP_ALIVE = 30000;
+
+
+    private BleExecutors() {
+    }
+
+
+    /**
+     * Returns the pool devices run their callbacks on unless given an
+     * executor of their own. The pool is bounded by
+     * {@link #MAX_CALLBACK_THREADS}; its threads exit when idle, so it needs
+     * no shutdown. Each device wraps it in a serial executor, which keeps the
+     * events of one device in order while different devices run in parallel.
+     */
+    public static Executor getSharedCallbackPool() {
+        return CallbackPoolHolder.POOL;
+    }
+
+
+    /** Timer for GATT operation timeouts and deferred deliveries; never runs user code */
+    static ScheduledExecutorService getTimer() {
+        return TimerHolder.TIMER;
+    }
+
+
+    private static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "_" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+            private final AtomicInteger mCount = new AtomicInteger();
+        };
+    }
+
+
+    private static final class CallbackPoolHolder {
+        static final ThreadPoolExecutor POOL;
+
+        static {
+            int threads = Math.max(1, Math.min(MAX_CALLBACK_THREADS, Runtime.getRuntime().availableProcessors()));
+            POOL = new ThreadPoolExecutor(threads, threads,
+                                          CALLBACK_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                                          new LinkedBlockingQueue<Runnable>(),
+                                          daemonThreadFactory("BleDevice_callback"));
+            POOL.allowCoreThreadTimeOut(true);
+        }
+    }
+
+
+    private static final class TimerHolder {
+        static final ScheduledExecutorService TIMER =
+            Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("BleDevice_timer"));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.UUID;
+
+
+/**
+ * Registry of the factories that create service and characteristic objects.
+ * <p>
+ * The factories are normally generated at compile time for classes annotated
+ * with {@link BleGattService} and {@link BleGattCharacteristic}, so discovery
+ * and registration don't use reflection and survive ProGuard minification.
+ * Classes without a generated factory still work through a reflection-based
+ * fallback.
+ */
+public final class BleFactoryRegistry {
+
+    private BleFactoryRegistry() {
+    }
+
+
+    public static synchronized <T extends BleService> void registerService(Class<T> serviceClass,
+                                                                           BleService.Factory<T> factory) {
+        sServiceFactories.put(serviceClass, factory);
+        sServiceFactoriesByUuid.put(factory.getUuid(), factory);
+    }
+
+
+    public static synchronized <T extends BleCharacteristic<?>> void registerCharacteristic(Class<T> characteristicClass,
+                                                                                            BleCharacteristic.Factory<T> factory) {
+        sCharacteristicFactories.put(characteristicClass, factory);
+        sCharacteristicFactoriesByUuid.put(factory.getUuid(), factory);
+    }
+
+
+    /** Returns null if no factory was registered for the class */
+    @SuppressWarnings("unchecked")
+    public static synchronized <T extends BleService> BleService.Factory<T> getServiceFactory(Class<T> serviceClass) {
+        return (BleService.Factory<T>) sServiceFactories.get(serviceClass);
+    }
+
+
+    /** Returns null if no factory was registered for the class */
+    @SuppressWarnings("unchecked")
+    public static synchronized <T extends BleCharacteristic<?>> BleCharacteristic.Factory<T> getCharacteristicFactory(Class<T> characteristicClass) {
+        return (BleCharacteristic.Factory<T>) sCharacteristicFactories.get(characteristicClass);
+    }
+
+
+    /** Returns null if no factory was registered for the UUID */
+    public static synchronized BleService.Factory<?> getServiceFactory(UUID uuid) {
+        return sServiceFactoriesByUuid.get(uuid);
+    }
+
+
+    /** Returns null if no factory was registered for the UUID */
+    public static synchronized BleCharacteristic.Factory<?> getCharacteristicFactory(UUID uuid) {
+        return sCharacteristicFactoriesByUuid.get(uuid);
+    }
+
+
+    /**
+     * Returns the registered factory or creates one that relies on reflection.
+     * The latter verifies that the class follows the rules of
+     * {@link BleDevice#registerServiceClass(Class)}.
+     */
+    static <T extends BleService> BleService.Factory<T> obtainServiceFactory(final Class<T> serviceClass)
+            throws NoSuchMethodException,
+                IllegalAccessException,
+                InstantiationException {
+        BleService.Factory<T> factory = getServiceFactory(serviceClass);
+        if (factory != null) {
+            return factory;
+        }
+
+        // Create a non-operational dummy instance only to access the UUID
+        final UUID uuid = serviceClass.newInstance().getUuid();
+
+        // Check that the class has the required public constructor
+        final Constructor<T> ctor = serviceClass.getConstructor(BleServiceHandle.class,
+                                                                BleDevice.class);
+        if (!Modifier.isPublic(ctor.getModifiers())) {
+            throw new IllegalAccessException(serviceClass.getName() + " constructor must be public");
+        }
+
+        return new BleService.Factory<T>() {
+            @Override
+            public UUID getUuid() {
+                return uuid;
+            }
+
+            @Override
+            public T create(BleServiceHandle gattService, BleDevice bleDevice) {
+                try {
+                    return ctor.newInstance(gattService, bleDevice);
+                } catch (InstantiationException e) {
+                    throw new AssertionError(); // Should have been verified above
+                } catch (IllegalAccessException e) {
+                    throw new AssertionError(); // Should have been verified above
+                } catch (InvocationTargetException e) {
+                    throw new RuntimeException("Could not create an instance of " + serviceClass.getName()
+                                               + ". Constructor threw an exception", e.getCause());
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Returns the registered factory or creates one that relies on reflection.
+     *
+     * @see BleService#createAndRegisterCharacteristic(Class)
+     */
+    static <T extends BleCharacteristic<?>> BleCharacteristic.Factory<T> obtainCharacteristicFactory(final Class<T> characteristicClass)
+            throws InstantiationException,
+                IllegalAccessException,
+                NoSuchMethodException {
+        BleCharacteristic.Factory<T> factory = getCharacteristicFactory(characteristicClass);
+        if (factory != null) {
+            return factory;
+        }
+
+        // Create a non-operational dummy instance only to access the UUID
+        final UUID uuid = characteristicClass.newInstance().getUuid();
+        final Constructor<T> ctor = characteristicClass.getConstructor(BleCharacteristicHandle.class,
+                                                                       BleDevice.class);
+
+        return new BleCharacteristic.Factory<T>() {
+            @Override
+            public UUID getUuid() {
+                return uuid;
+            }
+
+            @Override
+            public T create(BleCharacteristicHandle gattCharacteristic, BleDevice bleDevice) {
+                try {
+                    return ctor.newInstance(gattCharacteristic, bleDevice);
+                } catch (InstantiationException e) {
+                    throw new AssertionError(); // Should have been verified above
+                } catch (IllegalAccessException e) {
+                    throw new AssertionError(); // Should have been verified above
+                } catch (InvocationTargetException e) {
+                    throw new RuntimeException("Could not create an instance of " + characteristicClass.getName()
+                                               + ". Constructor threw an exception", e.getCause());
+                }
+            }
+        };
+    }
+
+    private static final HashMap<Class<?>, BleService.Factory<?>> sServiceFactories = new HashMap<Class<?>, BleService.Factory<?>>();
+    private static final HashMap<UUID, BleService.Factory<?>> sServiceFactoriesByUuid = new HashMap<UUID, BleService.Factory<?>>();
+    private static final HashMap<Class<?>, BleCharacteristic.Factory<?>> sCharacteristicFactories = new HashMap<Class<?>, BleCharacteristic.Factory<?>>();
+    private static final HashMap<UUID, BleCharacteristic.Factory<?>> sCharacteristicFactoriesByUuid = new HashMap<UUID, BleCharacteristic.Factory<?>>();
+
+    static {
+        // Generated by the SDK annotation processor for the com.angel.sdk package
+        GeneratedBleFactories.register();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Result of an asynchronous Bluetooth operation. Besides the blocking
+ * {@link Future} methods it accepts listeners, so the result can be consumed
+ * without parking a thread.
+ * <p>
+ * Blocking waits park on a {@link java.util.concurrent.locks.Lock} rather than
+ * an object monitor, so they stay cheap with many threads waiting at once,
+ * including virtual threads on JVMs that have them.
+ */
+public class BleFuture<V> implements Future<V> {
+
+    /** Notified once the future completes, fails or is cancelled */
+    public interface Listener<V> {
+        public void onComplete(BleFuture<V> future);
+    }
+
+
+    /**
+     * Adds a listener. It runs on the thread that completes the future, which
+     * may be the Bluetooth binder thread, so it must not block. If the future
+     * is already done the listener runs immediately on the calling thread.
+     */
+    public void addListener(Listener<V> listener) {
+        mLock.lock();
+        try {
+            if (mState == PENDING) {
+                mListeners.add(listener);
+                return;
+            }
+        } finally {
+            mLock.unlock();
+        }
+        listener.onComplete(this);
+    }
+
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(CANCELLED, null, null);
+    }
+
+
+    @Override
+    public boolean isCancelled() {
+        return mState == CANCELLED;
+    }
+
+
+    @Override
+    public boolean isDone() {
+        return mState != PENDING;
+    }
+
+
+    /** Returns true if the future completed with a value */
+    public boolean isSuccess() {
+        return mState == SUCCEEDED;
+    }
+
+
+    /** Returns the failure cause, or null if the future did not fail */
+    public Throwable getFailure() {
+        return mState == FAILED ? mFailure : null;
+    }
+
+
+    /** Returns the value if the future completed successfully, null otherwise */
+    public V getResult() {
+        return mState == SUCCEEDED ? mValue : null;
+    }
+
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        if (mState == PENDING) {
+            mLock.lock();
+            try {
+                while (mState == PENDING) {
+                    mDone.await();
+                }
+            } finally {
+                mLock.unlock();
+            }
+        }
+        return report();
+    }
+
+
+    @Override
+    public V get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (mState == PENDING) {
+            long remaining = unit.toNanos(timeout);
+            mLock.lock();
+            try {
+                while (mState == PENDING) {
+                    if (remaining <= 0) throw new TimeoutException();
+                    remaining = mDone.awaitNanos(remaining);
+                }
+            } finally {
+                mLock.unlock();
+            }
+        }
+        return report();
+    }
+
+
+    boolean complete(V value) {
+        return finish(SUCCEEDED, value, null);
+    }
+
+
+    boolean fail(Throwable failure) {
+        return finish(FAILED, null, failure);
+    }
+
+
+    static <V> BleFuture<V> failed(Throwable failure) {
+        BleFuture<V> future = new BleFuture<V>();
+        future.fail(failure);
+        return future;
+    }
+
+
+    private boolean finish(int state, V value, Throwable failure) {
+        ArrayList<Listener<V>> listeners;
+        mLock.lock();
+        try {
+            if (mState != PENDING) return false;
+            mValue = value;
+            mFailure = failure;
+            // Written last; the volatile write publishes the value and failure
+            mState = state;
+            mDone.signalAll();
+            listeners = mListeners;
+            mListeners = null;
+        } finally {
+            mLock.unlock();
+        }
+        for (Listener<V> listener : listeners) {
+            listener.onComplete(this);
+        }
+        return true;
+    }
+
+
+    private V report() throws ExecutionException {
+        if (mState == CANCELLED) throw new CancellationException();
+        if (mState == FAILED) throw new ExecutionException(mFailure);
+        return mValue;
+    }
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mDone = mLock.newCondition();
+
+    /** Read without the lock; once not PENDING it never changes */
+    private volatile int mState = PENDING;
+    private V mValue;
+    private Throwable mFailure;
+
+    /** Guarded by mLock */
+    private ArrayList<Listener<V>> mListeners = new ArrayList<Listener<V>>(1);
+}
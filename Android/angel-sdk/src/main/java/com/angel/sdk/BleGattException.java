@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+
+/**
+ * Reports a GATT operation that the Bluetooth stack refused to start, that
+ * the remote device answered with an error, or that was abandoned because the
+ * device disconnected.
+ * <p>
+ * Operations on characteristics that lack the required property fail with
+ * {@link BleTransport#GATT_READ_NOT_PERMITTED},
+ * {@link BleTransport#GATT_WRITE_NOT_PERMITTED} or
+ * {@link BleTransport#GATT_REQUEST_NOT_SUPPORTED}; operations that need a connection fail
+ * with {@link #STATUS_NOT_CONNECTED}.
+ */
+public class BleGattException extends Exception {
+
+    /**
+     * The device is not connected, or disconnected before the operation
+     * completed. Outside the range of GATT status codes.
+     */
+    public static final int STATUS_NOT_CONNECTED = 0x10000;
+
+
+    public BleGattException(String message) {
+        this(message, BleTransport.GATT_FAILURE);
+    }
+
+
+    public BleGattException(String message, int status) {
+        super(message + " (status " + status + ")");
+        mStatus = status;
+    }
+
+
+    /**
+     * The GATT status code, for example one of the {@code BleTransport.GATT_*}
+     * constants, or {@link #STATUS_NOT_CONNECTED}
+     */
+    public int getStatus() {
+        return mStatus;
+    }
+
+    private final int mStatus;
+
+    private static final long serialVersionUID = 1L;
+}
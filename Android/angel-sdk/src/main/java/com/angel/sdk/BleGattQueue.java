@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * Serializes GATT operations. Android runs only one GATT operation per
+ * connection at a time and refuses to start another one while a request is in
+ * flight, so every read, write, descriptor write and RSSI read goes through
+ * this queue. Operations are started one after another as the previous one
+ * completes, fails or times out; enqueuing never blocks.
+ * <p>
+ * Completion callbacks from the {@link BleTransport} are matched against
+ * the operation in flight by kind and by target instance. Callbacks that don't
+ * match, for example a late answer to an operation that already timed out,
+ * are ignored.
+ */
+final class BleGattQueue {
+
+    /** Milliseconds to wait for a completion callback before giving up on an attempt */
+    static final long DEFAULT_TIMEOUT = 5000;
+
+    /** Additional attempts after the first one fails or times out */
+    static final int DEFAULT_RETRIES = 1;
+
+
+    /**
+     * Sets the connection operations are issued on. Pending operations are
+     * started once a connection is attached.
+     */
+    void attach(BleTransport transport) {
+        synchronized (this) {
+            mTransport = transport;
+        }
+        startNext();
+    }
+
+
+    /**
+     * Detaches the connection and fails every pending operation, including the
+     * one in flight, with the supplied reason.
+     */
+    void detach(Throwable reason) {
+        ArrayList<Operation<?>> abandoned;
+        synchronized (this) {
+            mTransport = null;
+            abandoned = new ArrayList<Operation<?>>(mPending);
+            mPending.clear();
+            if (mCurrent != null) {
+                mCurrent.cancelTimeout();
+                abandoned.add(mCurrent);
+                mCurrent = null;
+            }
+        }
+        for (Operation<?> operation : abandoned) {
+            operation.mFuture.fail(reason);
+        }
+    }
+
+
+    /**
+     * Points pending operations at new attribute handles, for operations
+     * enqueued on the handles of a previous connection or of the profile cache.
+     * 
+     * @param replacements new characteristics and descriptors by the old ones
+     */
+    synchronized void retarget(IdentityHashMap<Object, Object> replacements) {
+        for (Operation<?> operation : mPending) {
+            Object replacement = replacements.get(operation.mTarget);
+            if (replacement != null) operation.mTarget = replacement;
+        }
+    }
+
+
+    /** Operations waiting to start, not counting the one in flight */
+    synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+
+    BleFuture<byte[]> read(BleCharacteristicHandle characteristic, long timeoutMillis, int retries) {
+        return enqueue(new Operation<byte[]>(READ, characteristic, null, timeoutMillis, retries));
+    }
+
+
+    /**
+     * The value is captured now, so the caller may change it as soon as this
+     * method returns.
+     */
+    BleFuture<Void> write(BleCharacteristicHandle characteristic, byte[] value, long timeoutMillis, int retries) {
+        return enqueue(new Operation<Void>(WRITE, characteristic, snapshot(value), timeoutMillis, retries));
+    }
+
+
+    BleFuture<Void> writeDescriptor(BleDescriptorHandle descriptor, byte[] value, long timeoutMillis, int retries) {
+        return enqueue(new Operation<Void>(WRITE_DESCRIPTOR, descriptor, snapshot(value), timeoutMillis, retries));
+    }
+
+
+    BleFuture<Integer> readRemoteRssi(long timeoutMillis, int retries) {
+        return enqueue(new Operation<Integer>(READ_RSSI, null, null, timeoutMillis, retries));
+    }
+
+
+    void onCharacteristicRead(BleCharacteristicHandle characteristic, int status) {
+        onComplete(READ, characteristic, status, status == BleTransport.GATT_SUCCESS
+                                                 ? snapshot(characteristic.getValue()) : null);
+    }
+
+
+    void onCharacteristicWrite(BleCharacteristicHandle characteristic, int status) {
+        onComplete(WRITE, characteristic, status, null);
+    }
+
+
+    void onDescriptorWrite(BleDescriptorHandle descriptor, int status) {
+        onComplete(WRITE_DESCRIPTOR, descriptor, status, null);
+    }
+
+
+    void onReadRemoteRssi(int rssi, int status) {
+        onComplete(READ_RSSI, null, status, rssi);
+    }
+
+
+    private <V> BleFuture<V> enqueue(Operation<V> operation) {
+        synchronized (this) {
+            mPending.add(operation);
+        }
+        startNext();
+        return operation.mFuture;
+    }
+
+
+    private void onComplete(int kind, Object target, int status, Object result) {
+        Operation<?> operation;
+        synchronized (this) {
+            operation = mCurrent;
+            if (operation == null || operation.mKind != kind || operation.mTarget != target) return;
+            operation.cancelTimeout();
+            mCurrent = null;
+            if (status != BleTransport.GATT_SUCCESS && retry(operation)) {
+                operation = null;
+            }
+        }
+
+        if (operation != null) {
+            if (status == BleTransport.GATT_SUCCESS) {
+                operation.succeed(result);
+            } else {
+                operation.mFuture.fail(new BleGattException(operation + " failed", status));
+            }
+        }
+        startNext();
+    }
+
+
+    private void onTimeout(Operation<?> operation) {
+        synchronized (this) {
+            if (mCurrent != operation) return;
+            mCurrent = null;
+            if (retry(operation)) {
+                operation = null;
+            }
+        }
+
+        if (operation != null) {
+            operation.mFuture.fail(new TimeoutException(operation + " timed out after "
+                                                        + operation.mTimeoutMillis + " ms"));
+        }
+        startNext();
+    }
+
+
+    private void startNext() {
+        while (true) {
+            final Operation<?> operation;
+            BleTransport transport;
+            synchronized (this) {
+                if (mCurrent != null || mTransport == null) return;
+                operation = mPending.poll();
+                if (operation == null) return;
+
+                // Cancelled while waiting in the queue
+                if (operation.mFuture.isDone()) continue;
+
+                mCurrent = operation;
+                transport = mTransport;
+                operation.mTimeout = BleExecutors.getTimer().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTimeout(operation);
+                    }
+                }, operation.mTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+
+            if (operation.start(transport)) return;
+
+            // The stack refused the request, typically because the previous
+            // operation timed out but is still running inside the stack
+            boolean failed = false;
+            synchronized (this) {
+                if (mCurrent != operation) continue;
+                operation.cancelTimeout();
+                mCurrent = null;
+                failed = !retry(operation);
+            }
+            if (failed) {
+                operation.mFuture.fail(new BleGattException(operation + " could not be started"));
+            }
+        }
+    }
+
+
+    /** Puts the operation back to the head of the queue if it has attempts left */
+    private boolean retry(Operation<?> operation) {
+        if (operation.mRetriesLeft <= 0 || operation.mFuture.isDone()) return false;
+        operation.mRetriesLeft--;
+        mPending.addFirst(operation);
+        return true;
+    }
+
+
+    private static byte[] snapshot(byte[] value) {
+        return value == null ? null : value.clone();
+    }
+
+
+    private static final class Operation<V> {
+        Operation(int kind, Object target, byte[] value, long timeoutMillis, int retries) {
+            mKind = kind;
+            mTarget = target;
+            mValue = value;
+            mTimeoutMillis = timeoutMillis;
+            mRetriesLeft = retries;
+        }
+
+
+        boolean start(BleTransport transport) {
+            switch (mKind) {
+            case READ:
+                return transport.readCharacteristic((BleCharacteristicHandle) mTarget);
+            case WRITE:
+                return transport.writeCharacteristic((BleCharacteristicHandle) mTarget, mValue);
+            case WRITE_DESCRIPTOR:
+                return transport.writeDescriptor((BleDescriptorHandle) mTarget, mValue);
+            case READ_RSSI:
+                return transport.readRemoteRssi();
+            default:
+                throw new AssertionError();
+            }
+        }
+
+
+        @SuppressWarnings("unchecked")
+        void succeed(Object result) {
+            mFuture.complete((V) result);
+        }
+
+
+        void cancelTimeout() {
+            if (mTimeout != null) {
+                mTimeout.cancel(false);
+                mTimeout = null;
+            }
+        }
+
+
+        @Override
+        public String toString() {
+            switch (mKind) {
+            case READ:
+                return "Read of " + ((BleCharacteristicHandle) mTarget).getUuid();
+            case WRITE:
+                return "Write of " + ((BleCharacteristicHandle) mTarget).getUuid();
+            case WRITE_DESCRIPTOR:
+                return "Write of descriptor " + ((BleDescriptorHandle) mTarget).getUuid();
+            default:
+                return "RSSI read";
+            }
+        }
+
+        final int mKind;
+        Object mTarget;
+        final byte[] mValue;
+        final long mTimeoutMillis;
+        final BleFuture<V> mFuture = new BleFuture<V>();
+        int mRetriesLeft;
+        ScheduledFuture<?> mTimeout;
+    }
+
+    private static final int READ = 0;
+    private static final int WRITE = 1;
+    private static final int WRITE_DESCRIPTOR = 2;
+    private static final int READ_RSSI = 3;
+
+    private BleTransport mTransport;
+    private Operation<?> mCurrent;
+    private final ArrayDeque<Operation<?>> mPending = new ArrayDeque<Operation<?>>();
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+
+/**
+ * Deterministic {@link BleTransport} that simulates a device in memory, for
+ * tests and benchmarks of the service model, decoding and dispatch.
+ * <p>
+ * Nothing happens on its own: requests and simulated device events are queued
+ * and run, in order and on the calling thread, by {@link #runPendingEvents()}.
+ * The device exposes the supplied services; characteristic values are kept in
+ * the characteristic handles, so a read returns whatever the test set there
+ * and a write stores the written value.
+ */
+public final class BleInMemoryTransport implements BleTransport {
+
+    public BleInMemoryTransport(List<BleServiceHandle> services) {
+        mServices = Collections.unmodifiableList(new ArrayList<BleServiceHandle>(services));
+    }
+
+
+    /** The signal strength reported by RSSI reads */
+    public void setRssi(int rssi) {
+        mRssi = rssi;
+    }
+
+
+    /**
+     * The next service discovery, read, write, descriptor write or RSSI read
+     * completes with the status
+     */
+    public void failNextRequest(int status) {
+        mNextStatus = status;
+    }
+
+
+    /**
+     * Queues a notification with the value, if the client subscribed to the
+     * characteristic by writing its configuration descriptor.
+     * 
+     * @return false if the client isn't subscribed
+     */
+    public boolean notify(final BleCharacteristicHandle characteristic, byte[] value) {
+        if (!isSubscribed(characteristic)) return false;
+        final byte[] snapshot = value.clone();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                characteristic.setValue(snapshot);
+                mCallback.onCharacteristicChanged(characteristic);
+            }
+        });
+        return true;
+    }
+
+
+    /**
+     * Queues a loss of the connection, as if the device went out of range.
+     * Events of the connection still queued behind it are lost with it.
+     */
+    public void dropConnection(final int status) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                resetConnection();
+                mCallback.onDisconnected(status);
+            }
+        });
+    }
+
+
+    public boolean isSubscribed(BleCharacteristicHandle characteristic) {
+        synchronized (mEvents) {
+            return mSubscribed.containsKey(characteristic);
+        }
+    }
+
+
+    /**
+     * Runs the queued events, including the ones queued while running, until
+     * none is left.
+     * 
+     * @return the number of events run
+     */
+    public int runPendingEvents() {
+        int count = 0;
+        while (true) {
+            Runnable event;
+            synchronized (mEvents) {
+                event = mEvents.poll();
+            }
+            if (event == null) return count;
+            event.run();
+            ++count;
+        }
+    }
+
+
+    @Override
+    public void connect(String deviceAddress, Callback callback) {
+        synchronized (mEvents) {
+            // Replaces the previous connection, events not delivered yet included
+            resetConnection();
+            mCallback = callback;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mConnected = true;
+                mCallback.onConnected();
+            }
+        });
+    }
+
+
+    @Override
+    public boolean discoverServices() {
+        if (!mConnected) return false;
+        final int status = takeStatus();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mDiscovered = status == BleTransport.GATT_SUCCESS;
+                mCallback.onServicesDiscovered(status);
+            }
+        });
+        return true;
+    }
+
+
+    @Override
+    public List<BleServiceHandle> getServices() {
+        return mDiscovered ? mServices : Collections.<BleServiceHandle>emptyList();
+    }
+
+
+    @Override
+    public boolean readCharacteristic(final BleCharacteristicHandle characteristic) {
+        if (!mConnected) return false;
+        final int status = takeStatus();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onCharacteristicRead(characteristic, status);
+            }
+        });
+        return true;
+    }
+
+
+    @Override
+    public boolean writeCharacteristic(final BleCharacteristicHandle characteristic, byte[] value) {
+        if (!mConnected) return false;
+        final byte[] snapshot = value == null ? null : value.clone();
+        final int status = takeStatus();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (status == BleTransport.GATT_SUCCESS) characteristic.setValue(snapshot);
+                mCallback.onCharacteristicWrite(characteristic, status);
+            }
+        });
+        return true;
+    }
+
+
+    @Override
+    public boolean writeDescriptor(final BleDescriptorHandle descriptor, byte[] value) {
+        if (!mConnected) return false;
+        final byte[] snapshot = value == null ? null : value.clone();
+        final int status = takeStatus();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (status == BleTransport.GATT_SUCCESS) {
+                    descriptor.setValue(snapshot);
+                    if (BleDescriptorHandle.CLIENT_CHARACTERISTIC_CONFIG.equals(descriptor.getUuid())) {
+                        boolean enabled = snapshot != null && snapshot.length > 0 && snapshot[0] != 0;
+                        synchronized (mEvents) {
+                            if (enabled) mSubscribed.put(descriptor.getCharacteristic(), Boolean.TRUE);
+                            else mSubscribed.remove(descriptor.getCharacteristic());
+                        }
+                    }
+                }
+                mCallback.onDescriptorWrite(descriptor, status);
+            }
+        });
+        return true;
+    }
+
+
+    @Override
+    public boolean setCharacteristicNotification(BleCharacteristicHandle characteristic, boolean enabled) {
+        return mConnected;
+    }
+
+
+    @Override
+    public boolean readRemoteRssi() {
+        if (!mConnected) return false;
+        final int status = takeStatus();
+        final int rssi = mRssi;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onReadRemoteRssi(rssi, status);
+            }
+        });
+        return true;
+    }
+
+
+    @Override
+    public void close() {
+        resetConnection();
+    }
+
+
+    private void post(Runnable event) {
+        synchronized (mEvents) {
+            mEvents.add(event);
+        }
+    }
+
+
+    /** Drops the events not delivered yet along with the connection */
+    private void resetConnection() {
+        synchronized (mEvents) {
+            mEvents.clear();
+            mConnected = false;
+            mDiscovered = false;
+            mSubscribed.clear();
+        }
+    }
+
+
+    private int takeStatus() {
+        int status = mNextStatus;
+        mNextStatus = BleTransport.GATT_SUCCESS;
+        return status;
+    }
+
+    private final List<BleServiceHandle> mServices;
+
+    /** Queued events; also guards the subscriptions */
+    private final ArrayDeque<Runnable> mEvents = new ArrayDeque<Runnable>();
+    private final IdentityHashMap<BleCharacteristicHandle, Boolean> mSubscribed =
+        new IdentityHashMap<BleCharacteristicHandle, Boolean>();
+    private volatile Callback mCallback;
+    private volatile boolean mConnected;
+    private volatile boolean mDiscovered;
+    private volatile int mRssi;
+    private volatile int mNextStatus = BleTransport.GATT_SUCCESS;
+}
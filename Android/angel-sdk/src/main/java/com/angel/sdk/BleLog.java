@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Logging of the SDK through {@code java.util.logging}, which Android forwards
+ * to logcat, so classes that don't depend on Android can still log. Mirrors
+ * the shape of {@code android.util.Log}.
+ */
+final class BleLog {
+
+    private BleLog() {
+    }
+
+
+    static void e(String tag, String message) {
+        Logger.getLogger(tag).log(Level.SEVERE, message);
+    }
+
+
+    static void e(String tag, String message, Throwable tr) {
+        Logger.getLogger(tag).log(Level.SEVERE, message, tr);
+    }
+
+
+    static void w(String tag, String message) {
+        Logger.getLogger(tag).log(Level.WARNING, message);
+    }
+
+
+    static void w(String tag, String message, Throwable tr) {
+        Logger.getLogger(tag).log(Level.WARNING, message, tr);
+    }
+
+
+    static void i(String tag, String message) {
+        Logger.getLogger(tag).log(Level.INFO, message);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+
+/**
+ * A free list of byte buffers used to snapshot characteristic values. Free
+ * buffers are kept on a stack, so the most recently released one, likely
+ * still in the CPU cache, is reused first.
+ * <p>
+ * {@code BluetoothGattCharacteristic} keeps a single value array that the
+ * Bluetooth stack overwrites with every incoming notification. The value is
+ * therefore copied into a pooled buffer on the Bluetooth thread, the buffer is
+ * passed to the callback thread and released back to the pool after decoding.
+ * <p>
+ * When all the buffers are in use a new one is allocated rather than dropping
+ * the value. It is retained by the pool on release if there is room for it.
+ * <p>
+ * All buffers are {@link #MAX_PAYLOAD_SIZE} bytes long, so that any value
+ * fits, and the pool allocates its full capacity up front: a pool of 32
+ * buffers, as every {@link BleDevice} has, holds 16 KB for as long as the
+ * device object lives, whatever the size of its values.
+ */
+final class BlePayloadPool {
+
+    /** Maximum length of an attribute value as defined by the ATT protocol */
+    static final int MAX_PAYLOAD_SIZE = 512;
+
+
+    /** A snapshot of a characteristic value */
+    static final class Payload {
+        final byte[] data;
+        int length;
+
+
+        private Payload(int size) {
+            data = new byte[size];
+        }
+    }
+
+
+    BlePayloadPool(int capacity) {
+        mFree = new Payload[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mFree[i] = new Payload(MAX_PAYLOAD_SIZE);
+        }
+        mFreeCount = capacity;
+    }
+
+
+    /**
+     * Copies {@code value} into a buffer taken from the pool. The buffer must
+     * be returned with {@link #release(Payload)} once it is consumed.
+     */
+    Payload acquire(byte[] value) {
+        int length = value != null ? value.length : 0;
+        Payload payload = null;
+        if (length <= MAX_PAYLOAD_SIZE) {
+            synchronized (this) {
+                if (mFreeCount > 0) {
+                    payload = mFree[--mFreeCount];
+                    mFree[mFreeCount] = null;
+                }
+            }
+        }
+        if (payload == null) {
+            payload = new Payload(Math.max(length, MAX_PAYLOAD_SIZE));
+        }
+        if (length > 0) {
+            System.arraycopy(value, 0, payload.data, 0, length);
+        }
+        payload.length = length;
+        return payload;
+    }
+
+
+    void release(Payload payload) {
+        if (payload.data.length != MAX_PAYLOAD_SIZE) {
+            return;
+        }
+        synchronized (this) {
+            if (mFreeCount < mFree.length) {
+                mFree[mFreeCount++] = payload;
+            }
+        }
+    }
+
+    private final Payload[] mFree;
+    private int mFreeCount;
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Runs the periodic reads of one device, such as RSSI or characteristics
+ * without notifications, on the device's GATT queue.
+ * <p>
+ * Each poll starts at a random phase within its interval, so polls registered
+ * at the same time, on this or other devices, don't line up. Polls falling
+ * due within {@link #MERGE_WINDOW_MILLIS} of each other are issued in one pass,
+ * highest priority first. When the link is congested, meaning the previous
+ * read of a poll is still unanswered or the GATT queue is backed up, polls
+ * are postponed with an exponentially growing interval; only the most
+ * important due poll still goes out.
+ */
+final class BlePollScheduler {
+
+    /** Polls due this close to each other are issued together */
+    static final long MERGE_WINDOW_MILLIS = 50;
+
+    /** GATT operations waiting in the queue at which the link counts as congested */
+    static final int CONGESTION_THRESHOLD = 4;
+
+    /** Upper bound on the factor a congested poll interval is stretched by */
+    static final int MAX_BACKOFF = 8;
+
+
+    /** A read issued by the scheduler */
+    interface Poll {
+        BleFuture<?> start();
+    }
+
+
+    BlePollScheduler(BleGattQueue gattQueue) {
+        mGattQueue = gattQueue;
+    }
+
+
+    /** Adds a poll or replaces the one registered under the same key */
+    synchronized void schedule(Object key, Poll poll, long intervalMillis, int priority) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("Interval must be positive");
+        Entry entry = new Entry(poll, TimeUnit.MILLISECONDS.toNanos(intervalMillis), priority);
+        entry.mDueNanos = System.nanoTime() + randomPhase(entry.mIntervalNanos);
+        mEntries.put(key, entry);
+        reschedule();
+    }
+
+
+    synchronized boolean cancel(Object key) {
+        boolean removed = mEntries.remove(key) != null;
+        reschedule();
+        return removed;
+    }
+
+
+    /** Polls run only while the device is connected and its services are known */
+    synchronized void setActive(boolean active) {
+        if (mActive == active) return;
+        mActive = active;
+        if (active) {
+            long now = System.nanoTime();
+            for (Entry entry : mEntries.values()) {
+                entry.mBackoff = 1;
+                entry.mInFlight = null;
+                entry.mDueNanos = now + randomPhase(entry.mIntervalNanos);
+            }
+        }
+        reschedule();
+    }
+
+
+    /** Arms the timer for the earliest due poll; called with the lock held */
+    private void reschedule() {
+        if (mTimer != null) {
+            mTimer.cancel(false);
+            mTimer = null;
+        }
+        if (!mActive || mEntries.isEmpty()) return;
+
+        long next = Long.MAX_VALUE;
+        for (Entry entry : mEntries.values()) {
+            next = Math.min(next, entry.mDueNanos);
+        }
+        long delay = Math.max(0, next - System.nanoTime());
+        mTimer = BleExecutors.getTimer().schedule(mTick, delay, TimeUnit.NANOSECONDS);
+    }
+
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<Entry> issued = new ArrayList<Entry>();
+            synchronized (BlePollScheduler.this) {
+                mTimer = null;
+                if (!mActive) return;
+
+                long now = System.nanoTime();
+                long horizon = now + TimeUnit.MILLISECONDS.toNanos(MERGE_WINDOW_MILLIS);
+                ArrayList<Entry> due = new ArrayList<Entry>();
+                for (Entry entry : mEntries.values()) {
+                    if (entry.mDueNanos <= horizon) due.add(entry);
+                }
+                Collections.sort(due, BY_PRIORITY);
+
+                boolean congested = mGattQueue.getPendingCount() >= CONGESTION_THRESHOLD;
+                for (Entry entry : due) {
+                    BleFuture<?> previous = entry.mInFlight;
+                    boolean unanswered = previous != null && !previous.isDone();
+                    if (unanswered || (congested && !issued.isEmpty())) {
+                        entry.mBackoff = Math.min(entry.mBackoff * 2, MAX_BACKOFF);
+                        entry.mDueNanos = now + entry.mIntervalNanos * entry.mBackoff;
+                        continue;
+                    }
+                    entry.mBackoff = 1;
+                    // Keep the phase unless the poll fell behind
+                    entry.mDueNanos += entry.mIntervalNanos;
+                    if (entry.mDueNanos <= now) entry.mDueNanos = now + entry.mIntervalNanos;
+                    issued.add(entry);
+                }
+                reschedule();
+            }
+
+            // Enqueuing may complete the future right away, so it happens
+            // outside the lock
+            for (Entry entry : issued) {
+                entry.mInFlight = entry.mPoll.start();
+            }
+        }
+    };
+
+
+    private static long randomPhase(long intervalNanos) {
+        return (long) (sRandom.nextDouble() * intervalNanos);
+    }
+
+
+    private static final class Entry {
+        Entry(Poll poll, long intervalNanos, int priority) {
+            mPoll = poll;
+            mIntervalNanos = intervalNanos;
+            mPriority = priority;
+        }
+
+        final Poll mPoll;
+        final long mIntervalNanos;
+        final int mPriority;
+        long mDueNanos;
+        int mBackoff = 1;
+        volatile BleFuture<?> mInFlight;
+    }
+
+    private static final Comparator<Entry> BY_PRIORITY = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return lhs.mPriority > rhs.mPriority ? -1 : (lhs.mPriority == rhs.mPriority ? 0 : 1);
+        }
+    };
+
+    private final BleGattQueue mGattQueue;
+    private final HashMap<Object, Entry> mEntries = new HashMap<Object, Entry>();
+    private boolean mActive;
+    private ScheduledFuture<?> mTimer;
+    private static final Random sRandom = new Random();
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+
+/**
+ * Remembers the GATT layout of each device address across application
+ * restarts: services with the class that wrapped them, characteristics with
+ * their properties and descriptors.
+ * <p>
+ * The cached layout is turned back into detached attribute handles, which
+ * is enough to build the service and characteristic wrappers before service
+ * discovery completes. Such handles can't be used for actual GATT
+ * operations; the wrappers are rebound to the discovered handles as soon as
+ * discovery completes.
+ * <p>
+ * The layout is stored in a line based text format:
+ * <pre>
+ * 1
+ * S service-uuid service-class-name
+ * C characteristic-uuid properties
+ * D descriptor-uuid
+ * </pre>
+ */
+final class BleProfileCache {
+
+    private static final String FORMAT_VERSION = "1";
+
+
+    BleProfileCache(BleProfileStore store) {
+        mStore = store;
+    }
+
+
+    /**
+     * Returns the cached services of the device whose wrapper class is still
+     * the one registered for their UUID, or an empty list.
+     * 
+     * @param registeredClasses service class names by UUID
+     */
+    List<BleServiceHandle> load(String address, Map<UUID, String> registeredClasses) {
+        String encoded = mStore.load(address);
+        if (encoded == null) return new ArrayList<BleServiceHandle>();
+        try {
+            return decode(encoded, registeredClasses);
+        } catch (RuntimeException e) {
+            BleLog.w(TAG, "Discarding unreadable profile of " + address, e);
+            mStore.remove(address);
+            return new ArrayList<BleServiceHandle>();
+        }
+    }
+
+
+    /** Stores the discovered layout; services without a wrapper class are skipped */
+    void store(String address, List<BleServiceHandle> services, Map<UUID, String> registeredClasses) {
+        String encoded = encode(services, registeredClasses);
+        if (!encoded.equals(mStore.load(address))) {
+            mStore.store(address, encoded);
+        }
+    }
+
+
+    static String encode(List<BleServiceHandle> services, Map<UUID, String> registeredClasses) {
+        StringBuilder out = new StringBuilder(FORMAT_VERSION).append('\n');
+        for (BleServiceHandle service : services) {
+            String className = registeredClasses.get(service.getUuid());
+            if (className == null) continue;
+            out.append("S ").append(service.getUuid()).append(' ').append(className).append('\n');
+            for (BleCharacteristicHandle characteristic : service.getCharacteristics()) {
+                out.append("C ").append(characteristic.getUuid()).append(' ')
+                   .append(characteristic.getProperties()).append('\n');
+                for (BleDescriptorHandle descriptor : characteristic.getDescriptors()) {
+                    out.append("D ").append(descriptor.getUuid()).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+
+    static List<BleServiceHandle> decode(String encoded, Map<UUID, String> registeredClasses) {
+        ArrayList<BleServiceHandle> services = new ArrayList<BleServiceHandle>();
+        String[] lines = encoded.split("\n");
+        if (lines.length == 0 || !FORMAT_VERSION.equals(lines[0])) return services;
+
+        BleServiceHandle service = null;
+        BleCharacteristicHandle characteristic = null;
+        for (int i = 1; i < lines.length; ++i) {
+            String[] fields = lines[i].split(" ");
+            if (fields[0].equals("S")) {
+                UUID uuid = UUID.fromString(fields[1]);
+                // Skip services that are no longer registered or are now
+                // wrapped by a different class
+                service = fields[2].equals(registeredClasses.get(uuid))
+                          ? new BleServiceHandle(uuid)
+                          : null;
+                if (service != null) services.add(service);
+                characteristic = null;
+            } else if (fields[0].equals("C")) {
+                if (service == null) continue;
+                characteristic = service.addCharacteristic(UUID.fromString(fields[1]),
+                                                           Integer.parseInt(fields[2]));
+            } else if (fields[0].equals("D")) {
+                if (characteristic == null) continue;
+                characteristic.addDescriptor(UUID.fromString(fields[1]));
+            } else {
+                throw new IllegalArgumentException("Unknown record " + fields[0]);
+            }
+        }
+        return services;
+    }
+
+    private final BleProfileStore mStore;
+
+    private static final String TAG = BleProfileCache.class.getName();
+}
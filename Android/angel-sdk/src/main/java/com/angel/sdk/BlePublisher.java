@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+
+/**
+ * A demand-driven stream of values. The interfaces mirror the Reactive
+ * Streams specification ({@code org.reactivestreams}) one to one, so they can
+ * be adapted to any compliant library with a trivial wrapper; the SDK doesn't
+ * depend on one itself and {@code java.util.concurrent.Flow} is not available
+ * on Android.
+ * <p>
+ * A subscriber receives no more values than it requested. Values arriving
+ * while there is no outstanding demand are buffered per subscription and
+ * dropped according to a {@link BleCharacteristic.OverflowPolicy} once the
+ * buffer is full.
+ */
+public interface BlePublisher<T> {
+
+    /**
+     * Attaches a subscriber. {@link Subscriber#onSubscribe(Subscription)} is
+     * called before any other signal.
+     */
+    public void subscribe(Subscriber<? super T> subscriber);
+
+
+    public interface Subscriber<T> {
+        public void onSubscribe(Subscription subscription);
+
+        public void onNext(T value);
+
+        public void onError(Throwable error);
+
+        public void onComplete();
+    }
+
+
+    public interface Subscription {
+
+        /** Adds {@code n} to the demand; {@code Long.MAX_VALUE} means unbounded */
+        public void request(long n);
+
+        /** Stops the delivery and releases the buffered values */
+        public void cancel();
+    }
+}
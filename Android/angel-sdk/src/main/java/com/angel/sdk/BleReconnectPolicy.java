@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.Random;
+
+
+/**
+ * When and how often a {@link BleDevice} tries to reconnect after it lost the
+ * connection without {@link BleDevice#disconnect()} being called.
+ * <p>
+ * The delay grows exponentially from {@code initialDelayMillis} by
+ * {@code multiplier} per attempt up to {@code maxDelayMillis}. A random part
+ * of up to {@code jitter} times the delay is subtracted, so that many
+ * sensors dropping out together don't all retry at the same moment.
+ */
+public class BleReconnectPolicy {
+
+    /** 0.5 s doubling up to 30 s, half of it random, retrying forever */
+    public static final BleReconnectPolicy DEFAULT = new BleReconnectPolicy(500, 30000, 2.0, 0.5, 0);
+
+
+    /**
+     * @param jitter fraction of the delay that is randomized, from 0 to 1
+     * @param maxAttempts attempts before giving up; 0 retries forever
+     */
+    public BleReconnectPolicy(long initialDelayMillis,
+                              long maxDelayMillis,
+                              double multiplier,
+                              double jitter,
+                              int maxAttempts) {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Invalid delay range");
+        }
+        if (multiplier < 1) throw new IllegalArgumentException("multiplier < 1");
+        if (jitter < 0 || jitter > 1) throw new IllegalArgumentException("jitter outside of [0, 1]");
+        if (maxAttempts < 0) throw new IllegalArgumentException("maxAttempts < 0");
+        mInitialDelay = initialDelayMillis;
+        mMaxDelay = maxDelayMillis;
+        mMultiplier = multiplier;
+        mJitter = jitter;
+        mMaxAttempts = maxAttempts;
+    }
+
+
+    /** Returns false once {@code attempt}, counted from 0, exceeds the limit */
+    public boolean shouldRetry(int attempt) {
+        return mMaxAttempts == 0 || attempt < mMaxAttempts;
+    }
+
+
+    /** Milliseconds to wait before the given attempt, counted from 0 */
+    public long getDelay(int attempt, Random random) {
+        double delay = mInitialDelay * Math.pow(mMultiplier, attempt);
+        if (delay > mMaxDelay) delay = mMaxDelay;
+        return (long) (delay * (1 - mJitter * random.nextDouble()));
+    }
+
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    private final long mInitialDelay;
+    private final long mMaxDelay;
+    private final double mMultiplier;
+    private final double mJitter;
+    private final int mMaxAttempts;
+}
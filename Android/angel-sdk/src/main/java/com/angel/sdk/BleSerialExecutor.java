@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Runs tasks one at a time, in submission order, on top of another executor
+ * that may be multi-threaded. At most one drain task per serial executor is
+ * queued on the backing executor, and it yields after a bounded number of
+ * tasks so a busy device can't monopolize a shared pool.
+ */
+final class BleSerialExecutor implements Executor {
+
+    /** Tasks run per drain before the drain yields the backing thread */
+    private static final int MAX_TASKS_PER_DRAIN = 64;
+
+
+    BleSerialExecutor(Executor backing) {
+        mBacking = backing;
+    }
+
+
+    /** Tasks submitted after {@link #shutdown()} are silently discarded */
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) throw new NullPointerException("task is null");
+        synchronized (this) {
+            if (mShutdown) return;
+            mTasks.add(task);
+            if (mDrainScheduled) return;
+            mDrainScheduled = true;
+        }
+        mBacking.execute(mDrain);
+    }
+
+
+    /**
+     * Stops accepting tasks and discards the queued ones. A task already
+     * running completes normally.
+     */
+    void shutdown() {
+        synchronized (this) {
+            mShutdown = true;
+            mTasks.clear();
+        }
+    }
+
+
+    synchronized boolean isShutdown() {
+        return mShutdown;
+    }
+
+
+    /**
+     * Exceptions thrown by a task propagate to the backing thread, as they
+     * would from a Handler; the remaining tasks are still run by a new drain.
+     */
+    private void drain() {
+        boolean more = true;
+        try {
+            for (int i = 0; i < MAX_TASKS_PER_DRAIN; ++i) {
+                Runnable task;
+                synchronized (this) {
+                    task = mTasks.poll();
+                    if (task == null) {
+                        mDrainScheduled = false;
+                        more = false;
+                        return;
+                    }
+                }
+                task.run();
+            }
+        } finally {
+            // Work left, or a task threw; let other users of the backing
+            // executor run first
+            if (more) mBacking.execute(mDrain);
+        }
+    }
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Executor mBacking;
+    private final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+    private boolean mDrainScheduled;
+    private boolean mShutdown;
+}
@@ -30,12 +30,8 @@
  */
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
-import android.util.Log;
-
-import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.UUID;
 
@@ -45,7 +41,7 @@ import java.util.UUID;
  */
 public abstract class BleService {
 
-    public BleService(UUID uuid, BluetoothGattService gattService, BleDevice bleDevice) {
+    public BleService(UUID uuid, BleServiceHandle gattService, BleDevice bleDevice) {
         if (!uuid.equals(gattService.getUuid())) {
             throw new AssertionError();
         }
@@ -73,16 +69,111 @@ public abstract class BleService {
     }
 
 
+    /**
+     * Creates instances of a concrete service class without reflection.
+     * Factories are generated for classes annotated with
+     * {@link BleGattService}.
+     */
+    public interface Factory<T extends BleService> {
+        public UUID getUuid();
+
+        public T create(BleServiceHandle gattService, BleDevice bleDevice);
+    }
+
+
+    /**
+     * Returns the characteristic object, creating it on first access.
+     * 
+     * @return null if the characteristic wasn't declared by the concrete
+     *         service class or the device doesn't have it
+     */
     public BleCharacteristic<?> getCharacteristic(UUID uuid) {
-        return mBleCharacteristics.get(uuid);
+        BleCharacteristic<?> characteristic = mBleCharacteristics.get(uuid);
+        if (characteristic != null) return characteristic;
+        return createCharacteristic(uuid);
     }
 
 
-    public BluetoothGattService getBaseGattService() {
+    /**
+     * Same as {@link #getCharacteristic(UUID)}, by the concrete
+     * characteristic class.
+     */
+    public <T extends BleCharacteristic<?>> T getCharacteristic(Class<T> characteristicClass) {
+        UUID uuid = mCharacteristicUuids.get(characteristicClass);
+        if (uuid == null) return null;
+        @SuppressWarnings("unchecked")
+        T characteristic = (T) getCharacteristic(uuid);
+        return characteristic;
+    }
+
+
+    public BleServiceHandle getBaseGattService() {
         return mBaseGattService;
     }
 
 
+    /**
+     * Points the service and its characteristics at the handles found by a
+     * new service discovery, so that the wrappers, their listeners and
+     * settings survive a reconnect.
+     */
+    void rebind(BleServiceHandle gattService) {
+        if (!mUuid.equals(gattService.getUuid())) {
+            throw new AssertionError();
+        }
+        mBaseGattService = gattService;
+        // Characteristics not created yet are bound when they are created
+        for (BleCharacteristic<?> characteristic : mBleCharacteristics.values()) {
+            BleCharacteristicHandle baseCh = gattService.getCharacteristic(characteristic.getUuid());
+            if (baseCh == null) {
+                BleLog.e("ang", "Characteristic " + characteristic.getUuid() + " disappeared from service " + mUuid);
+                continue;
+            }
+            characteristic.rebind(baseCh);
+        }
+    }
+
+
+    /**
+     * The characteristics created so far. Characteristics that are declared
+     * but were never accessed have no listeners, so there is nothing to
+     * route or restore for them.
+     */
+    Collection<BleCharacteristic<?>> getCharacteristics() {
+        return mBleCharacteristics.values();
+    }
+
+
+    /** Returns the characteristic object only if it was created already */
+    BleCharacteristic<?> findCharacteristic(UUID uuid) {
+        return mBleCharacteristics.get(uuid);
+    }
+
+
+    /**
+     * Declares a concrete characteristic class that encapsulates one of the
+     * characteristics supported by the service. The characteristic object is
+     * created on first access through {@link #getCharacteristic(Class)}, so
+     * service discovery doesn't pay for characteristics the application never
+     * uses. Must be called from the constructor of the concrete service class.
+     * 
+     * @return false if the device doesn't have the characteristic
+     */
+    protected <T extends BleCharacteristic<?>> boolean declareCharacteristic(Class<T> characteristicClass) {
+        BleCharacteristic.Factory<T> factory;
+        try {
+            factory = BleFactoryRegistry.obtainCharacteristicFactory(characteristicClass);
+        } catch (InstantiationException e) {
+            throw new AssertionError();
+        } catch (IllegalAccessException e) {
+            throw new AssertionError();
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError();
+        }
+        return declareCharacteristic(characteristicClass, factory);
+    }
+
+
     /**
      * Register a concrete characteristic class that encapsulates one of the
      * characteristics supported by the service.
@@ -101,7 +192,7 @@ public abstract class BleService {
      * @throws NoSuchMethodException
      *             a concrete characteristic must define two constructors: one
      *             without arguments and another with two arguments of types
-     *             {@code BluetoothGattCharacteristic} and {@code BleDevice}
+     *             {@code BleCharacteristicHandle} and {@code BleDevice}
      * @throws InvocationTargetException
      *             one of the constructors on the concrete characteristic threw
      *             an exception
@@ -112,35 +203,104 @@ public abstract class BleService {
                 NoSuchMethodException,
                 InvocationTargetException {
 
-        // Create a non-operational dummy instance only to access the UUID
-        T dummyCh = characteristicClass.newInstance();
-        UUID uuid = dummyCh.getUuid();
+        return registerCharacteristic(characteristicClass,
+                                          BleFactoryRegistry.obtainCharacteristicFactory(characteristicClass));
+    }
+
+
+    /**
+     * Same as {@link #createAndRegisterCharacteristic(Class)} for classes with
+     * a generated factory, which never fail to instantiate. Other classes are
+     * created through reflection and a failure is considered a programming
+     * error.
+     */
+    protected <T extends BleCharacteristic<?>> T registerCharacteristic(Class<T> characteristicClass) {
+        try {
+            return registerCharacteristic(characteristicClass,
+                                          BleFactoryRegistry.obtainCharacteristicFactory(characteristicClass));
+        } catch (InstantiationException e) {
+            throw new AssertionError();
+        } catch (IllegalAccessException e) {
+            throw new AssertionError();
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError();
+        }
+    }
+
+
+    /** Declares the characteristic and creates its object right away */
+    private <T extends BleCharacteristic<?>> T registerCharacteristic(Class<T> characteristicClass,
+                                                                      BleCharacteristic.Factory<T> factory) {
+        if (!declareCharacteristic(characteristicClass, factory)) return null;
+        @SuppressWarnings("unchecked")
+        T characteristic = (T) getCharacteristic(factory.getUuid());
+        return characteristic;
+    }
+
+
+    private <T extends BleCharacteristic<?>> boolean declareCharacteristic(Class<T> characteristicClass,
+                                                                           BleCharacteristic.Factory<T> factory) {
+        UUID uuid = factory.getUuid();
 
         // Check whether the service indeed supports the characteristic
-        BluetoothGattCharacteristic baseCh = mBaseGattService.getCharacteristic(uuid);
-        if (baseCh == null) {
-            Log.e("ang", "No characteristic " + uuid + " in service " + mBaseGattService.getUuid());
-            return null;
+        if (mBaseGattService.getCharacteristic(uuid) == null) {
+            BleLog.e("ang", "No characteristic " + uuid + " in service " + mBaseGattService.getUuid());
+            return false;
         }
 
-        // Was the characteristic registered earlier?
-        if (mBleCharacteristics.containsKey(uuid)) {
-            throw new RuntimeException("Trying to register characteristic (UUID:"
-                                       + uuid.toString() + ") twice inside a service (UUID:"
-                                       + mBaseGattService.getUuid() + ")");
+        synchronized (mCharacteristicFactories) {
+            // Was the characteristic registered earlier?
+            if (mCharacteristicFactories.containsKey(uuid)) {
+                throw new RuntimeException("Trying to register characteristic (UUID:"
+                                           + uuid.toString() + ") twice inside a service (UUID:"
+                                           + mBaseGattService.getUuid() + ")");
+            }
+            mCharacteristicFactories.put(uuid, factory);
+            mCharacteristicUuids.put(characteristicClass, uuid);
         }
+        return true;
+    }
 
-        Constructor<T> ctor = characteristicClass.getConstructor(BluetoothGattCharacteristic.class,
-                                                                 BleDevice.class);
-        T characteristic = ctor.newInstance(baseCh, mBleDevice);
 
-        mBleCharacteristics.put(uuid, characteristic);
+    /** Returns null if the characteristic wasn't declared or disappeared from the device */
+    private BleCharacteristic<?> createCharacteristic(UUID uuid) {
+        BleCharacteristic<?> characteristic;
+        synchronized (mCharacteristicFactories) {
+            // Created by another thread meanwhile?
+            characteristic = mBleCharacteristics.get(uuid);
+            if (characteristic != null) return characteristic;
 
+            BleCharacteristic.Factory<?> factory = mCharacteristicFactories.get(uuid);
+            if (factory == null) return null;
+            BleCharacteristicHandle baseCh = mBaseGattService.getCharacteristic(uuid);
+            if (baseCh == null) return null;
+            characteristic = factory.create(baseCh, mBleDevice);
+
+            HashMap<UUID, BleCharacteristic<?>> characteristics =
+                new HashMap<UUID, BleCharacteristic<?>>(mBleCharacteristics);
+            characteristics.put(uuid, characteristic);
+            mBleCharacteristics = characteristics;
+        }
+
+        // Let the device route values to the new object
+        if (mBleDevice != null) mBleDevice.addCharacteristicRoute(characteristic);
         return characteristic;
     }
 
     private final UUID mUuid;
-    private final HashMap<UUID, BleCharacteristic<?>> mBleCharacteristics = new HashMap<UUID, BleCharacteristic<?>>();
-    private final BluetoothGattService mBaseGattService;
+
+    /** Factories of the declared characteristics; guarded by itself */
+    private final HashMap<UUID, BleCharacteristic.Factory<?>> mCharacteristicFactories =
+        new HashMap<UUID, BleCharacteristic.Factory<?>>();
+
+    /** Written only while the concrete service is constructed */
+    private final HashMap<Class<?>, UUID> mCharacteristicUuids = new HashMap<Class<?>, UUID>();
+
+    /**
+     * The characteristic objects created so far. Replaced rather than
+     * modified, so it is read without locking.
+     */
+    private volatile HashMap<UUID, BleCharacteristic<?>> mBleCharacteristics = new HashMap<UUID, BleCharacteristic<?>>();
+    private volatile BleServiceHandle mBaseGattService;
     private final BleDevice mBleDevice;
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * A GATT service of a remote device as reported by a {@link BleTransport}.
+ * Handles are the SDK's own view of the attribute layout, so the service
+ * model doesn't depend on the classes of a particular Bluetooth stack.
+ * <p>
+ * The layout is built by the transport, or by a test, before the services are
+ * reported and is not modified afterwards.
+ */
+public final class BleServiceHandle {
+
+    public BleServiceHandle(UUID uuid) {
+        mUuid = uuid;
+    }
+
+
+    public UUID getUuid() {
+        return mUuid;
+    }
+
+
+    /** Adds a characteristic to the layout and returns its handle */
+    public BleCharacteristicHandle addCharacteristic(UUID uuid, int properties) {
+        BleCharacteristicHandle characteristic = new BleCharacteristicHandle(this, uuid, properties);
+        mCharacteristics.add(characteristic);
+        return characteristic;
+    }
+
+
+    /** Returns null if the service has no such characteristic */
+    public BleCharacteristicHandle getCharacteristic(UUID uuid) {
+        for (BleCharacteristicHandle characteristic : mCharacteristics) {
+            if (characteristic.getUuid().equals(uuid)) return characteristic;
+        }
+        return null;
+    }
+
+
+    public List<BleCharacteristicHandle> getCharacteristics() {
+        return Collections.unmodifiableList(mCharacteristics);
+    }
+
+
+    @Override
+    public String toString() {
+        return "Service " + mUuid;
+    }
+
+    private final UUID mUuid;
+    private final ArrayList<BleCharacteristicHandle> mCharacteristics = new ArrayList<BleCharacteristicHandle>();
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.List;
+
+
+/**
+ * Connection to one remote device. {@link BleDevice} talks to the device only
+ * through this interface and sees the device through attribute handles
+ * ({@link BleServiceHandle}, {@link BleCharacteristicHandle},
+ * {@link BleDescriptorHandle}), so the service model, decoding and dispatch
+ * don't depend on Android and run on any JVM. {@link BleAndroidTransport}
+ * is the transport over the Android Bluetooth stack;
+ * {@link BleInMemoryTransport} simulates a device in tests and benchmarks.
+ * <p>
+ * The contract follows {@code BluetoothGatt}: requests return false if they
+ * could not be started, and their outcome is reported later through the
+ * {@link Callback}. At most one read, write or RSSI request is in flight at a
+ * time; {@link BleDevice} takes care of that. While a characteristic callback
+ * runs, the characteristic handle holds the value read or received.
+ */
+public interface BleTransport {
+
+    /** GATT status codes reported to the {@link Callback}, as defined by the GATT specification */
+    public static final int GATT_SUCCESS = 0;
+    public static final int GATT_READ_NOT_PERMITTED = 0x02;
+    public static final int GATT_WRITE_NOT_PERMITTED = 0x03;
+    public static final int GATT_REQUEST_NOT_SUPPORTED = 0x06;
+    public static final int GATT_FAILURE = 0x101;
+
+
+    /** Creates the transports of the devices of a {@link BleDeviceManager} */
+    public interface Factory {
+        public BleTransport createTransport();
+    }
+
+
+    /** Events of the connection; may be called on any thread */
+    public interface Callback {
+        public void onConnected();
+
+        /** Also called if a connection attempt fails */
+        public void onDisconnected(int status);
+
+        /** Services are available from {@link BleTransport#getServices()} on success */
+        public void onServicesDiscovered(int status);
+
+        public void onCharacteristicRead(BleCharacteristicHandle characteristic, int status);
+
+        public void onCharacteristicWrite(BleCharacteristicHandle characteristic, int status);
+
+        /** A notification or an indication */
+        public void onCharacteristicChanged(BleCharacteristicHandle characteristic);
+
+        public void onDescriptorWrite(BleDescriptorHandle descriptor, int status);
+
+        public void onReadRemoteRssi(int rssi, int status);
+    }
+
+
+    /**
+     * Starts connecting to the device, replacing the previous connection if
+     * any. Events of the connection go to the callback until {@link #close()}.
+     */
+    public void connect(String deviceAddress, Callback callback);
+
+
+    public boolean discoverServices();
+
+
+    /** The services found by the last successful discovery */
+    public List<BleServiceHandle> getServices();
+
+
+    public boolean readCharacteristic(BleCharacteristicHandle characteristic);
+
+
+    public boolean writeCharacteristic(BleCharacteristicHandle characteristic, byte[] value);
+
+
+    public boolean writeDescriptor(BleDescriptorHandle descriptor, byte[] value);
+
+
+    /**
+     * Local registration for notifications of the characteristic; the remote
+     * device is subscribed by writing its configuration descriptor.
+     */
+    public boolean setCharacteristicNotification(BleCharacteristicHandle characteristic, boolean enabled);
+
+
+    public boolean readRemoteRssi();
+
+
+    /**
+     * Ends the connection, or the connection attempt, without reporting it to
+     * the callback, and releases the resources held for it.
+     * {@link #connect(String, Callback)} may be called again.
+     */
+    public void close();
+}
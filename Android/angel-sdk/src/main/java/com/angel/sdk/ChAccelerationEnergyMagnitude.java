@@ -31,17 +31,16 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import com.angel.sdk.ChAccelerationEnergyMagnitude.AccelerationEnergyMagnitudeValue;
 
 import java.util.UUID;
 
 
+@BleGattCharacteristic
 public class ChAccelerationEnergyMagnitude extends BleCharacteristic<AccelerationEnergyMagnitudeValue> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("9e3bd0d7-bdd8-41fd-af1f-5e99679183ff");
 
-    public ChAccelerationEnergyMagnitude(BluetoothGattCharacteristic gattCharacteristic,
+    public ChAccelerationEnergyMagnitude(BleCharacteristicHandle gattCharacteristic,
                                          BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
@@ -52,9 +51,15 @@ public class ChAccelerationEnergyMagnitude extends BleCharacteristic<Acceleratio
 
     @Override
     protected AccelerationEnergyMagnitudeValue processCharacteristicValue() {
-        AccelerationEnergyMagnitudeValue value = new AccelerationEnergyMagnitudeValue();
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
-        value.value = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, 0);
+        byte[] data = getBaseGattCharacteristic().getValue();
+        return decodeValue(data, data.length, null);
+    }
+
+    @Override
+    protected AccelerationEnergyMagnitudeValue decodeValue(byte[] data, int length,
+                                                           AccelerationEnergyMagnitudeValue reuse) {
+        AccelerationEnergyMagnitudeValue value = reuse != null ? reuse : new AccelerationEnergyMagnitudeValue();
+        value.value = uint32(data, 0);
         return value;
     }
 
@@ -31,18 +31,17 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import com.angel.sdk.ChAccelerationWaveform.AccelerationWaveformValue;
 
 import java.util.ArrayList;
 import java.util.UUID;
 
+@BleGattCharacteristic
 public class ChAccelerationWaveform extends BleCharacteristic<AccelerationWaveformValue> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("4e92f4ab-c01b-4b5a-b328-699856a7c2ee");
 
 
-    public ChAccelerationWaveform(BluetoothGattCharacteristic gattCharacteristic,
+    public ChAccelerationWaveform(BleCharacteristicHandle gattCharacteristic,
                              BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
@@ -51,23 +50,80 @@ public class ChAccelerationWaveform extends BleCharacteristic<AccelerationWavefo
     public ChAccelerationWaveform() {
         super(CHARACTERISTIC_UUID);
     }
+
+
+    /**
+     * Enables or disables the primitive decode mode. The mode is off by
+     * default.
+     * <p>
+     * In the primitive mode every notification is decoded into the same
+     * {@link AccelerationWaveformValue} instance: only {@code samples} and
+     * {@code sampleCount} are filled and {@code wave} stays empty. The value
+     * is valid only until the callback returns.
+     */
+    public void setPrimitiveMode(boolean enabled) {
+        mPrimitiveMode = enabled;
+    }
+
+
+    public boolean isPrimitiveMode() {
+        return mPrimitiveMode;
+    }
     
     
     @Override
     protected AccelerationWaveformValue processCharacteristicValue() {
-        AccelerationWaveformValue result = new AccelerationWaveformValue();
-        
-        BluetoothGattCharacteristic ch = getBaseGattCharacteristic();
+        BleCharacteristicHandle ch = getBaseGattCharacteristic();
         byte[] buffer = ch.getValue();
+        return decodeValue(buffer, buffer.length, null);
+    }
+
+
+    /** In the primitive mode listeners receive the same instance every time */
+    @Override
+    protected AccelerationWaveformValue obtainRecycledValue() {
+        if (!mPrimitiveMode) return null;
+        if (mRecycledValue == null) {
+            mRecycledValue = new AccelerationWaveformValue();
+        }
+        return mRecycledValue;
+    }
+
+
+    @Override
+    protected boolean recyclesValues() {
+        return mPrimitiveMode;
+    }
+
+
+    /**
+     * Decodes into the primitive column. The boxed {@code wave} list is filled
+     * only when a new value is allocated, i.e. when {@code reuse} is null.
+     */
+    @Override
+    protected AccelerationWaveformValue decodeValue(byte[] buffer, int length, AccelerationWaveformValue reuse) {
+        AccelerationWaveformValue result = reuse != null ? reuse : new AccelerationWaveformValue();
         
         final int SAMPLE_SIZE = 3;
-        for (int i=SAMPLE_SIZE-1; i<buffer.length; i+=SAMPLE_SIZE) {
+        int count = length / SAMPLE_SIZE;
+        result.ensureCapacity(count);
+
+        for (int n = 0, i = SAMPLE_SIZE - 1; n < count; n++, i += SAMPLE_SIZE) {
             
             int wave = unsignedByte(buffer[i-2]) + 
                        unsignedByte(buffer[i-1])*256 +
                        unsignedByte(buffer[i])*256*256;
             
-            result.wave.add(wave);
+            result.samples[n] = ChOpticalWaveform.TwosComplement(wave);
+        }
+        result.sampleCount = count;
+
+        if (reuse != null) {
+            result.wave.clear();
+        } else {
+            for (int n = 0; n < count; n++) {
+                result.wave.add(result.samples[n]);
+            }
         }
         
         return result;
@@ -76,10 +132,30 @@ public class ChAccelerationWaveform extends BleCharacteristic<AccelerationWavefo
     
     public class AccelerationWaveformValue {
         public ArrayList<Integer> wave = new ArrayList<Integer>();
+
+        /**
+         * Signed 24-bit samples. Only the first {@code sampleCount} entries
+         * are valid.
+         */
+        public int[] samples = new int[0];
+
+        public int sampleCount;
+
+
+        private void ensureCapacity(int count) {
+            if (samples.length < count) {
+                samples = new int[count];
+            }
+        }
     }
 
     
     private static int unsignedByte(byte x) {
         return x & 0xFF;
     }
+
+    private volatile boolean mPrimitiveMode = false;
+
+    /** The value reused between notifications in the primitive mode */
+    private AccelerationWaveformValue mRecycledValue;
 }
@@ -31,22 +31,20 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import com.angel.sdk.ChAlarmClockActiveAlarms.ActiveAlarms;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.UUID;
 
 
+@BleGattCharacteristic
 public class ChAlarmClockActiveAlarms extends BleCharacteristic<ActiveAlarms> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("5265e9d9-595e-4076-bcad-e9827e00b146");
 
 
-    public ChAlarmClockActiveAlarms(BluetoothGattCharacteristic gattCharacteristic,
+    public ChAlarmClockActiveAlarms(BleCharacteristicHandle gattCharacteristic,
                                       BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
@@ -59,31 +57,77 @@ public class ChAlarmClockActiveAlarms extends BleCharacteristic<ActiveAlarms> {
 
     @Override
     protected ActiveAlarms processCharacteristicValue() {
-        ActiveAlarms activeAlarms = new ActiveAlarms();
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
-        int alarmsCount = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, 0);
+        byte[] data = getBaseGattCharacteristic().getValue();
+        return decodeValue(data, data.length, null);
+    }
+
+
+    @Override
+    protected ActiveAlarms decodeValue(byte[] data, int length, ActiveAlarms reuse) {
+        ActiveAlarms activeAlarms = reuse != null ? reuse : new ActiveAlarms();
+        int alarmsCount = uint8(data, 0);
+        if (activeAlarms.mPackedAlarms.length < alarmsCount) {
+            activeAlarms.mPackedAlarms = new long[alarmsCount];
+        }
 
         int nextOffset = 1;
 
         for (int i = 0; i < alarmsCount; i++) {
-            byte[] dateArray = Arrays.copyOfRange(c.getValue(), nextOffset,
-                                                  nextOffset + BleDayDateTime.DATE_SERIALIZED_SIZE);
+            activeAlarms.mPackedAlarms[i] = BleDayDateTime.DeserializePacked(data, nextOffset,
+                                                                             BleDayDateTime.DATE_SERIALIZED_SIZE);
             nextOffset += BleDayDateTime.DATE_SERIALIZED_SIZE;
-            GregorianCalendar cal = BleDayDateTime.Deserialize(dateArray);
-            activeAlarms.mActiveAlarms.add(cal);
         }
+        activeAlarms.mAlarmCount = alarmsCount;
+        activeAlarms.mCalendarsStale = true;
 
         return activeAlarms;
     }
 
 
     public class ActiveAlarms {
+        long[] mPackedAlarms = new long[0];
+        int mAlarmCount;
+
+        /** Created on demand from mPackedAlarms */
         List<GregorianCalendar> mActiveAlarms = new ArrayList<GregorianCalendar>();
+        boolean mCalendarsStale;
 
 
         public List<GregorianCalendar> getActiveAlarms() {
+            if (mCalendarsStale) {
+                for (int i = 0; i < mAlarmCount; i++) {
+                    if (i < mActiveAlarms.size()) {
+                        BleDayDateTime.PackedToCalendar(mPackedAlarms[i], mActiveAlarms.get(i));
+                    } else {
+                        mActiveAlarms.add(BleDayDateTime.PackedToCalendar(mPackedAlarms[i], null));
+                    }
+                }
+                while (mActiveAlarms.size() > mAlarmCount) {
+                    mActiveAlarms.remove(mActiveAlarms.size() - 1);
+                }
+                mCalendarsStale = false;
+            }
             return mActiveAlarms;
         }
 
+
+        public int getActiveAlarmCount() {
+            return mAlarmCount;
+        }
+
+
+        /** Returns an alarm as a packed field value, see {@link BleDayDateTime} */
+        public long getActiveAlarmPacked(int index) {
+            if (index < 0 || index >= mAlarmCount) {
+                throw new IndexOutOfBoundsException("Alarm " + index + " of " + mAlarmCount);
+            }
+            return mPackedAlarms[index];
+        }
+
+
+        public long getActiveAlarmMillis(int index) {
+            return BleDayDateTime.PackedToEpochMillis(getActiveAlarmPacked(index));
+        }
+
     }
 }
@@ -30,8 +30,6 @@
  */
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import java.util.GregorianCalendar;
 import java.util.UUID;
 
@@ -43,7 +41,7 @@ public class ChAlarmClockControlPoint extends BleCharacteristic<Integer> {
     private final static UUID CHARACTERISTIC_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
 
 
-    public ChAlarmClockControlPoint(BluetoothGattCharacteristic vanillaCharacteristic,
+    public ChAlarmClockControlPoint(BleCharacteristicHandle vanillaCharacteristic,
                                     BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, vanillaCharacteristic, bleDevice);
     }
@@ -73,4 +71,10 @@ public class ChAlarmClockControlPoint extends BleCharacteristic<Integer> {
     protected Integer processCharacteristicValue() {
         return null;
     }
+
+
+    @Override
+    protected Integer decodeValue(byte[] data, int length, Integer reuse) {
+        return null;
+    }
 }
@@ -31,16 +31,15 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import java.util.UUID;
 
 
+@BleGattCharacteristic
 public class ChAlarmClockCurrentDateAndTime extends ChDayDateTime {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("7e658eab-70be-4040-9f4e-59b4098ad231");
 
 
-    public ChAlarmClockCurrentDateAndTime(BluetoothGattCharacteristic gattharacteristic,
+    public ChAlarmClockCurrentDateAndTime(BleCharacteristicHandle gattharacteristic,
                                           BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattharacteristic, bleDevice);
     }
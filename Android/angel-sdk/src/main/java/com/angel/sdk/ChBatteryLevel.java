@@ -31,18 +31,17 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import com.angel.sdk.ChBatteryLevel.BatteryLevelValue;
 
 import java.util.UUID;
 
 
 /** org.bluetooth.characteristic.battery_level */
+@BleGattCharacteristic
 public class ChBatteryLevel extends BleCharacteristic<BatteryLevelValue> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
 
-    public ChBatteryLevel(BluetoothGattCharacteristic gattCharacteristic,
+    public ChBatteryLevel(BleCharacteristicHandle gattCharacteristic,
                           BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
@@ -53,9 +52,14 @@ public class ChBatteryLevel extends BleCharacteristic<BatteryLevelValue> {
 
     @Override
     protected BatteryLevelValue processCharacteristicValue() {
-        BatteryLevelValue batteryLevelValue = new BatteryLevelValue();
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
-        batteryLevelValue.value = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, 0);
+        byte[] data = getBaseGattCharacteristic().getValue();
+        return decodeValue(data, data.length, null);
+    }
+
+    @Override
+    protected BatteryLevelValue decodeValue(byte[] data, int length, BatteryLevelValue reuse) {
+        BatteryLevelValue batteryLevelValue = reuse != null ? reuse : new BatteryLevelValue();
+        batteryLevelValue.value = uint8(data, 0);
         return batteryLevelValue;
     }
 
@@ -31,12 +31,11 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import java.util.UUID;
 
 
 /** org.bluetooth.characteristic.body_sensor_location */
+@BleGattCharacteristic
 public class ChBodySensorLocation extends BleCharacteristic<Integer> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb");
 
@@ -49,7 +48,7 @@ public class ChBodySensorLocation extends BleCharacteristic<Integer> {
     public final static int FOOT = 6;
 
 
-    public ChBodySensorLocation(BluetoothGattCharacteristic gattCharacteristic, BleDevice bleDevice) {
+    public ChBodySensorLocation(BleCharacteristicHandle gattCharacteristic, BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
 
@@ -61,8 +60,14 @@ public class ChBodySensorLocation extends BleCharacteristic<Integer> {
 
     @Override
     protected Integer processCharacteristicValue() {
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
-        return c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, 0);
+        byte[] data = getBaseGattCharacteristic().getValue();
+        return decodeValue(data, data.length, null);
+    }
+
+
+    @Override
+    protected Integer decodeValue(byte[] data, int length, Integer reuse) {
+        return uint8(data, 0);
     }
 
 }
@@ -31,18 +31,17 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import java.util.GregorianCalendar;
 import java.util.UUID;
 
 
 /** org.bluetooth.characteristic.date_time */
+@BleGattCharacteristic
 public class ChDateTime extends BleCharacteristic<GregorianCalendar> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("00002a08-0000-1000-8000-00805f9b34fb");
 
 
-    public ChDateTime(BluetoothGattCharacteristic gattCharacteristic, BleDevice bleDevice) {
+    public ChDateTime(BleCharacteristicHandle gattCharacteristic, BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
 
@@ -54,10 +53,44 @@ public class ChDateTime extends BleCharacteristic<GregorianCalendar> {
 
     @Override
     protected GregorianCalendar processCharacteristicValue() {
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
+        BleCharacteristicHandle c = getBaseGattCharacteristic();
 
         return BleDayDateTime.Deserialize(c.getValue());
 
     }
 
+
+    @Override
+    protected GregorianCalendar decodeValue(byte[] data, int length, GregorianCalendar reuse) {
+        long packed = BleDayDateTime.DeserializePacked(data, 0, BleDayDateTime.DATE_SERIALIZED_SIZE);
+        return BleDayDateTime.PackedToCalendar(packed, reuse);
+    }
+
+
+    @Override
+    protected void onValueDispatched(GregorianCalendar value) {
+        mPackedValue = BleDayDateTime.CalendarToPacked(value, BleDayDateTime.DATE_SERIALIZED_SIZE);
+    }
+
+
+    /**
+     * Returns the value most recently delivered to the listeners as a packed
+     * field value, see {@link BleDayDateTime}. Values returned by
+     * {@link #read(long)} don't change it. Call it from the value callback.
+     */
+    public long getPackedValue() {
+        return mPackedValue;
+    }
+
+
+    /**
+     * Returns the value most recently delivered to the listeners in epoch
+     * milliseconds. Call it from the value callback.
+     */
+    public long getEpochMillis() {
+        return BleDayDateTime.PackedToEpochMillis(mPackedValue);
+    }
+
+    private volatile long mPackedValue;
+
 }
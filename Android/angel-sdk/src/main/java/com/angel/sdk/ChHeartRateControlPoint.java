@@ -30,17 +30,16 @@
  */
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import java.util.UUID;
 
 
 /** org.bluetooth.characteristic.heart_rate_control_point */
+@BleGattCharacteristic
 public class ChHeartRateControlPoint extends BleCharacteristic<Integer> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("00002a39-0000-1000-8000-00805f9b34fb");
 
 
-    public ChHeartRateControlPoint(BluetoothGattCharacteristic gattCharacteristic,
+    public ChHeartRateControlPoint(BleCharacteristicHandle gattCharacteristic,
                                    BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
@@ -51,10 +50,9 @@ public class ChHeartRateControlPoint extends BleCharacteristic<Integer> {
     }
 
 
-    public void resetEnergyExpended() {
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
-        c.setValue(RESET_ENERGY_EXPENDED_VALUE);
-        getBleDevice().writeCharacteristic(c);
+    /** @return completes once the device confirms the write */
+    public BleFuture<Void> resetEnergyExpended() {
+        return write(RESET_ENERGY_EXPENDED_VALUE);
     }
 
 
@@ -64,5 +62,11 @@ public class ChHeartRateControlPoint extends BleCharacteristic<Integer> {
         return null;
     }
 
+
+    @Override
+    protected Integer decodeValue(byte[] data, int length, Integer reuse) {
+        return null;
+    }
+
     private final static byte[] RESET_ENERGY_EXPENDED_VALUE = { 1 };
 }
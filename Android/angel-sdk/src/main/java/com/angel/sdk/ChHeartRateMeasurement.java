@@ -31,18 +31,17 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import com.angel.sdk.ChHeartRateMeasurement.HeartRateMeasurementValue;
 
 import java.util.UUID;
 
 
 /** org.bluetooth.characteristic.heart_rate_measurement */
+@BleGattCharacteristic
 public class ChHeartRateMeasurement extends BleCharacteristic<HeartRateMeasurementValue> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
 
-    public ChHeartRateMeasurement(BluetoothGattCharacteristic gattCharacteristic,
+    public ChHeartRateMeasurement(BleCharacteristicHandle gattCharacteristic,
                                   BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
@@ -51,45 +50,118 @@ public class ChHeartRateMeasurement extends BleCharacteristic<HeartRateMeasureme
         super(CHARACTERISTIC_UUID);
     }
 
+
+    /**
+     * Enables or disables the primitive decode mode. The mode is off by
+     * default.
+     * <p>
+     * In the primitive mode every notification is decoded into the same
+     * {@link HeartRateMeasurementValue} instance, which is valid only until the
+     * callback returns. Use {@link HeartRateMeasurementValue#getRRIntervalCount()}
+     * and {@link HeartRateMeasurementValue#getRRInterval(int)} or
+     * {@link #getRRIntervalHistory()} to access RR-intervals without
+     * allocations.
+     */
+    public void setPrimitiveMode(boolean enabled) {
+        mPrimitiveMode = enabled;
+    }
+
+
+    public boolean isPrimitiveMode() {
+        return mPrimitiveMode;
+    }
+
+
+    /**
+     * Returns the RR-intervals received so far, oldest first. Every
+     * measurement delivered to the listeners appends its RR-intervals to the
+     * history; values returned by {@link #read()} don't. The history must be
+     * accessed from the callback thread.
+     */
+    public RRIntervalRing getRRIntervalHistory() {
+        return mRRIntervalHistory;
+    }
+
     @Override
     protected HeartRateMeasurementValue processCharacteristicValue() {
-        HeartRateMeasurementValue heartRateMeasurementValue = new HeartRateMeasurementValue();
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
-        int flags = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, 0);
+        byte[] data = getBaseGattCharacteristic().getValue();
+        return decodeValue(data, data.length, null);
+    }
+
+
+    /** In the primitive mode listeners receive the same instance every time */
+    @Override
+    protected HeartRateMeasurementValue obtainRecycledValue() {
+        if (!mPrimitiveMode) return null;
+        if (mRecycledValue == null) {
+            mRecycledValue = new HeartRateMeasurementValue();
+        }
+        return mRecycledValue;
+    }
+
+
+    @Override
+    protected boolean recyclesValues() {
+        return mPrimitiveMode;
+    }
+
+
+    @Override
+    protected HeartRateMeasurementValue decodeValue(byte[] data, int length,
+                                                    HeartRateMeasurementValue reuse) {
+        HeartRateMeasurementValue heartRateMeasurementValue = reuse != null ? reuse : new HeartRateMeasurementValue();
+        int flags = uint8(data, 0);
         int nextOffset = 1;
-        int format = -1;
         if ((flags & 0x01) != 0) {
-            format = BluetoothGattCharacteristic.FORMAT_UINT16;
+            heartRateMeasurementValue.mHeartRateMeasurement = uint16(data, nextOffset);
             nextOffset += 2;
         } else {
-            format = BluetoothGattCharacteristic.FORMAT_UINT8;
+            heartRateMeasurementValue.mHeartRateMeasurement = uint8(data, nextOffset);
             nextOffset += 1;
         }
-        heartRateMeasurementValue.mHeartRateMeasurement = c.getIntValue(format, 1);
-        if ((flags & 0x08) != 0) {
 
-            heartRateMeasurementValue.mEnergyExpended = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16,
-                                                                      nextOffset);
+        heartRateMeasurementValue.mEnergyExpended = 0;
+        if ((flags & 0x08) != 0) {
+            heartRateMeasurementValue.mEnergyExpended = uint16(data, nextOffset);
             nextOffset += 2;
         }
 
-        if ((flags & 0x10) != 0) {
-
-            int rrCount = (c.getValue().length - nextOffset) / 2;
-            heartRateMeasurementValue.mRRIntervals = new int[rrCount];
+        heartRateMeasurementValue.mHasRRIntervals = (flags & 0x10) != 0;
+        heartRateMeasurementValue.mRRIntervals = null;
+        heartRateMeasurementValue.mRRCount = 0;
+        if (heartRateMeasurementValue.mHasRRIntervals) {
+            int rrCount = (length - nextOffset) / 2;
+            if (heartRateMeasurementValue.mRRBuffer.length < rrCount) {
+                heartRateMeasurementValue.mRRBuffer = new int[rrCount];
+            }
             for (int i = 0; i < rrCount; i++) {
-                heartRateMeasurementValue.mRRIntervals[i] = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16,
-                                                                          nextOffset);
+                int rr = uint16(data, nextOffset);
+                heartRateMeasurementValue.mRRBuffer[i] = rr;
                 nextOffset += 2;
             }
+            heartRateMeasurementValue.mRRCount = rrCount;
         }
         return heartRateMeasurementValue;
     }
 
 
+    /** Only values delivered to listeners make it into the history, each once */
+    @Override
+    protected void onValueDispatched(HeartRateMeasurementValue value) {
+        for (int i = 0; i < value.mRRCount; i++) {
+            mRRIntervalHistory.append(value.mRRBuffer[i]);
+        }
+    }
+
+
     public class HeartRateMeasurementValue {
         int mHeartRateMeasurement;
         int mEnergyExpended;
+        boolean mHasRRIntervals;
+        int[] mRRBuffer = new int[0];
+        int mRRCount;
+
+        /** Created on demand by {@link #getRRIntervals()} */
         int[] mRRIntervals;
 
 
@@ -103,8 +175,132 @@ public class ChHeartRateMeasurement extends BleCharacteristic<HeartRateMeasureme
         }
 
 
+        /**
+         * Returns a copy of the RR-intervals of this measurement or null if the
+         * measurement has none. Prefer {@link #getRRIntervalCount()} and
+         * {@link #getRRInterval(int)}, which do not allocate.
+         */
         public int[] getRRIntervals() {
+            if (!mHasRRIntervals) {
+                return null;
+            }
+            if (mRRIntervals == null) {
+                mRRIntervals = new int[mRRCount];
+                System.arraycopy(mRRBuffer, 0, mRRIntervals, 0, mRRCount);
+            }
             return mRRIntervals;
         }
+
+
+        public int getRRIntervalCount() {
+            return mRRCount;
+        }
+
+
+        /** RR-interval in units of 1/1024 second */
+        public int getRRInterval(int index) {
+            if (index < 0 || index >= mRRCount) {
+                throw new IndexOutOfBoundsException("RR-interval " + index + " of " + mRRCount);
+            }
+            return mRRBuffer[index];
+        }
+    }
+
+
+    /**
+     * A growable ring of RR-intervals for HRV analysis. It grows up to its
+     * maximum capacity and then overwrites the oldest intervals. Intervals are
+     * read in place with {@link #get(int)}, so consumers never copy the history.
+     */
+    public static class RRIntervalRing {
+
+        public RRIntervalRing(int initialCapacity, int maxCapacity) {
+            if (initialCapacity <= 0 || maxCapacity < initialCapacity) {
+                throw new IllegalArgumentException("Invalid RR-interval ring capacity");
+            }
+            mBuffer = new int[initialCapacity];
+            mMaxCapacity = maxCapacity;
+        }
+
+
+        /** Number of intervals currently held */
+        public int size() {
+            return mSize;
+        }
+
+
+        /** Returns an interval in units of 1/1024 second, 0 being the oldest */
+        public int get(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("RR-interval " + index + " of " + mSize);
+            }
+            int position = mHead + index;
+            if (position >= mBuffer.length) {
+                position -= mBuffer.length;
+            }
+            return mBuffer[position];
+        }
+
+
+        /**
+         * Number of intervals appended since creation, including the ones
+         * already overwritten. Lets a consumer find out how many intervals
+         * arrived since it last looked.
+         */
+        public long getTotalCount() {
+            return mTotalCount;
+        }
+
+
+        public void clear() {
+            mHead = 0;
+            mSize = 0;
+        }
+
+
+        void append(int rrInterval) {
+            if (mSize == mBuffer.length && mBuffer.length < mMaxCapacity) {
+                grow();
+            }
+            int tail = mHead + mSize;
+            if (tail >= mBuffer.length) {
+                tail -= mBuffer.length;
+            }
+            mBuffer[tail] = rrInterval;
+            if (mSize < mBuffer.length) {
+                mSize++;
+            } else {
+                mHead = mHead + 1 == mBuffer.length ? 0 : mHead + 1;
+            }
+            mTotalCount++;
+        }
+
+
+        private void grow() {
+            int[] buffer = new int[Math.min(mBuffer.length * 2, mMaxCapacity)];
+            int firstPart = Math.min(mSize, mBuffer.length - mHead);
+            System.arraycopy(mBuffer, mHead, buffer, 0, firstPart);
+            System.arraycopy(mBuffer, 0, buffer, firstPart, mSize - firstPart);
+            mBuffer = buffer;
+            mHead = 0;
+        }
+
+        private int[] mBuffer;
+        private int mHead;
+        private int mSize;
+        private long mTotalCount;
+        private final int mMaxCapacity;
     }
+
+    /** Enough for about an hour of beats at rest */
+    private static final int RR_HISTORY_MAX_CAPACITY = 4096;
+    private static final int RR_HISTORY_INITIAL_CAPACITY = 64;
+
+    private final RRIntervalRing mRRIntervalHistory = new RRIntervalRing(RR_HISTORY_INITIAL_CAPACITY,
+                                                                          RR_HISTORY_MAX_CAPACITY);
+
+    private volatile boolean mPrimitiveMode = false;
+
+    /** The value reused between notifications in the primitive mode */
+    private HeartRateMeasurementValue mRecycledValue;
 }
@@ -31,17 +31,16 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import java.util.UUID;
 
 
 /** org.bluetooth.characteristic.intermediate_temperature */
+@BleGattCharacteristic
 public class ChIntermediateTemperature extends ChTemperatureMeasurement {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("00002a1e-0000-1000-8000-00805f9b34fb");
 
 
-    public ChIntermediateTemperature(BluetoothGattCharacteristic gattharacteristic,
+    public ChIntermediateTemperature(BleCharacteristicHandle gattharacteristic,
                                      BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattharacteristic, bleDevice);
     }
@@ -31,17 +31,16 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import java.util.UUID;
 
 
 /** org.bluetooth.characteristic.measurement_interval */
+@BleGattCharacteristic
 public class ChMeasurementInterval extends BleCharacteristic<Integer> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("00002a21-0000-1000-8000-00805f9b34fb");
 
 
-    public ChMeasurementInterval(BluetoothGattCharacteristic gattCharacteristic, BleDevice bleDevice) {
+    public ChMeasurementInterval(BleCharacteristicHandle gattCharacteristic, BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
 
@@ -53,8 +52,14 @@ public class ChMeasurementInterval extends BleCharacteristic<Integer> {
 
     @Override
     protected Integer processCharacteristicValue() {
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
-        return c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, 0);
+        byte[] data = getBaseGattCharacteristic().getValue();
+        return decodeValue(data, data.length, null);
+    }
+
+
+    @Override
+    protected Integer decodeValue(byte[] data, int length, Integer reuse) {
+        return uint16(data, 0);
     }
 
 }
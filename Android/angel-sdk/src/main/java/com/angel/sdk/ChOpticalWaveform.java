@@ -31,19 +31,18 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import com.angel.sdk.ChOpticalWaveform.OpticalWaveformValue;
 
 import java.util.ArrayList;
 import java.util.UUID;
 
 
+@BleGattCharacteristic
 public class ChOpticalWaveform extends BleCharacteristic<OpticalWaveformValue> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("334c0be8-76f9-458b-bb2e-7df2b486b4d7");
 
 
-    public ChOpticalWaveform(BluetoothGattCharacteristic gattharacteristic,
+    public ChOpticalWaveform(BleCharacteristicHandle gattharacteristic,
                              BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattharacteristic, bleDevice);
     }
@@ -52,50 +51,126 @@ public class ChOpticalWaveform extends BleCharacteristic<OpticalWaveformValue> {
     public ChOpticalWaveform() {
         super(CHARACTERISTIC_UUID);
     }
-    
-    
+
+
+    /**
+     * Enables or disables the primitive decode mode. The mode is off by
+     * default.
+     * <p>
+     * In the primitive mode every notification is decoded into the same
+     * {@link OpticalWaveformValue} instance: only the {@code green} and
+     * {@code blue} columns and {@code sampleCount} are filled and {@code wave}
+     * stays empty. The value is valid only until the callback returns, so the
+     * callback must copy whatever it wants to keep.
+     */
+    public void setPrimitiveMode(boolean enabled) {
+        mPrimitiveMode = enabled;
+    }
+
+
+    public boolean isPrimitiveMode() {
+        return mPrimitiveMode;
+    }
+
+
     @Override
     protected OpticalWaveformValue processCharacteristicValue() {
-        OpticalWaveformValue result = new OpticalWaveformValue();
-        
-        BluetoothGattCharacteristic ch = getBaseGattCharacteristic();
+        BleCharacteristicHandle ch = getBaseGattCharacteristic();
         byte[] buffer = ch.getValue();
-        
+        return decodeValue(buffer, buffer.length, null);
+    }
+
+
+    /** In the primitive mode listeners receive the same instance every time */
+    @Override
+    protected OpticalWaveformValue obtainRecycledValue() {
+        if (!mPrimitiveMode) return null;
+        if (mRecycledValue == null) {
+            mRecycledValue = new OpticalWaveformValue();
+        }
+        return mRecycledValue;
+    }
+
+
+    @Override
+    protected boolean recyclesValues() {
+        return mPrimitiveMode;
+    }
+
+
+    /**
+     * Decodes into the primitive columns. The {@code wave} list is filled only
+     * when a new value is allocated, i.e. when {@code reuse} is null.
+     */
+    @Override
+    protected OpticalWaveformValue decodeValue(byte[] buffer, int length, OpticalWaveformValue reuse) {
+        OpticalWaveformValue result = reuse != null ? reuse : new OpticalWaveformValue();
+
         final int TWO_SAMPLES_SIZE = 6;
-        for (int i=TWO_SAMPLES_SIZE-1; i<buffer.length; i+=TWO_SAMPLES_SIZE) {
-            
+        int count = length / TWO_SAMPLES_SIZE;
+        result.ensureCapacity(count);
+
+        for (int n = 0, i = TWO_SAMPLES_SIZE - 1; n < count; n++, i += TWO_SAMPLES_SIZE) {
+
             int green = unsignedByte(buffer[i-5]) + 
                         unsignedByte(buffer[i-4])*256 + 
                         unsignedByte(buffer[i-3])*256*256;
-            
+
             int blue  = unsignedByte(buffer[i-2]) + 
                         unsignedByte(buffer[i-1])*256 + 
                         unsignedByte(buffer[i])*256*256;
-        
-            OpticalSample sample = new OpticalSample();
-            sample.green = TwosComplement(green);
-            sample.blue = TwosComplement(blue);
-            result.wave.add(sample);
+
+            result.green[n] = TwosComplement(green);
+            result.blue[n] = TwosComplement(blue);
         }
-        
+        result.sampleCount = count;
+
+        if (reuse != null) {
+            result.wave.clear();
+        } else {
+            // Object-per-sample compatibility view on top of the columns
+            for (int n = 0; n < count; n++) {
+                OpticalSample sample = new OpticalSample();
+                sample.green = result.green[n];
+                sample.blue = result.blue[n];
+                result.wave.add(sample);
+            }
+        }
+
         return result;
     }
-    
-    
+
+
     public class OpticalSample {
         public int green;
         public int blue;
     }
-    
+
     public class OpticalWaveformValue {
         public ArrayList<OpticalSample> wave = new ArrayList<OpticalSample>();
+
+        /** Green samples. Only the first {@code sampleCount} entries are valid. */
+        public int[] green = new int[0];
+
+        /** Blue samples. Only the first {@code sampleCount} entries are valid. */
+        public int[] blue = new int[0];
+
+        public int sampleCount;
+
+
+        private void ensureCapacity(int count) {
+            if (green.length < count) {
+                green = new int[count];
+                blue = new int[count];
+            }
+        }
     }
 
     private static int unsignedByte(byte x) {
         return x & 0xFF;
     }
 
-    int TwosComplement(int raw) {
+    static int TwosComplement(int raw) {
         final int BITS = 24;
         final int NEGATIVE_BITMASK = 1 << (BITS - 1);
         final int FULL_RANGE = 1 << BITS;
@@ -107,4 +182,9 @@ public class ChOpticalWaveform extends BleCharacteristic<OpticalWaveformValue> {
         
         return value;
     }
+
+    private volatile boolean mPrimitiveMode = false;
+
+    /** The value reused between notifications in the primitive mode */
+    private OpticalWaveformValue mRecycledValue;
 }
@@ -31,17 +31,16 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import com.angel.sdk.ChStepCount.StepCountValue;
 
 import java.util.UUID;
 
 
+@BleGattCharacteristic
 public class ChStepCount extends BleCharacteristic<StepCountValue> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("7a543305-6b9e-4878-ad67-29c5a9d99736");
 
-    public ChStepCount(BluetoothGattCharacteristic gattCharacteristic,
+    public ChStepCount(BleCharacteristicHandle gattCharacteristic,
                        BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
@@ -52,9 +51,14 @@ public class ChStepCount extends BleCharacteristic<StepCountValue> {
 
     @Override
     protected StepCountValue processCharacteristicValue() {
-        StepCountValue stepCountValue = new StepCountValue();
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
-        stepCountValue.value = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, 0);
+        byte[] data = getBaseGattCharacteristic().getValue();
+        return decodeValue(data, data.length, null);
+    }
+
+    @Override
+    protected StepCountValue decodeValue(byte[] data, int length, StepCountValue reuse) {
+        StepCountValue stepCountValue = reuse != null ? reuse : new StepCountValue();
+        stepCountValue.value = uint32(data, 0);
         return stepCountValue;
     }
 
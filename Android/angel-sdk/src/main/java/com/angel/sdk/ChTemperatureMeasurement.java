@@ -31,15 +31,13 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import com.angel.sdk.ChTemperatureMeasurement.TemperatureMeasurementValue;
 
-import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.UUID;
 
 
+@BleGattCharacteristic
 public class ChTemperatureMeasurement extends BleCharacteristic<TemperatureMeasurementValue> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("00002a1c-0000-1000-8000-00805f9b34fb");
 
@@ -47,7 +45,7 @@ public class ChTemperatureMeasurement extends BleCharacteristic<TemperatureMeasu
     public final static int FAHRENHEIT = 1;
 
 
-    public ChTemperatureMeasurement(BluetoothGattCharacteristic gattharacteristic,
+    public ChTemperatureMeasurement(BleCharacteristicHandle gattharacteristic,
                                     BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattharacteristic, bleDevice);
     }
@@ -59,7 +57,7 @@ public class ChTemperatureMeasurement extends BleCharacteristic<TemperatureMeasu
 
 
     protected ChTemperatureMeasurement(UUID uuid,
-                                       BluetoothGattCharacteristic gattharacteristic,
+                                       BleCharacteristicHandle gattharacteristic,
                                        BleDevice bleDevice) {
         super(uuid, gattharacteristic, bleDevice);
     }
@@ -72,27 +70,34 @@ public class ChTemperatureMeasurement extends BleCharacteristic<TemperatureMeasu
 
     @Override
     protected TemperatureMeasurementValue processCharacteristicValue() {
-        TemperatureMeasurementValue tv = new TemperatureMeasurementValue();
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
+        byte[] data = getBaseGattCharacteristic().getValue();
+        return decodeValue(data, data.length, null);
+    }
+
+
+    @Override
+    protected TemperatureMeasurementValue decodeValue(byte[] data, int length,
+                                                      TemperatureMeasurementValue reuse) {
+        TemperatureMeasurementValue tv = reuse != null ? reuse : new TemperatureMeasurementValue();
         int nextOffset = 0;
-        int flags = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, nextOffset);
+        int flags = uint8(data, nextOffset);
         nextOffset += 1;
 
         tv.mTemperatureUnits = flags & 0x1;
-        tv.mTemperatureMeasurement = c.getFloatValue(BluetoothGattCharacteristic.FORMAT_FLOAT,
-                                                     nextOffset);
+        tv.mTemperatureMeasurement = float32(data, nextOffset);
         nextOffset += 4;
 
-        if ((flags & 0x2) != 0) {
-            byte[] dateArray = Arrays.copyOfRange(c.getValue(), nextOffset,
-                                                  nextOffset + BleDayDateTime.DATE_SERIALIZED_SIZE);
-            tv.mTimeStamp = BleDayDateTime.Deserialize(dateArray);
+        tv.mHasTimeStamp = (flags & 0x2) != 0;
+        tv.mTimeStampCalendarStale = true;
+        if (tv.mHasTimeStamp) {
+            tv.mTimeStampPacked = BleDayDateTime.DeserializePacked(data, nextOffset,
+                                                                   BleDayDateTime.DATE_SERIALIZED_SIZE);
             nextOffset += BleDayDateTime.DATE_SERIALIZED_SIZE;
         }
 
+        tv.mTemperatureType = 0;
         if ((flags & 0x4) != 0) {
-            tv.mTemperatureType = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8,
-                                                nextOffset);
+            tv.mTemperatureType = uint8(data, nextOffset);
         }
         return tv;
     }
@@ -100,10 +105,15 @@ public class ChTemperatureMeasurement extends BleCharacteristic<TemperatureMeasu
 
     public class TemperatureMeasurementValue {
         int mTemperatureUnits;
-        Float mTemperatureMeasurement;
-        GregorianCalendar mTimeStamp;
+        float mTemperatureMeasurement;
+        boolean mHasTimeStamp;
+        long mTimeStampPacked;
         int mTemperatureType;
 
+        /** Created on demand from mTimeStampPacked */
+        GregorianCalendar mTimeStamp;
+        boolean mTimeStampCalendarStale;
+
 
         public int getTemperatureUnits() {
             return mTemperatureUnits;
@@ -115,11 +125,42 @@ public class ChTemperatureMeasurement extends BleCharacteristic<TemperatureMeasu
         }
 
 
+        /** Returns null if the measurement has no time stamp */
         public GregorianCalendar getTimeStamp() {
+            if (!mHasTimeStamp) {
+                return null;
+            }
+            if (mTimeStampCalendarStale) {
+                mTimeStamp = BleDayDateTime.PackedToCalendar(mTimeStampPacked, mTimeStamp);
+                mTimeStampCalendarStale = false;
+            }
             return mTimeStamp;
         }
 
 
+        public boolean hasTimeStamp() {
+            return mHasTimeStamp;
+        }
+
+
+        /**
+         * Time stamp as a packed field value, see {@link BleDayDateTime}. Only
+         * valid if {@link #hasTimeStamp()} returns true.
+         */
+        public long getTimeStampPacked() {
+            return mTimeStampPacked;
+        }
+
+
+        /**
+         * Time stamp in epoch milliseconds. Only valid if
+         * {@link #hasTimeStamp()} returns true.
+         */
+        public long getTimeStampMillis() {
+            return BleDayDateTime.PackedToEpochMillis(mTimeStampPacked);
+        }
+
+
         public int getTemperatureType() {
             return mTemperatureType;
         }
@@ -31,12 +31,11 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import java.util.UUID;
 
 
 /** org.bluetooth.characteristic.temperature_type */
+@BleGattCharacteristic
 public class ChTemperatureType extends BleCharacteristic<Integer> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("00002a1d-0000-1000-8000-00805f9b34fb");
 
@@ -51,7 +50,7 @@ public class ChTemperatureType extends BleCharacteristic<Integer> {
     public static final int TEMPERATURE_TYPE_TYMPANUM = 9;
 
 
-    public ChTemperatureType(BluetoothGattCharacteristic gattCharacteristic, BleDevice bleDevice) {
+    public ChTemperatureType(BleCharacteristicHandle gattCharacteristic, BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
 
@@ -63,8 +62,14 @@ public class ChTemperatureType extends BleCharacteristic<Integer> {
 
     @Override
     protected Integer processCharacteristicValue() {
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
-        return c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, 0);
+        byte[] data = getBaseGattCharacteristic().getValue();
+        return decodeValue(data, data.length, null);
+    }
+
+
+    @Override
+    protected Integer decodeValue(byte[] data, int length, Integer reuse) {
+        return uint8(data, 0);
     }
 
 }
@@ -31,16 +31,15 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 import java.util.UUID;
 
 
+@BleGattCharacteristic
 public class ChTerminalControlPoint extends BleCharacteristic<String> {
     public final static UUID CHARACTERISTIC_UUID = UUID.fromString("99a10dd8-d78f-4a57-8e95-ae584c34177e");
 
 
-    public ChTerminalControlPoint(BluetoothGattCharacteristic gattCharacteristic,
+    public ChTerminalControlPoint(BleCharacteristicHandle gattCharacteristic,
                              BleDevice bleDevice) {
         super(CHARACTERISTIC_UUID, gattCharacteristic, bleDevice);
     }
@@ -51,18 +50,23 @@ public class ChTerminalControlPoint extends BleCharacteristic<String> {
     }
 
     
-    public void writeCommand(String command) {
-        BluetoothGattCharacteristic c = getBaseGattCharacteristic();
-        c.setValue(command);
-        getBleDevice().writeCharacteristic(c);
+    /** @return completes once the device confirms the write */
+    public BleFuture<Void> writeCommand(String command) {
+        return write(command.getBytes());
     }
 
     
     @Override
     protected String processCharacteristicValue() {
-        BluetoothGattCharacteristic ch = getBaseGattCharacteristic();
+        BleCharacteristicHandle ch = getBaseGattCharacteristic();
         byte[] bytes = ch.getValue();
         
         return new String(bytes);
     }
+
+
+    @Override
+    protected String decodeValue(byte[] data, int length, String reuse) {
+        return new String(data, 0, length);
+    }
 }
@@ -30,39 +30,23 @@
  */
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattService;
-
-import java.lang.reflect.InvocationTargetException;
 import java.util.UUID;
 
 
 /** GATT Battery Service */
+@BleGattService
 public class SrvActivityMonitoring extends BleService {
     public final static UUID SERVICE_UUID = UUID.fromString("68b52738-4a04-40e1-8f83-337a29c3284d");
 
 
-    public SrvActivityMonitoring(BluetoothGattService gattService, BleDevice bleDevice) {
+    public SrvActivityMonitoring(BleServiceHandle gattService, BleDevice bleDevice) {
         super(SERVICE_UUID, gattService, bleDevice);
 
-        try {
-
-            // Register the concrete characteristic classes. Failing one of the
-            // assertions bellow would indicate incorrect definition of one of
-            // the characteristics.
-            mChStepCount = createAndRegisterCharacteristic(ChStepCount.class);
-            mChAccelerationEnergyMagnitude = createAndRegisterCharacteristic(ChAccelerationEnergyMagnitude.class);
-
-        } catch (InstantiationException e) {
-            throw new AssertionError();
-        } catch (IllegalAccessException e) {
-            throw new AssertionError();
-        } catch (NoSuchMethodException e) {
-            throw new AssertionError();
-        } catch (IllegalArgumentException e) {
-            throw new AssertionError();
-        } catch (InvocationTargetException e) {
-            throw new AssertionError();
-        }
+        // Declare the concrete characteristic classes. Failing one of the
+        // assertions bellow would indicate incorrect definition of one of
+        // the characteristics.
+        declareCharacteristic(ChStepCount.class);
+        declareCharacteristic(ChAccelerationEnergyMagnitude.class);
     }
 
     public SrvActivityMonitoring() {
@@ -70,13 +54,11 @@ public class SrvActivityMonitoring extends BleService {
     }
 
     public ChStepCount getStepCount() {
-        return mChStepCount;
+        return getCharacteristic(ChStepCount.class);
     }
 
     public ChAccelerationEnergyMagnitude getChAccelerationEnergyMagnitude() {
-        return mChAccelerationEnergyMagnitude;
+        return getCharacteristic(ChAccelerationEnergyMagnitude.class);
     }
 
-    private ChStepCount mChStepCount;
-    private ChAccelerationEnergyMagnitude mChAccelerationEnergyMagnitude;
 }
\ No newline at end of file
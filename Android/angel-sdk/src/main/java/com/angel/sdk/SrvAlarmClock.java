@@ -30,8 +30,6 @@
  */
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattService;
-
 import com.angel.sdk.BleCharacteristic.ValueReadyCallback;
 
 import java.util.ArrayList;
@@ -43,11 +41,12 @@ import java.util.UUID;
  * 
  * 
  */
+@BleGattService
 class SrvAlarmClock extends BleService {
     public final static UUID SERVICE_UUID = UUID.fromString("7cd50edd-8bab-44ff-a8e8-82e19393af10");
 
 
-    public SrvAlarmClock(BluetoothGattService vanillaGattService, BleDevice bleDevice) {
+    public SrvAlarmClock(BleServiceHandle vanillaGattService, BleDevice bleDevice) {
         super(SERVICE_UUID, vanillaGattService, bleDevice);
     }
 
@@ -30,38 +30,22 @@
  */
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattService;
-
-import java.lang.reflect.InvocationTargetException;
 import java.util.UUID;
 
 
 /** GATT Battery Service */
+@BleGattService
 public class SrvBattery extends BleService {
     public final static UUID SERVICE_UUID = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
 
 
-    public SrvBattery(BluetoothGattService gattService, BleDevice bleDevice) {
+    public SrvBattery(BleServiceHandle gattService, BleDevice bleDevice) {
         super(SERVICE_UUID, gattService, bleDevice);
 
-        try {
-
-            // Register all the concrete classes for all the characteristics
-            // of Battery Level Service. Failing one of the assertions bellow
-            // would indicate incorrect definition of one of the characteristics
-            mChBatteryLevel = createAndRegisterCharacteristic(ChBatteryLevel.class);
-
-        } catch (InstantiationException e) {
-            throw new AssertionError();
-        } catch (IllegalAccessException e) {
-            throw new AssertionError();
-        } catch (NoSuchMethodException e) {
-            throw new AssertionError();
-        } catch (IllegalArgumentException e) {
-            throw new AssertionError();
-        } catch (InvocationTargetException e) {
-            throw new AssertionError();
-        }
+        // Declare all the concrete classes for all the characteristics
+        // of Battery Level Service. Failing one of the assertions bellow
+        // would indicate incorrect definition of one of the characteristics
+        declareCharacteristic(ChBatteryLevel.class);
     }
 
     public SrvBattery() {
@@ -70,8 +54,7 @@ public class SrvBattery extends BleService {
 
     /** Get access to Battery Level characteristic */
     public ChBatteryLevel getBatteryLevel() {
-        return mChBatteryLevel;
+        return getCharacteristic(ChBatteryLevel.class);
     }
 
-    private ChBatteryLevel mChBatteryLevel;
 }
\ No newline at end of file
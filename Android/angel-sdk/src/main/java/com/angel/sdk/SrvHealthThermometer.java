@@ -31,33 +31,21 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattService;
-
-import java.lang.reflect.InvocationTargetException;
 import java.util.UUID;
 
 
 /** GATT Health Thermometer Service */
+@BleGattService
 public class SrvHealthThermometer extends BleService {
     public final static UUID SERVICE_UUID = UUID.fromString("00001809-0000-1000-8000-00805f9b34fb");
 
 
-    public SrvHealthThermometer(BluetoothGattService gattService, BleDevice bleDevice) {
+    public SrvHealthThermometer(BleServiceHandle gattService, BleDevice bleDevice) {
         super(SERVICE_UUID, gattService, bleDevice);
-        try {
-            mTemperatureMeasurement = createAndRegisterCharacteristic(ChTemperatureMeasurement.class);
-            mChTemperatureType = createAndRegisterCharacteristic(ChTemperatureType.class);
-            mChMeasurementInterval = createAndRegisterCharacteristic(ChMeasurementInterval.class);
-            mIntermediateTemperature = createAndRegisterCharacteristic(ChIntermediateTemperature.class);
-        } catch (InstantiationException e) {
-            throw new AssertionError();
-        } catch (IllegalAccessException e) {
-            throw new AssertionError();
-        } catch (NoSuchMethodException e) {
-            throw new AssertionError();
-        } catch (InvocationTargetException e) {
-            throw new AssertionError();
-        }
+        declareCharacteristic(ChTemperatureMeasurement.class);
+        declareCharacteristic(ChTemperatureType.class);
+        declareCharacteristic(ChMeasurementInterval.class);
+        declareCharacteristic(ChIntermediateTemperature.class);
 
     }
 
@@ -69,29 +57,25 @@ public class SrvHealthThermometer extends BleService {
 
     /** Get access to Temperature Measurement characteristic */
     public ChTemperatureMeasurement getTemperatureMeasurement() {
-        return mTemperatureMeasurement;
+        return getCharacteristic(ChTemperatureMeasurement.class);
     }
 
 
     /** Get access to Temperature Type characteristic */
     public ChTemperatureType getChTemperatureType() {
-        return mChTemperatureType;
+        return getCharacteristic(ChTemperatureType.class);
     }
 
 
     /** Get access to Measurement Interval characteristic */
     public ChMeasurementInterval getmChMeasurementInterval() {
-        return mChMeasurementInterval;
+        return getCharacteristic(ChMeasurementInterval.class);
     }
 
 
     /** Get access to Intermediate Temperature characteristic */
     public ChIntermediateTemperature getIntermediateTemperature() {
-        return mIntermediateTemperature;
+        return getCharacteristic(ChIntermediateTemperature.class);
     }
 
-    private ChTemperatureMeasurement mTemperatureMeasurement;
-    private ChTemperatureType mChTemperatureType;
-    private ChMeasurementInterval mChMeasurementInterval;
-    private ChIntermediateTemperature mIntermediateTemperature;
 }
\ No newline at end of file
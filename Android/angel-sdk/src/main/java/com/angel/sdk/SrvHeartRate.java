@@ -30,40 +30,24 @@
  */
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattService;
-
-import java.lang.reflect.InvocationTargetException;
 import java.util.UUID;
 
 
 /** GATT Heart Rate Service */
+@BleGattService
 public class SrvHeartRate extends BleService {
     public final static UUID SERVICE_UUID = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
 
 
-    public SrvHeartRate(BluetoothGattService gattService, BleDevice bleDevice) {
+    public SrvHeartRate(BleServiceHandle gattService, BleDevice bleDevice) {
         super(SERVICE_UUID, gattService, bleDevice);
 
-        try {
-
-            // Register all the concrete classes for all the characteristics 
-            // of Heart Rate Service. Failing one of the assertions bellow means
-            // we have mistakes with the definition of one of the characteristics
-            mHeartRateMeasurement = createAndRegisterCharacteristic(ChHeartRateMeasurement.class);
-            mBodySensorLocation = createAndRegisterCharacteristic(ChBodySensorLocation.class);
-            mHeartRateControlPoint = createAndRegisterCharacteristic(ChHeartRateControlPoint.class);
-
-        } catch (InstantiationException e) {
-            throw new AssertionError();
-        } catch (IllegalAccessException e) {
-            throw new AssertionError();
-        } catch (NoSuchMethodException e) {
-            throw new AssertionError();
-        } catch (IllegalArgumentException e) {
-            throw new AssertionError();
-        } catch (InvocationTargetException e) {
-            throw new AssertionError();
-        }
+        // Declare all the concrete classes for all the characteristics 
+        // of Heart Rate Service. Failing one of the assertions bellow means
+        // we have mistakes with the definition of one of the characteristics
+        declareCharacteristic(ChHeartRateMeasurement.class);
+        declareCharacteristic(ChBodySensorLocation.class);
+        declareCharacteristic(ChHeartRateControlPoint.class);
     }
 
 
@@ -74,22 +58,18 @@ public class SrvHeartRate extends BleService {
 
     /** Get access to Heart Rate Measurement characteristic */
     public ChHeartRateMeasurement getHeartRateMeasurement() {
-        return mHeartRateMeasurement;
+        return getCharacteristic(ChHeartRateMeasurement.class);
     }
 
 
     /** Get access to Body Sensor Location characteristic */
     public ChBodySensorLocation getBodySensorLocation() {
-        return mBodySensorLocation;
+        return getCharacteristic(ChBodySensorLocation.class);
     }
 
 
     /** Get access to Heart Rate Control Point characteristic */
     public ChHeartRateControlPoint getHeartRateControlPoint() {
-        return mHeartRateControlPoint;
+        return getCharacteristic(ChHeartRateControlPoint.class);
     }
-
-    private ChHeartRateMeasurement mHeartRateMeasurement;
-    private ChBodySensorLocation mBodySensorLocation;
-    private ChHeartRateControlPoint mHeartRateControlPoint;
 }
\ No newline at end of file
@@ -31,37 +31,20 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattService;
-
-import java.lang.reflect.InvocationTargetException;
 import java.util.UUID;
 
+@BleGattService
 public class SrvTerminal extends BleService {
     public final static UUID SERVICE_UUID = UUID.fromString("41e1bd6a-9e39-441c-9312-b6e862472480");
 
 
-    public SrvTerminal(BluetoothGattService gattService, BleDevice bleDevice) {
+    public SrvTerminal(BleServiceHandle gattService, BleDevice bleDevice) {
         super(SERVICE_UUID, gattService, bleDevice);
 
-        try {
-
-            // Register all the concrete classes for all the characteristics 
-            // of Heart Rate Service. Failing one of the assertions bellow means
-            // we have mistakes with the definition of one of the characteristics
-            mTerminalControlPoint = createAndRegisterCharacteristic(ChTerminalControlPoint.class);
-        } catch (InstantiationException e) {
-            throw new AssertionError();
-        } catch (IllegalAccessException e) {
-            throw new AssertionError();
-        } catch (NoSuchMethodException e) {
-            throw new AssertionError();
-        } catch (IllegalArgumentException e) {
-            throw new AssertionError();
-        } catch (InvocationTargetException e) {
-            throw new AssertionError();
-        }
-        
-        if (mTerminalControlPoint == null) {
+        // Declare all the concrete classes for all the characteristics 
+        // of Heart Rate Service. Failing one of the assertions bellow means
+        // we have mistakes with the definition of one of the characteristics
+        if (!declareCharacteristic(ChTerminalControlPoint.class)) {
             throw new AssertionError();
         }
     }
@@ -73,10 +56,9 @@ public class SrvTerminal extends BleService {
 
 
     public ChTerminalControlPoint getTerminalControlPoint() {
-        return mTerminalControlPoint;
+        return getCharacteristic(ChTerminalControlPoint.class);
     }
     
     
-    private ChTerminalControlPoint mTerminalControlPoint;
 
 }
@@ -31,38 +31,23 @@
 
 package com.angel.sdk;
 
-import android.bluetooth.BluetoothGattService;
-
-import java.lang.reflect.InvocationTargetException;
 import java.util.UUID;
 
+@BleGattService
 public class SrvWaveformSignal extends BleService {
     public final static UUID SERVICE_UUID = UUID.fromString("481d178c-10dd-11e4-b514-b2227cce2b54");
 
 
-    public SrvWaveformSignal(BluetoothGattService gattService, BleDevice bleDevice) {
+    public SrvWaveformSignal(BleServiceHandle gattService, BleDevice bleDevice) {
         super(SERVICE_UUID, gattService, bleDevice);
 
-        try {
-
-            // Register all the concrete classes for all the characteristics 
-            // of Heart Rate Service. Failing one of the assertions bellow means
-            // we have mistakes with the definition of one of the characteristics
-            mOpticalWaveform = createAndRegisterCharacteristic(ChOpticalWaveform.class);
-            mAccelerationWaveform = createAndRegisterCharacteristic(ChAccelerationWaveform.class);
-        } catch (InstantiationException e) {
-            throw new AssertionError();
-        } catch (IllegalAccessException e) {
-            throw new AssertionError();
-        } catch (NoSuchMethodException e) {
-            throw new AssertionError();
-        } catch (IllegalArgumentException e) {
-            throw new AssertionError();
-        } catch (InvocationTargetException e) {
-            throw new AssertionError();
-        }
+        // Declare all the concrete classes for all the characteristics 
+        // of Heart Rate Service. Failing one of the assertions bellow means
+        // we have mistakes with the definition of one of the characteristics
+        boolean hasOpticalWaveform = declareCharacteristic(ChOpticalWaveform.class);
+        boolean hasAccelerationWaveform = declareCharacteristic(ChAccelerationWaveform.class);
         
-        if (mOpticalWaveform == null || mAccelerationWaveform == null) {
+        if (!hasOpticalWaveform || !hasAccelerationWaveform) {
             throw new AssertionError();
         }
     }
@@ -75,17 +60,12 @@ public class SrvWaveformSignal extends BleService {
 
     /** Get access to Optical Waveform characteristic */
     public ChOpticalWaveform getOpticalWaveform() {
-        return mOpticalWaveform;
+        return getCharacteristic(ChOpticalWaveform.class);
     }
 
     
     /** Get access to Acceleration Waveform characteristic */
     public ChAccelerationWaveform getAccelerationWaveform() {
-        return mAccelerationWaveform;
+        return getCharacteristic(ChAccelerationWaveform.class);
     }
-    
-    
-    private ChOpticalWaveform mOpticalWaveform;
-    private ChAccelerationWaveform mAccelerationWaveform;
-
 }
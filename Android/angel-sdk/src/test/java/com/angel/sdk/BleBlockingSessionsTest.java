@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+
+/**
+ * Runs thousands of sessions that each drive a simulated device from their
+ * own thread through the blocking calls: {@link BleDevice#awaitServices()},
+ * {@link BleFuture#get(long, TimeUnit)} and
+ * {@link BleCharacteristic#poll(long, TimeUnit)}. The blocked threads park
+ * rather than wait on monitors, so they don't contend with the thread
+ * delivering events.
+ * <p>
+ * The number of sessions is 5000 unless the {@code angel.test.sessions}
+ * system property says otherwise.
+ */
+public class BleBlockingSessionsTest {
+
+    @Test
+    public void sessionsReceiveEveryValue() throws InterruptedException {
+        final int sessions = Integer.getInteger("angel.test.sessions", 5000);
+        BleInMemoryTransport[] transports = new BleInMemoryTransport[sessions];
+        BleCharacteristicHandle[] handles = new BleCharacteristicHandle[sessions];
+        final BleDevice[] devices = new BleDevice[sessions];
+        for (int i = 0; i < sessions; ++i) {
+            List<BleServiceHandle> layout = TestDevices.heartRateLayout();
+            transports[i] = new BleInMemoryTransport(layout);
+            handles[i] = layout.get(0).getCharacteristic(ChHeartRateMeasurement.CHARACTERISTIC_UUID);
+            devices[i] = TestDevices.newHeartRateDevice(transports[i], new TestDevices.RecordingCallback(),
+                                                        BleExecutors.getSharedCallbackPool());
+            devices[i].connect(TestDevices.ADDRESS);
+        }
+
+        final CountDownLatch subscribed = new CountDownLatch(sessions);
+        final CountDownLatch done = new CountDownLatch(sessions);
+        final AtomicLong received = new AtomicLong();
+        final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+        for (int i = 0; i < sessions; ++i) {
+            final BleDevice device = devices[i];
+            Thread session = new Thread(null, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        device.awaitServices();
+                        ChHeartRateMeasurement measurement =
+                            device.getService(SrvHeartRate.class).getHeartRateMeasurement();
+                        // Registers the take buffer before any value arrives
+                        measurement.poll(0, TimeUnit.MILLISECONDS);
+                        measurement.requestNotifications().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                        subscribed.countDown();
+                        for (int j = 0; j < VALUES; ++j) {
+                            ChHeartRateMeasurement.HeartRateMeasurementValue value =
+                                measurement.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                            if (value == null) throw new AssertionError("No value " + j);
+                            assertEquals(j, value.getHeartRateMeasurement());
+                            received.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    } finally {
+                        subscribed.countDown();
+                        done.countDown();
+                    }
+                }
+            }, "session-" + i, SESSION_STACK_SIZE);
+            session.setDaemon(true);
+            session.start();
+        }
+
+        // Plays the Bluetooth thread of every device until all the sessions
+        // are subscribed
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!subscribed.await(0, TimeUnit.MILLISECONDS)) {
+            int events = 0;
+            for (BleInMemoryTransport transport : transports) {
+                events += transport.runPendingEvents();
+            }
+            if (events == 0) Thread.sleep(1);
+            assertTrue("Sessions not subscribed in time", System.nanoTime() < deadline);
+        }
+
+        for (int j = 0; j < VALUES; ++j) {
+            for (int i = 0; i < sessions; ++i) {
+                transports[i].notify(handles[i], TestDevices.heartRateMeasurement(j));
+                transports[i].runPendingEvents();
+            }
+        }
+
+        assertTrue("Sessions not done in time", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        if (!failures.isEmpty()) throw new AssertionError(failures.peek());
+        assertEquals((long) sessions * VALUES, received.get());
+
+        for (BleDevice device : devices) {
+            device.disconnect();
+        }
+    }
+
+    private static final int VALUES = 20;
+    private static final long TIMEOUT_SECONDS = 60;
+    private static final long SESSION_STACK_SIZE = 64 * 1024;
+}
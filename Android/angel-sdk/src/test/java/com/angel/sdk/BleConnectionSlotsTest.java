@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class BleConnectionSlotsTest {
+
+    @Test
+    public void admitsUpToLimitInRequestOrder() {
+        RecordingStarter starter = new RecordingStarter();
+        BleConnectionSlots<Object> slots = new BleConnectionSlots<Object>(3, starter);
+        List<Object> clients = newClients(CLIENTS);
+        for (Object client : clients) {
+            slots.request(client);
+        }
+        assertEquals(3, slots.getActiveCount());
+        assertEquals(CLIENTS - 3, slots.getWaitingCount());
+
+        // Every release admits the client that has waited longest
+        for (int i = 0; i < CLIENTS; ++i) {
+            assertSame(clients.get(i), starter.mStarted.get(i));
+            slots.release(clients.get(i));
+            assertEquals(Math.min(3, CLIENTS - i - 1), slots.getActiveCount());
+        }
+        assertEquals(CLIENTS, starter.mStarted.size());
+        assertEquals(0, slots.getWaitingCount());
+    }
+
+
+    @Test
+    public void repeatedRequestIsIgnored() {
+        RecordingStarter starter = new RecordingStarter();
+        BleConnectionSlots<Object> slots = new BleConnectionSlots<Object>(1, starter);
+        Object active = new Object();
+        Object waiting = new Object();
+        slots.request(active);
+        slots.request(waiting);
+        slots.request(active);
+        slots.request(waiting);
+        assertEquals(1, slots.getActiveCount());
+        assertEquals(1, slots.getWaitingCount());
+        assertEquals(1, starter.mStarted.size());
+    }
+
+
+    @Test
+    public void releaseOfWaitingClientLeavesQueue() {
+        RecordingStarter starter = new RecordingStarter();
+        BleConnectionSlots<Object> slots = new BleConnectionSlots<Object>(1, starter);
+        List<Object> clients = newClients(3);
+        for (Object client : clients) {
+            slots.request(client);
+        }
+        slots.release(clients.get(1));
+        assertFalse(slots.isWaiting(clients.get(1)));
+        assertEquals(1, slots.getWaitingCount());
+
+        slots.release(clients.get(0));
+        assertEquals(2, starter.mStarted.size());
+        assertSame(clients.get(2), starter.mStarted.get(1));
+    }
+
+
+    @Test
+    public void pauseAndLimitChangesApplyToWaitingClients() {
+        RecordingStarter starter = new RecordingStarter();
+        BleConnectionSlots<Object> slots = new BleConnectionSlots<Object>(2, starter);
+        slots.setPaused(true);
+        List<Object> clients = newClients(CLIENTS);
+        for (Object client : clients) {
+            slots.request(client);
+        }
+        assertEquals(0, slots.getActiveCount());
+
+        slots.setPaused(false);
+        assertEquals(2, slots.getActiveCount());
+        slots.setLimit(10);
+        assertEquals(10, slots.getActiveCount());
+
+        // Lowering the limit doesn't cut attempts short; it holds back new ones
+        slots.setLimit(1);
+        for (int i = 0; i < 10; ++i) {
+            slots.release(clients.get(i));
+        }
+        assertEquals(1, slots.getActiveCount());
+        assertEquals(11, starter.mStarted.size());
+    }
+
+
+    /** A starter may release the client right away, as a failed attempt does */
+    @Test
+    public void starterMayReleaseSynchronously() {
+        final BleConnectionSlots<Object>[] slots = newSlotsArray();
+        final AtomicInteger started = new AtomicInteger();
+        slots[0] = new BleConnectionSlots<Object>(2, new BleConnectionSlots.Starter<Object>() {
+            @Override
+            public void start(Object client) {
+                started.incrementAndGet();
+                slots[0].release(client);
+            }
+        });
+        for (Object client : newClients(CLIENTS)) {
+            slots[0].request(client);
+        }
+        assertEquals(CLIENTS, started.get());
+        assertEquals(0, slots[0].getActiveCount());
+        assertEquals(0, slots[0].getWaitingCount());
+    }
+
+
+    @Test(timeout = 30000)
+    public void concurrentClientsNeverExceedLimit() throws InterruptedException {
+        final int limit = 4;
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final ConcurrentLinkedQueue<Object> startedClients = new ConcurrentLinkedQueue<Object>();
+        final BleConnectionSlots<Object> slots = new BleConnectionSlots<Object>(limit, new BleConnectionSlots.Starter<Object>() {
+            @Override
+            public void start(Object client) {
+                int now = running.incrementAndGet();
+                while (true) {
+                    int max = maxRunning.get();
+                    if (now <= max || maxRunning.compareAndSet(max, now)) break;
+                }
+                startedClients.add(client);
+            }
+        });
+
+        final int threads = 8;
+        final int rounds = 200;
+        final List<Object> clients = newClients(CLIENTS);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+        for (int t = 0; t < threads; ++t) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < rounds; ++i) {
+                            slots.request(clients.get(random.nextInt(clients.size())));
+                            // Finish an attempt that was started
+                            Object client = startedClients.poll();
+                            if (client != null) {
+                                running.decrementAndGet();
+                                slots.release(client);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        assertTrue(failures.isEmpty());
+        assertTrue(maxRunning.get() <= limit);
+        assertEquals(running.get(), slots.getActiveCount());
+    }
+
+
+    private static List<Object> newClients(int count) {
+        List<Object> clients = new ArrayList<Object>(count);
+        for (int i = 0; i < count; ++i) {
+            clients.add(new Object());
+        }
+        return clients;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static BleConnectionSlots<Object>[] newSlotsArray() {
+        return new BleConnectionSlots[1];
+    }
+
+
+    private static final class RecordingStarter implements BleConnectionSlots.Starter<Object> {
+        @Override
+        public void start(Object client) {
+            mStarted.add(client);
+        }
+
+        final List<Object> mStarted = new ArrayList<Object>();
+    }
+
+    private static final int CLIENTS = 120;
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Checks the primitive codec of {@link BleDayDateTime} against the
+ * {@code GregorianCalendar} based one, around time zone transitions in
+ * particular.
+ */
+public class BleDayDateTimeTest {
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+        BleDayDateTime.SetTimeZone(mDefaultTimeZone);
+    }
+
+
+    /** Newfoundland left daylight time at 00:01 local time, not on a quarter hour */
+    @Test
+    public void deserializesAtStJohnsFallBack() {
+        useTimeZone("America/St_Johns");
+        byte[] data = { -47, 7, 10, 27, 23, 1, 52 };
+        assertEquals(1004236312000L, BleDayDateTime.DeserializeEpochMillis(data, 0));
+        assertEquals(BleDayDateTime.Deserialize(data).getTimeInMillis(),
+                     BleDayDateTime.DeserializeEpochMillis(data, 0));
+    }
+
+
+    @Test
+    public void serializesAtStJohnsSpringForward() {
+        useTimeZone("America/St_Johns");
+        byte[] data = BleDayDateTime.SerializeDateTime(1268537857985L);
+        assertEquals(1, data[4]);
+        assertArrayEquals(BleDayDateTime.SerializeDateTime(calendar(1268537857985L)), data);
+    }
+
+
+    @Test
+    public void packsCalendarFields() {
+        byte[] data = BleDayDateTime.SerializeDayDateTime(new GregorianCalendar(2015, 11, 31, 23, 59, 58));
+        GregorianCalendar decoded = BleDayDateTime.Deserialize(data, 0, null);
+        assertEquals(BleDayDateTime.DeserializePacked(data, 0, BleDayDateTime.DAY_DATE_SERIALIZED_SIZE),
+                     BleDayDateTime.CalendarToPacked(decoded, BleDayDateTime.DAY_DATE_SERIALIZED_SIZE));
+        assertEquals(BleDayDateTime.DeserializePacked(data, 0, BleDayDateTime.DATE_SERIALIZED_SIZE),
+                     BleDayDateTime.CalendarToPacked(decoded, BleDayDateTime.DATE_SERIALIZED_SIZE));
+    }
+
+
+    @Test
+    public void matchesCalendarAroundTransitions() {
+        for (String id : TRANSITION_ZONES) {
+            TimeZone timeZone = useTimeZone(id);
+            long end = new GregorianCalendar(2016, 0, 1).getTimeInMillis();
+            long hour = 60 * 60 * 1000;
+            for (long t = new GregorianCalendar(1995, 0, 1).getTimeInMillis(); t < end; t += hour) {
+                if (timeZone.getOffset(t) != timeZone.getOffset(t + hour)) {
+                    checkAround(id, transitionIn(timeZone, t, t + hour));
+                }
+            }
+        }
+    }
+
+
+    /** Compares both codecs every minute and around the transition itself */
+    private static void checkAround(String id, long transition) {
+        long minute = 60 * 1000;
+        for (long t = transition - 90 * minute; t <= transition + 90 * minute; t += minute) {
+            check(id, t);
+        }
+        for (long t = transition - 2000; t <= transition + 2000; t += 1000) {
+            check(id, t);
+        }
+    }
+
+
+    private static void check(String id, long epochMillis) {
+        long seconds = epochMillis - epochMillis % 1000;
+        byte[] expected = BleDayDateTime.SerializeDayDateTime(calendar(seconds));
+        assertArrayEquals(id + " " + seconds, expected, BleDayDateTime.SerializeDayDateTime(seconds));
+        assertEquals(id + " " + seconds,
+                     BleDayDateTime.Deserialize(expected).getTimeInMillis(),
+                     BleDayDateTime.DeserializeEpochMillis(expected, 0));
+    }
+
+
+    /** The first millisecond with the new offset */
+    private static long transitionIn(TimeZone timeZone, long from, long to) {
+        int offset = timeZone.getOffset(from);
+        while (to - from > 1) {
+            long middle = from + (to - from) / 2;
+            if (timeZone.getOffset(middle) == offset) from = middle;
+            else to = middle;
+        }
+        return to;
+    }
+
+
+    private static GregorianCalendar calendar(long epochMillis) {
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(epochMillis);
+        return calendar;
+    }
+
+
+    private static TimeZone useTimeZone(String id) {
+        TimeZone timeZone = TimeZone.getTimeZone(id);
+        TimeZone.setDefault(timeZone);
+        BleDayDateTime.SetTimeZone(timeZone);
+        return timeZone;
+    }
+
+    /** Transitions off the quarter hour, and half-hour and 45-minute offsets */
+    private static final String[] TRANSITION_ZONES = {
+        "America/St_Johns", "America/Moncton", "America/Goose_Bay",
+        "Australia/Lord_Howe", "Pacific/Chatham", "Europe/Berlin"
+    };
+
+    private TimeZone mDefaultTimeZone;
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Drives a {@link BleDeviceManager} with many simulated devices and checks
+ * that connection slots are held only while an attempt is in progress.
+ */
+public class BleDeviceManagerTest {
+
+    @Before
+    public void setUp() throws Exception {
+        mManager = new BleDeviceManager(new BleTransport.Factory() {
+            @Override
+            public BleTransport createTransport() {
+                BleInMemoryTransport transport = new BleInMemoryTransport(TestDevices.heartRateLayout());
+                mTransports.add(transport);
+                return transport;
+            }
+        }, LIMIT, TestDevices.DIRECT);
+
+        for (int i = 0; i < DEVICES; ++i) {
+            BleDevice device = mManager.createDevice(new TestDevices.RecordingCallback());
+            device.registerServiceClass(SrvHeartRate.class);
+            mDevices.add(device);
+        }
+    }
+
+
+    @Test
+    public void connectsEveryDeviceWithinTheLimit() {
+        connectAll();
+        assertEquals(LIMIT, mManager.getActiveConnectCount());
+        assertEquals(DEVICES - LIMIT, mManager.getWaitingConnectCount());
+        assertEquals(DEVICES - LIMIT, count(BleDevice.State.WAITING_FOR_SLOT));
+
+        runUntilIdle();
+        assertEquals(DEVICES, count(BleDevice.State.READY));
+        assertEquals(0, mManager.getActiveConnectCount());
+        assertEquals(0, mManager.getWaitingConnectCount());
+    }
+
+
+    @Test
+    public void disconnectReleasesSlot() {
+        connectAll();
+        BleDevice connecting = mDevices.get(0);
+        BleDevice waiting = mDevices.get(DEVICES / 2);
+
+        // The slot goes to the device that has waited longest
+        connecting.disconnect();
+        assertEquals(LIMIT, mManager.getActiveConnectCount());
+        assertEquals(BleDevice.State.CONNECTING, mDevices.get(LIMIT).getState());
+
+        // A waiting device leaves the queue
+        waiting.disconnect();
+        assertEquals(DEVICES - LIMIT - 2, mManager.getWaitingConnectCount());
+
+        runUntilIdle();
+        assertEquals(DEVICES - 2, count(BleDevice.State.READY));
+        assertEquals(BleDevice.State.DISCONNECTED, connecting.getState());
+        assertEquals(BleDevice.State.DISCONNECTED, waiting.getState());
+        assertEquals(0, mManager.getActiveConnectCount());
+    }
+
+
+    @Test
+    public void failedAttemptsReleaseSlots() {
+        // Every third device fails service discovery
+        for (int i = 0; i < DEVICES; i += 3) {
+            mTransports.get(i).failNextRequest(BleTransport.GATT_FAILURE);
+        }
+        connectAll();
+
+        // Every third device after those loses the connection while
+        // connecting, right after it gets a slot
+        boolean[] dropped = new boolean[DEVICES];
+        while (true) {
+            int events = 0;
+            for (int i = 0; i < DEVICES; ++i) {
+                if (i % 3 == 1 && !dropped[i] && mDevices.get(i).getState() == BleDevice.State.CONNECTING) {
+                    mTransports.get(i).dropConnection(BleTransport.GATT_FAILURE);
+                    dropped[i] = true;
+                }
+                events += mTransports.get(i).runPendingEvents();
+                assertTrue(mManager.getActiveConnectCount() <= LIMIT);
+            }
+            if (events == 0) break;
+        }
+
+        for (int i = 0; i < DEVICES; ++i) {
+            BleDevice.State state = mDevices.get(i).getState();
+            if (i % 3 == 2) {
+                assertEquals(BleDevice.State.READY, state);
+            } else {
+                if (i % 3 == 1) assertTrue(dropped[i]);
+                assertEquals(BleDevice.State.DISCONNECTED, state);
+            }
+        }
+        assertEquals(0, mManager.getActiveConnectCount());
+        assertEquals(0, mManager.getWaitingConnectCount());
+    }
+
+
+    @Test
+    public void closeReleasesEverySlot() {
+        connectAll();
+        mManager.close();
+        assertEquals(0, mManager.getActiveConnectCount());
+        assertEquals(0, mManager.getWaitingConnectCount());
+        assertEquals(DEVICES, count(BleDevice.State.DISCONNECTED));
+        assertTrue(mManager.getDevices().isEmpty());
+    }
+
+
+    private void connectAll() {
+        for (int i = 0; i < DEVICES; ++i) {
+            mDevices.get(i).connect("00:00:00:00:" + (i / 100) + ":" + (i % 100));
+        }
+    }
+
+
+    /** Plays the Bluetooth thread of every device until nothing happens */
+    private void runUntilIdle() {
+        while (true) {
+            int events = 0;
+            for (BleInMemoryTransport transport : mTransports) {
+                events += transport.runPendingEvents();
+                assertTrue(mManager.getActiveConnectCount() <= LIMIT);
+                assertTrue(count(BleDevice.State.CONNECTING) + count(BleDevice.State.DISCOVERING_SERVICES) <= LIMIT);
+            }
+            if (events == 0) return;
+        }
+    }
+
+
+    private int count(BleDevice.State state) {
+        int count = 0;
+        for (BleDevice device : mDevices) {
+            if (device.getState() == state) ++count;
+        }
+        return count;
+    }
+
+    private static final int DEVICES = 120;
+    private static final int LIMIT = 3;
+
+    private final List<BleInMemoryTransport> mTransports = new ArrayList<BleInMemoryTransport>();
+    private final List<BleDevice> mDevices = new ArrayList<BleDevice>();
+    private BleDeviceManager mManager;
+}
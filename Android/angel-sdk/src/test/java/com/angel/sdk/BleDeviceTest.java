@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Drives {@link BleDevice} through {@link BleInMemoryTransport} on a plain
+ * JVM: connection, service discovery, GATT operations, notifications and the
+ * profile cache.
+ */
+public class BleDeviceTest {
+
+    @Before
+    public void setUp() {
+        mLayout = TestDevices.heartRateLayout();
+        mTransport = new BleInMemoryTransport(mLayout);
+        mCallback = new TestDevices.RecordingCallback();
+        mDevice = TestDevices.newHeartRateDevice(mTransport, mCallback);
+    }
+
+
+    @Test
+    public void connectDiscoversServices() {
+        mDevice.connect(TestDevices.ADDRESS);
+        assertEquals(BleDevice.State.CONNECTING, mDevice.getState());
+        assertNull(mDevice.getService(SrvHeartRate.class));
+
+        mTransport.runPendingEvents();
+        assertEquals(BleDevice.State.READY, mDevice.getState());
+        assertEquals(1, mCallback.mServicesDiscovered.get());
+        SrvHeartRate service = mDevice.getService(SrvHeartRate.class);
+        assertNotNull(service);
+        assertSame(mLayout.get(0), service.getBaseGattService());
+    }
+
+
+    @Test
+    public void readDecodesValue() {
+        connect();
+        BleFuture<Integer> location = mDevice.getService(SrvHeartRate.class).getBodySensorLocation().read();
+        assertFalse(location.isDone());
+
+        mTransport.runPendingEvents();
+        assertTrue(location.isSuccess());
+        assertEquals(Integer.valueOf(1), location.getResult());
+    }
+
+
+    @Test
+    public void writeReachesDevice() {
+        connect();
+        ChHeartRateControlPoint controlPoint = mDevice.getService(SrvHeartRate.class).getHeartRateControlPoint();
+        BleFuture<Void> reset = controlPoint.resetEnergyExpended();
+
+        mTransport.runPendingEvents();
+        assertTrue(reset.isSuccess());
+        assertNotNull(controlPoint.getBaseGattCharacteristic().getValue());
+    }
+
+
+    @Test
+    public void failedReadReportsStatus() {
+        connect();
+        BleCharacteristicHandle location = handle(ChBodySensorLocation.CHARACTERISTIC_UUID);
+        mTransport.failNextRequest(BleTransport.GATT_READ_NOT_PERMITTED);
+        BleFuture<byte[]> read = mDevice.readCharacteristic(location, 1000, 0);
+
+        mTransport.runPendingEvents();
+        assertFalse(read.isSuccess());
+        assertEquals(BleTransport.GATT_READ_NOT_PERMITTED, ((BleGattException) read.getFailure()).getStatus());
+    }
+
+
+    @Test
+    public void notificationsReachListeners() {
+        connect();
+        ChHeartRateMeasurement measurement = mDevice.getService(SrvHeartRate.class).getHeartRateMeasurement();
+        final List<Integer> rates = new ArrayList<Integer>();
+        BleFuture<Void> enabled = measurement.enableNotifications(
+            new BleCharacteristic.ValueReadyCallback<ChHeartRateMeasurement.HeartRateMeasurementValue>() {
+                @Override
+                public void onValueReady(ChHeartRateMeasurement.HeartRateMeasurementValue value) {
+                    rates.add(value.getHeartRateMeasurement());
+                }
+            });
+
+        mTransport.runPendingEvents();
+        assertTrue(enabled.isSuccess());
+        BleCharacteristicHandle handle = measurement.getBaseGattCharacteristic();
+        assertTrue(mTransport.isSubscribed(handle));
+
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(72));
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(75, 800));
+        mTransport.runPendingEvents();
+        assertEquals(2, rates.size());
+        assertEquals(Integer.valueOf(72), rates.get(0));
+        assertEquals(Integer.valueOf(75), rates.get(1));
+        assertEquals(1, measurement.getRRIntervalHistory().size());
+        assertEquals(800, measurement.getRRIntervalHistory().get(0));
+    }
+
+
+    @Test
+    public void executorListenerGetsOneTaskPerBatch() {
+        connect();
+        ChHeartRateMeasurement measurement = mDevice.getService(SrvHeartRate.class).getHeartRateMeasurement();
+        TestDevices.QueueingExecutor listenerExecutor = new TestDevices.QueueingExecutor();
+        final List<String> events = new ArrayList<String>();
+        BleFuture<Void> enabled = measurement.enableNotifications(
+            new BleCharacteristic.ValueBatchCallback<ChHeartRateMeasurement.HeartRateMeasurementValue>() {
+                @Override
+                public void onValueReady(ChHeartRateMeasurement.HeartRateMeasurementValue value) {
+                    events.add("value " + value.getHeartRateMeasurement());
+                }
+
+                @Override
+                public void onBatchComplete(int count) {
+                    events.add("batch " + count);
+                }
+            }, listenerExecutor);
+        mTransport.runPendingEvents();
+        assertTrue(enabled.isSuccess());
+
+        measurement.setBatchedDelivery(3, 60000);
+        BleCharacteristicHandle handle = measurement.getBaseGattCharacteristic();
+        for (int rate = 70; rate < 76; ++rate) {
+            mTransport.notify(handle, TestDevices.heartRateMeasurement(rate));
+        }
+        mTransport.runPendingEvents();
+
+        // Two batches, handed over by the one task posted for the first
+        assertEquals(1, listenerExecutor.runAll());
+        assertEquals(Arrays.asList("value 70", "value 71", "value 72", "batch 3",
+                                   "value 73", "value 74", "value 75", "batch 3"), events);
+
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(76));
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(77));
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(78));
+        mTransport.runPendingEvents();
+        assertEquals(1, listenerExecutor.runAll());
+        assertEquals(12, events.size());
+    }
+
+
+    @Test
+    public void enableNotificationsWhileDisconnectedFailsFast() {
+        connect();
+        ChHeartRateMeasurement measurement = mDevice.getService(SrvHeartRate.class).getHeartRateMeasurement();
+        mDevice.disconnect();
+
+        BleFuture<Void> enabled = measurement.enableNotifications(
+            new BleCharacteristic.ValueReadyCallback<ChHeartRateMeasurement.HeartRateMeasurementValue>() {
+                @Override
+                public void onValueReady(ChHeartRateMeasurement.HeartRateMeasurementValue value) {
+                }
+            });
+        assertTrue(enabled.isDone());
+        assertEquals(BleGattException.STATUS_NOT_CONNECTED, ((BleGattException) enabled.getFailure()).getStatus());
+        assertEquals(0, mTransport.runPendingEvents());
+
+        // The rejected request isn't carried out by the next connection
+        connect();
+        assertFalse(mTransport.isSubscribed(measurement.getBaseGattCharacteristic()));
+    }
+
+
+    @Test
+    public void readsRemoteRssi() {
+        connect();
+        mTransport.setRssi(-61);
+        BleFuture<Integer> rssi = mDevice.readRemoteRssi();
+
+        mTransport.runPendingEvents();
+        assertEquals(Integer.valueOf(-61), rssi.getResult());
+        assertEquals(-61, mCallback.mLastRssi);
+    }
+
+
+    @Test
+    public void lostConnectionFailsOperations() {
+        connect();
+        mTransport.dropConnection(BleTransport.GATT_FAILURE);
+        mTransport.runPendingEvents();
+        assertEquals(BleDevice.State.DISCONNECTED, mDevice.getState());
+        assertEquals(1, mCallback.mDisconnected.get());
+
+        BleFuture<Integer> location = mDevice.getService(SrvHeartRate.class).getBodySensorLocation().read();
+        mTransport.runPendingEvents();
+        assertFalse(location.isSuccess());
+        assertEquals(BleGattException.STATUS_NOT_CONNECTED, ((BleGattException) location.getFailure()).getStatus());
+    }
+
+
+    @Test
+    public void reconnectKeepsServiceObjects() {
+        connect();
+        SrvHeartRate service = mDevice.getService(SrvHeartRate.class);
+        mDevice.disconnect();
+        assertEquals(BleDevice.State.DISCONNECTED, mDevice.getState());
+
+        connect();
+        assertSame(service, mDevice.getService(SrvHeartRate.class));
+        assertEquals(2, mCallback.mServicesDiscovered.get());
+    }
+
+
+    @Test
+    public void valuesQueuedAtDisconnectDontStallTheNextConnection() {
+        TestDevices.QueueingExecutor executor = new TestDevices.QueueingExecutor();
+        mDevice = TestDevices.newHeartRateDevice(mTransport, mCallback, executor);
+        ChHeartRateMeasurement measurement = connectAndSubscribe(executor);
+        BleCharacteristicHandle handle = measurement.getBaseGattCharacteristic();
+
+        // Received but not delivered; the drain task waits in the executor
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(60));
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(61));
+        mTransport.runPendingEvents();
+        assertEquals(2, measurement.getQueueDepth());
+
+        mDevice.disconnect();
+        assertEquals(0, measurement.getQueueDepth());
+        executor.runAll();
+        assertTrue(mRates.isEmpty());
+
+        mDevice.connect(TestDevices.ADDRESS);
+        mTransport.runPendingEvents();
+        executor.runAll();
+        assertTrue(mTransport.isSubscribed(handle));
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(62));
+        mTransport.runPendingEvents();
+        executor.runAll();
+        assertEquals(1, mRates.size());
+        assertEquals(Integer.valueOf(62), mRates.get(0));
+    }
+
+
+    @Test
+    public void disconnectReleasesBlockedProducer() throws InterruptedException {
+        TestDevices.QueueingExecutor executor = new TestDevices.QueueingExecutor();
+        mDevice = TestDevices.newHeartRateDevice(mTransport, mCallback, executor);
+        ChHeartRateMeasurement measurement = connectAndSubscribe(executor);
+        measurement.setOverflowPolicy(1, BleCharacteristic.OverflowPolicy.BLOCK);
+        BleCharacteristicHandle handle = measurement.getBaseGattCharacteristic();
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(60));
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(61));
+
+        // Plays the Bluetooth thread, which blocks on the second value
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mTransport.runPendingEvents();
+            }
+        });
+        producer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (producer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, producer.getState());
+
+        mDevice.disconnect();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+
+        // The value let through after the disconnect doesn't stall the queue either
+        mDevice.connect(TestDevices.ADDRESS);
+        mTransport.runPendingEvents();
+        executor.runAll();
+        assertEquals(0, measurement.getQueueDepth());
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(62));
+        mTransport.runPendingEvents();
+        executor.runAll();
+        assertEquals(1, mRates.size());
+        assertEquals(Integer.valueOf(62), mRates.get(0));
+    }
+
+
+    @Test
+    public void profileStoreRestoresServicesBeforeDiscovery() {
+        MapProfileStore store = new MapProfileStore();
+        mDevice.setProfileStore(store);
+        connect();
+        mDevice.disconnect();
+        assertNotNull(store.load(TestDevices.ADDRESS));
+
+        BleInMemoryTransport transport = new BleInMemoryTransport(TestDevices.heartRateLayout());
+        BleDevice device = TestDevices.newHeartRateDevice(transport, new TestDevices.RecordingCallback());
+        device.setProfileStore(store);
+        device.connect(TestDevices.ADDRESS);
+        SrvHeartRate cached = device.getService(SrvHeartRate.class);
+        assertNotNull(cached);
+
+        // Requests made on the cached layout wait for discovery
+        BleFuture<Integer> location = cached.getBodySensorLocation().read();
+        transport.runPendingEvents();
+        assertEquals(BleDevice.State.READY, device.getState());
+        assertSame(cached, device.getService(SrvHeartRate.class));
+        assertEquals(Integer.valueOf(1), location.getResult());
+    }
+
+
+    @Test(timeout = 5000)
+    public void failedDiscoveryEndsTheConnection() throws InterruptedException {
+        MapProfileStore store = new MapProfileStore();
+        mDevice.setProfileStore(store);
+        connect();
+        mDevice.disconnect();
+
+        BleInMemoryTransport transport = new BleInMemoryTransport(TestDevices.heartRateLayout());
+        TestDevices.RecordingCallback callback = new TestDevices.RecordingCallback();
+        BleDevice device = TestDevices.newHeartRateDevice(transport, callback);
+        device.setProfileStore(store);
+        transport.failNextRequest(BleTransport.GATT_FAILURE);
+        device.connect(TestDevices.ADDRESS);
+
+        // Requested on the cached layout, so it waits for discovery
+        ChHeartRateMeasurement measurement = device.getService(SrvHeartRate.class).getHeartRateMeasurement();
+        BleFuture<Void> enabled = measurement.enableNotifications(
+            new BleCharacteristic.ValueReadyCallback<ChHeartRateMeasurement.HeartRateMeasurementValue>() {
+                @Override
+                public void onValueReady(ChHeartRateMeasurement.HeartRateMeasurementValue value) {
+                }
+            });
+        assertFalse(enabled.isDone());
+
+        transport.runPendingEvents();
+        assertEquals(BleDevice.State.DISCONNECTED, device.getState());
+        assertEquals(1, callback.mDisconnected.get());
+        assertEquals(0, callback.mServicesDiscovered.get());
+        assertTrue(enabled.isDone());
+        assertEquals(BleTransport.GATT_FAILURE, ((BleGattException) enabled.getFailure()).getStatus());
+        try {
+            device.awaitServices();
+            fail("awaitServices() returned after failed discovery");
+        } catch (BleGattException e) {
+            assertEquals(BleGattException.STATUS_NOT_CONNECTED, e.getStatus());
+        }
+    }
+
+
+    /** Connects and subscribes to the measurement, recording the rates in mRates */
+    private ChHeartRateMeasurement connectAndSubscribe(TestDevices.QueueingExecutor executor) {
+        mDevice.connect(TestDevices.ADDRESS);
+        mTransport.runPendingEvents();
+        executor.runAll();
+        ChHeartRateMeasurement measurement = mDevice.getService(SrvHeartRate.class).getHeartRateMeasurement();
+        BleFuture<Void> enabled = measurement.enableNotifications(
+            new BleCharacteristic.ValueReadyCallback<ChHeartRateMeasurement.HeartRateMeasurementValue>() {
+                @Override
+                public void onValueReady(ChHeartRateMeasurement.HeartRateMeasurementValue value) {
+                    mRates.add(value.getHeartRateMeasurement());
+                }
+            });
+        mTransport.runPendingEvents();
+        executor.runAll();
+        assertTrue(enabled.isSuccess());
+        return measurement;
+    }
+
+
+    private void connect() {
+        mDevice.connect(TestDevices.ADDRESS);
+        mTransport.runPendingEvents();
+        assertEquals(BleDevice.State.READY, mDevice.getState());
+    }
+
+
+    private BleCharacteristicHandle handle(UUID uuid) {
+        return mLayout.get(0).getCharacteristic(uuid);
+    }
+
+
+    private static final class MapProfileStore implements BleProfileStore {
+        @Override
+        public String load(String address) {
+            return mProfiles.get(address);
+        }
+
+
+        @Override
+        public void store(String address, String profile) {
+            mProfiles.put(address, profile);
+        }
+
+
+        @Override
+        public void remove(String address) {
+            mProfiles.remove(address);
+        }
+
+        private final HashMap<String, String> mProfiles = new HashMap<String, String>();
+    }
+
+    private final List<Integer> mRates = new ArrayList<Integer>();
+    private List<BleServiceHandle> mLayout;
+    private BleInMemoryTransport mTransport;
+    private TestDevices.RecordingCallback mCallback;
+    private BleDevice mDevice;
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Drives the dispatch queue of the heart rate measurement through
+ * {@link BleInMemoryTransport}, with the device callbacks run by the test.
+ */
+public class BleDispatchQueueTest {
+
+    @Before
+    public void setUp() {
+        mTransport = new BleInMemoryTransport(TestDevices.heartRateLayout());
+        mExecutor = new TestDevices.QueueingExecutor();
+        mDevice = TestDevices.newHeartRateDevice(mTransport, new TestDevices.RecordingCallback(), mExecutor);
+        mDevice.connect(TestDevices.ADDRESS);
+        mTransport.runPendingEvents();
+        mExecutor.runAll();
+        mMeasurement = mDevice.getService(SrvHeartRate.class).getHeartRateMeasurement();
+    }
+
+
+    @Test(timeout = 10000)
+    public void blockedProducerWaitsForDelivery() throws InterruptedException {
+        final Semaphore delivered = new Semaphore(0);
+        subscribe(new BleCharacteristic.ValueReadyCallback<ChHeartRateMeasurement.HeartRateMeasurementValue>() {
+            @Override
+            public void onValueReady(ChHeartRateMeasurement.HeartRateMeasurementValue value) {
+                synchronized (mRates) {
+                    mRates.add(value.getHeartRateMeasurement());
+                }
+                delivered.acquireUninterruptibly();
+            }
+        });
+        mMeasurement.setOverflowPolicy(2, BleCharacteristic.OverflowPolicy.BLOCK);
+        BleCharacteristicHandle handle = mMeasurement.getBaseGattCharacteristic();
+        for (int rate = 60; rate < 64; ++rate) {
+            mTransport.notify(handle, TestDevices.heartRateMeasurement(rate));
+        }
+
+        // Plays the Bluetooth thread, which blocks on the third value
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mTransport.runPendingEvents();
+            }
+        });
+        producer.start();
+        awaitWaiting(producer);
+        assertEquals(2, mMeasurement.getQueueDepth());
+
+        // Plays the callback thread, which is stuck in the first listener call
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mExecutor.runAll();
+            }
+        });
+        consumer.start();
+        while (rateCount() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        assertEquals(Thread.State.WAITING, producer.getState());
+        assertEquals(2, mMeasurement.getQueueDepth());
+
+        // Every delivered value makes room for one more
+        delivered.release();
+        while (rateCount() < 2) {
+            Thread.sleep(1);
+        }
+        awaitWaiting(producer);
+        assertEquals(2, mMeasurement.getQueueDepth());
+
+        delivered.release(Integer.MAX_VALUE / 2);
+        producer.join();
+        consumer.join();
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(60, 61, 62, 63), mRates);
+        assertEquals(0, mMeasurement.getQueueDepth());
+        assertEquals(0, mMeasurement.getDroppedCount());
+    }
+
+
+    @Test
+    public void throwingListenerKeepsOrder() {
+        subscribe(new BleCharacteristic.ValueReadyCallback<ChHeartRateMeasurement.HeartRateMeasurementValue>() {
+            @Override
+            public void onValueReady(ChHeartRateMeasurement.HeartRateMeasurementValue value) {
+                mRates.add(value.getHeartRateMeasurement());
+                if (value.getHeartRateMeasurement() == 61) throw new IllegalStateException("61");
+            }
+        });
+        BleCharacteristicHandle handle = mMeasurement.getBaseGattCharacteristic();
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(60));
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(61));
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(62));
+        mTransport.runPendingEvents();
+        try {
+            mExecutor.runAll();
+            fail("The listener didn't throw");
+        } catch (IllegalStateException e) {
+            assertEquals("61", e.getMessage());
+        }
+        assertEquals(1, mMeasurement.getQueueDepth());
+
+        // The value left behind goes out before newer ones
+        mTransport.notify(handle, TestDevices.heartRateMeasurement(63));
+        mTransport.runPendingEvents();
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(60, 61, 62, 63), mRates);
+        assertEquals(0, mMeasurement.getQueueDepth());
+    }
+
+
+    private void subscribe(BleCharacteristic.ValueReadyCallback<ChHeartRateMeasurement.HeartRateMeasurementValue> listener) {
+        BleFuture<Void> enabled = mMeasurement.enableNotifications(listener);
+        mTransport.runPendingEvents();
+        mExecutor.runAll();
+        assertTrue(enabled.isSuccess());
+    }
+
+
+    private int rateCount() {
+        synchronized (mRates) {
+            return mRates.size();
+        }
+    }
+
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+
+
+    private final List<Integer> mRates = new ArrayList<Integer>();
+    private BleInMemoryTransport mTransport;
+    private TestDevices.QueueingExecutor mExecutor;
+    private BleDevice mDevice;
+    private ChHeartRateMeasurement mMeasurement;
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Checks that values decoded for {@link BleCharacteristic#read(long)}, read
+ * cache hits included, leave the primitive mode instance and the RR-interval
+ * history, which belong to the listeners, alone, and that
+ * {@link BleCharacteristic#take()} doesn't queue the primitive mode instance.
+ */
+public class ChHeartRateMeasurementTest {
+
+    @Before
+    public void setUp() {
+        // A readable measurement, which real sensors don't have, to mix
+        // reads with notifications
+        mTransport = new BleInMemoryTransport(TestDevices.heartRateLayout(BleCharacteristicHandle.PROPERTY_NOTIFY
+                                                                          | BleCharacteristicHandle.PROPERTY_READ));
+        BleDevice device = TestDevices.newHeartRateDevice(mTransport, new TestDevices.RecordingCallback());
+        device.connect(TestDevices.ADDRESS);
+        mTransport.runPendingEvents();
+
+        mMeasurement = device.getService(SrvHeartRate.class).getHeartRateMeasurement();
+        mMeasurement.setPrimitiveMode(true);
+        BleFuture<Void> enabled = mMeasurement.enableNotifications(
+            new BleCharacteristic.ValueReadyCallback<ChHeartRateMeasurement.HeartRateMeasurementValue>() {
+                @Override
+                public void onValueReady(ChHeartRateMeasurement.HeartRateMeasurementValue value) {
+                    mDelivered.add(value);
+                }
+            });
+        mTransport.runPendingEvents();
+        assertTrue(enabled.isSuccess());
+        mHandle = mMeasurement.getBaseGattCharacteristic();
+    }
+
+
+    @Test
+    public void readDecodesIntoNewValue() {
+        mTransport.notify(mHandle, TestDevices.heartRateMeasurement(70, 800));
+        mTransport.runPendingEvents();
+        assertEquals(1, mDelivered.size());
+        ChHeartRateMeasurement.HeartRateMeasurementValue recycled = mDelivered.get(0);
+
+        mHandle.setValue(TestDevices.heartRateMeasurement(71, 900, 901));
+        BleFuture<ChHeartRateMeasurement.HeartRateMeasurementValue> read = mMeasurement.read();
+        mTransport.runPendingEvents();
+
+        ChHeartRateMeasurement.HeartRateMeasurementValue value = read.getResult();
+        assertNotSame(recycled, value);
+        assertEquals(71, value.getHeartRateMeasurement());
+        assertEquals(2, value.getRRIntervalCount());
+
+        // The read result reached the listener as well, in the recycled instance
+        assertEquals(2, mDelivered.size());
+        assertSame(recycled, mDelivered.get(1));
+        assertRRHistory(800, 900, 901);
+    }
+
+
+    @Test
+    public void cachedReadDecodesIntoNewValue() {
+        mMeasurement.setReadCacheTtl(60000);
+        mHandle.setValue(TestDevices.heartRateMeasurement(71, 900));
+        BleFuture<ChHeartRateMeasurement.HeartRateMeasurementValue> read = mMeasurement.read();
+        mTransport.runPendingEvents();
+        assertTrue(read.isSuccess());
+        assertEquals(1, mDelivered.size());
+
+        // Served from the cache on this thread, without a GATT read
+        BleFuture<ChHeartRateMeasurement.HeartRateMeasurementValue> cached = mMeasurement.read();
+        assertTrue(cached.isDone());
+        assertEquals(0, mTransport.runPendingEvents());
+        assertNotSame(mDelivered.get(0), cached.getResult());
+        assertNotSame(read.getResult(), cached.getResult());
+        assertEquals(71, cached.getResult().getHeartRateMeasurement());
+        assertEquals(1, mDelivered.size());
+        assertRRHistory(900);
+    }
+
+
+    @Test
+    public void takeRefusesRecycledValues() throws InterruptedException {
+        try {
+            mMeasurement.poll(0, TimeUnit.MILLISECONDS);
+            fail("poll() worked in primitive mode");
+        } catch (IllegalStateException expected) {
+        }
+
+        mMeasurement.setPrimitiveMode(false);
+        assertNull(mMeasurement.poll(0, TimeUnit.MILLISECONDS));
+        mMeasurement.setPrimitiveMode(true);
+        mTransport.notify(mHandle, TestDevices.heartRateMeasurement(70));
+        mTransport.runPendingEvents();
+        mMeasurement.setPrimitiveMode(false);
+        assertNull(mMeasurement.poll(0, TimeUnit.MILLISECONDS));
+
+        mTransport.notify(mHandle, TestDevices.heartRateMeasurement(72));
+        mTransport.runPendingEvents();
+        ChHeartRateMeasurement.HeartRateMeasurementValue value = mMeasurement.poll(0, TimeUnit.MILLISECONDS);
+        assertEquals(72, value.getHeartRateMeasurement());
+        assertNotSame(mDelivered.get(0), value);
+    }
+
+
+    private void assertRRHistory(int... expected) {
+        ChHeartRateMeasurement.RRIntervalRing history = mMeasurement.getRRIntervalHistory();
+        assertEquals(expected.length, history.size());
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i], history.get(i));
+        }
+    }
+
+    private final List<ChHeartRateMeasurement.HeartRateMeasurementValue> mDelivered =
+        new ArrayList<ChHeartRateMeasurement.HeartRateMeasurementValue>();
+    private BleInMemoryTransport mTransport;
+    private ChHeartRateMeasurement mMeasurement;
+    private BleCharacteristicHandle mHandle;
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * Compares the two ways of finding the wrapper of a characteristic reported
+ * by the transport: converting the service and characteristic UUIDs to
+ * strings and back followed by two {@code HashMap} lookups, which is how
+ * notifications used to be dispatched, and the identity lookup in the
+ * routing table {@link BleDevice} builds at service discovery. Also reports
+ * the cost of a whole notification, from the transport to a listener.
+ * <p>
+ * Not a unit test; run {@link #main(String[])} from the IDE or with the test
+ * classes on the class path.
+ */
+public class DispatchRoutingBenchmark {
+
+    public static void main(String[] args) {
+        BleInMemoryTransport transport = new BleInMemoryTransport(TestDevices.heartRateLayout());
+        BleDevice device = TestDevices.newHeartRateDevice(transport, new TestDevices.RecordingCallback());
+        device.connect(TestDevices.ADDRESS);
+        transport.runPendingEvents();
+        SrvHeartRate service = device.getService(SrvHeartRate.class);
+
+        // Both tables hold the same wrappers, keyed the old and the new way
+        HashMap<UUID, HashMap<UUID, BleCharacteristic<?>>> byUuid =
+            new HashMap<UUID, HashMap<UUID, BleCharacteristic<?>>>();
+        IdentityHashMap<BleCharacteristicHandle, BleCharacteristic<?>> routes =
+            new IdentityHashMap<BleCharacteristicHandle, BleCharacteristic<?>>();
+        HashMap<UUID, BleCharacteristic<?>> characteristics = new HashMap<UUID, BleCharacteristic<?>>();
+        byUuid.put(SrvHeartRate.SERVICE_UUID, characteristics);
+        List<BleCharacteristicHandle> handles = service.getBaseGattService().getCharacteristics();
+        for (BleCharacteristicHandle handle : handles) {
+            BleCharacteristic<?> characteristic = service.getCharacteristic(handle.getUuid());
+            characteristics.put(handle.getUuid(), characteristic);
+            routes.put(handle, characteristic);
+        }
+        BleCharacteristicHandle[] reported = handles.toArray(new BleCharacteristicHandle[handles.size()]);
+
+        ChHeartRateMeasurement measurement = service.getHeartRateMeasurement();
+        measurement.enableNotifications(
+            new BleCharacteristic.ValueReadyCallback<ChHeartRateMeasurement.HeartRateMeasurementValue>() {
+                @Override
+                public void onValueReady(ChHeartRateMeasurement.HeartRateMeasurementValue value) {
+                    sSink += value.getHeartRateMeasurement();
+                }
+            });
+        transport.runPendingEvents();
+        BleCharacteristicHandle measurementHandle = measurement.getBaseGattCharacteristic();
+        byte[] value = TestDevices.heartRateMeasurement(72, 800);
+
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; ++i) {
+                BleCharacteristicHandle handle = reported[i % reported.length];
+                String serviceUuid = handle.getService().getUuid().toString();
+                String characteristicUuid = handle.getUuid().toString();
+                BleCharacteristic<?> characteristic =
+                    byUuid.get(UUID.fromString(serviceUuid)).get(UUID.fromString(characteristicUuid));
+                sink += characteristic.hashCode() & 1;
+            }
+            long strings = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; ++i) {
+                BleCharacteristic<?> characteristic = routes.get(reported[i % reported.length]);
+                sink += characteristic.hashCode() & 1;
+            }
+            long routed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < NOTIFICATIONS; ++i) {
+                transport.notify(measurementHandle, value);
+                transport.runPendingEvents();
+            }
+            long dispatched = System.nanoTime() - start;
+
+            System.out.printf("lookup via strings %.1f ns, routed %.1f ns; notification to listener %.1f ns%n",
+                              strings / (double) LOOKUPS,
+                              routed / (double) LOOKUPS,
+                              dispatched / (double) NOTIFICATIONS);
+        }
+        sSink += sink;
+        device.disconnect();
+    }
+
+    private static final int ROUNDS = 5;
+    private static final int LOOKUPS = 5000000;
+    private static final int NOTIFICATIONS = 500000;
+
+    /** Keeps the loops from being optimized away */
+    private static volatile long sSink;
+}
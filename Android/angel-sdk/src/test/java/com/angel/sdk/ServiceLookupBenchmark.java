@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * Measures {@link BleDevice#getService(Class)}, a single lookup keyed by the
+ * registered class, against the way it used to work: instantiating the
+ * service class through reflection to learn its UUID, then looking the
+ * service up by UUID.
+ * <p>
+ * Not a unit test; run {@link #main(String[])} from the IDE or with the test
+ * classes on the class path.
+ */
+public class ServiceLookupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        List<BleServiceHandle> layout = TestDevices.heartRateLayout();
+        BleServiceHandle battery = new BleServiceHandle(SrvBattery.SERVICE_UUID);
+        battery.addCharacteristic(ChBatteryLevel.CHARACTERISTIC_UUID,
+                                  BleCharacteristicHandle.PROPERTY_READ | BleCharacteristicHandle.PROPERTY_NOTIFY)
+               .addDescriptor(BleDescriptorHandle.CLIENT_CHARACTERISTIC_CONFIG);
+        layout.add(battery);
+
+        BleInMemoryTransport transport = new BleInMemoryTransport(layout);
+        BleDevice device = TestDevices.newHeartRateDevice(transport, new TestDevices.RecordingCallback());
+        device.registerServiceClass(SrvBattery.class);
+        device.connect(TestDevices.ADDRESS);
+        transport.runPendingEvents();
+
+        @SuppressWarnings("unchecked")
+        Class<? extends BleService>[] classes = new Class[] { SrvHeartRate.class, SrvBattery.class };
+        HashMap<UUID, BleService> byUuid = new HashMap<UUID, BleService>();
+        for (Class<? extends BleService> serviceClass : classes) {
+            BleService service = device.getService(serviceClass);
+            if (service == null) throw new AssertionError(serviceClass + " not discovered");
+            byUuid.put(service.getUuid(), service);
+        }
+
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; ++i) {
+                BleService service = byUuid.get(classes[i % classes.length].newInstance().getUuid());
+                sink += System.identityHashCode(service) & 1;
+            }
+            long reflective = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; ++i) {
+                BleService service = device.getService(classes[i % classes.length]);
+                sink += System.identityHashCode(service) & 1;
+            }
+            long keyed = System.nanoTime() - start;
+
+            System.out.printf("getService via newInstance %.1f ns, keyed by class %.1f ns%n",
+                              reflective / (double) CALLS,
+                              keyed / (double) CALLS);
+        }
+        sSink += sink;
+        device.disconnect();
+    }
+
+    private static final int ROUNDS = 5;
+    private static final int CALLS = 2000000;
+
+    /** Keeps the loops from being optimized away */
+    private static volatile long sSink;
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015, Seraphim Sense Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ *    and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ *    conditions and the following disclaimer in the documentation and/or other materials provided
+ *    with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ *    endorse or promote products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.angel.sdk;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/** Simulated devices for the tests, built on {@link BleInMemoryTransport} */
+final class TestDevices {
+
+    static final String ADDRESS = "00:11:22:33:44:55";
+
+    /** Runs callbacks on the thread that delivers the transport event */
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+
+    /**
+     * The Heart Rate service with a notifying measurement, a readable sensor
+     * location and a writable control point.
+     */
+    static List<BleServiceHandle> heartRateLayout() {
+        return heartRateLayout(BleCharacteristicHandle.PROPERTY_NOTIFY);
+    }
+
+
+    static List<BleServiceHandle> heartRateLayout(int measurementProperties) {
+        BleServiceHandle service = new BleServiceHandle(SrvHeartRate.SERVICE_UUID);
+        service.addCharacteristic(ChHeartRateMeasurement.CHARACTERISTIC_UUID, measurementProperties)
+               .addDescriptor(BleDescriptorHandle.CLIENT_CHARACTERISTIC_CONFIG);
+        service.addCharacteristic(ChBodySensorLocation.CHARACTERISTIC_UUID,
+                                  BleCharacteristicHandle.PROPERTY_READ)
+               .setValue(new byte[] { 1 });
+        service.addCharacteristic(ChHeartRateControlPoint.CHARACTERISTIC_UUID,
+                                  BleCharacteristicHandle.PROPERTY_WRITE);
+
+        List<BleServiceHandle> services = new ArrayList<BleServiceHandle>();
+        services.add(service);
+        return services;
+    }
+
+
+    /** A device with the Heart Rate service registered, not connected yet */
+    static BleDevice newHeartRateDevice(BleTransport transport, BleDevice.LifecycleCallback callback) {
+        return newHeartRateDevice(transport, callback, DIRECT);
+    }
+
+
+    static BleDevice newHeartRateDevice(BleTransport transport,
+                                        BleDevice.LifecycleCallback callback,
+                                        Executor callbackExecutor) {
+        BleDevice device = new BleDevice(transport, callback, callbackExecutor);
+        try {
+            device.registerServiceClass(SrvHeartRate.class);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        return device;
+    }
+
+
+    /** Heart rate measurement value with an 8-bit rate and the RR intervals */
+    static byte[] heartRateMeasurement(int rate, int... rrIntervals) {
+        byte[] value = new byte[2 + 2 * rrIntervals.length];
+        value[0] = (byte) (rrIntervals.length > 0 ? 0x10 : 0);
+        value[1] = (byte) rate;
+        for (int i = 0; i < rrIntervals.length; ++i) {
+            value[2 + 2 * i] = (byte) rrIntervals[i];
+            value[3 + 2 * i] = (byte) (rrIntervals[i] >> 8);
+        }
+        return value;
+    }
+
+
+    /** Holds callbacks until the test runs them */
+    static final class QueueingExecutor implements Executor {
+        @Override
+        public synchronized void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+
+        /** Runs the queued tasks, including the ones queued meanwhile */
+        int runAll() {
+            int count = 0;
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = mTasks.poll();
+                }
+                if (task == null) return count;
+                task.run();
+                ++count;
+            }
+        }
+
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+    }
+
+
+    /** Counts the life cycle callbacks */
+    static final class RecordingCallback implements BleDevice.LifecycleCallback {
+        @Override
+        public void onBluetoothServicesDiscovered(BleDevice device) {
+            mServicesDiscovered.incrementAndGet();
+        }
+
+
+        @Override
+        public void onBluetoothDeviceDisconnected() {
+            mDisconnected.incrementAndGet();
+        }
+
+
+        @Override
+        public void onReadRemoteRssi(int rssi) {
+            mLastRssi = rssi;
+        }
+
+        final AtomicInteger mServicesDiscovered = new AtomicInteger();
+        final AtomicInteger mDisconnected = new AtomicInteger();
+        volatile int mLastRssi;
+    }
+
+
+    private TestDevices() {
+    }
+}